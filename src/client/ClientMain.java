@@ -1,22 +1,22 @@
 package client;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
-import java.net.Socket;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
 import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
 import java.util.Scanner;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.LinkedBlockingQueue;
@@ -32,12 +32,21 @@ public class ClientMain
 {
 	public static final String configFile = "client.properties";
 
+	// comandi ammessi in pipeline: solo quelli di lettura e di inserimento, che non cambiano lo stato
+	// della connessione né quello dell'utente sul client
+	private static final Set<String> pipelineCommands = Set.of(
+		"help", "searchHotel", "searchAllHotels", "suggest", "filterHotels", "topHotels", "searchByRatings",
+		"trending", "insertReview", "insertReviews", "showMyBadges", "myReviews");
+
 	public static int RMIport; // porta per il registry RMI
 	public static String RMIserviceNameRegUser; // nome del servizio RMI offerto dal server (registrazione utente)
 	public static String RMIserviceNameNotify; // nome del servizio RMI offerto dal server (notifica aggiornamento classifica)
 
 	public static String hostname; // host su cui risiede il server
 	public static int TCPport; // porta di ascolto del server
+	public static String socketPath; // socket Unix domain del server sullo stesso host, usato al posto di TCP se non è vuoto
+	public static String protocol; // protocollo da usare sulla connessione TCP: 'text' oppure 'binary'
+	public static String compression; // compressione delle risposte del protocollo binario: 'none' oppure 'deflate'
 
 	public static String multicastAddress; // indirizzo di multicast
 	public static int UDPport; // porta multicast
@@ -56,12 +65,13 @@ public class ClientMain
 		}
 
 		Scanner inputScanner = null;
-		try(Socket socket = new Socket(hostname, TCPport))
-		{	/*
-			 * SOCKET TCP E RELATIVI STREAM DI INPUT/OUTPUT
-			 */
-			BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-			PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+		/*
+		 * CONNESSIONE CON IL SERVER, TCP O UNIX DOMAIN (PROTOCOLLO TESTUALE O BINARIO)
+		 */
+		try(ServerConnection connection = socketPath.isEmpty()
+			? new ServerConnection(hostname, TCPport, protocol, compression)
+			: new ServerConnection(Paths.get(socketPath), protocol, compression))
+		{
 
 			/*
 			 * MULTICAST UDP
@@ -109,11 +119,20 @@ public class ClientMain
 			 *   register <username> <password>
 			 *   login <username> <password>
 			 *   logout <username>
+			 *   resume <token>
 			 *   searchHotel <nomeHotel> <città>
-			 *   searchAllHotels <città>
+			 *   searchAllHotels <città> [limit [offset]]
+			 *   suggest <prefisso> [città]
+			 *   filterHotels <città> <servizio>; <servizio>; ...
+			 *   topHotels <k>
+			 *   searchByRatings <città> <categoria> <min> <max> [ordinamento [limit]]
+			 *   trending [città] [1h|24h|7d] [reviews|rate]
 			 *   insertReview <nomeHotel> <città> <rate> <cleaning> <position> <services> <quality>
+			 *   insertReviews <recensione>; <recensione>; ...
 			 *   showMyBadges
+			 *   myReviews
 			 *   myRankings
+			 *   pipeline <file>
 			 * 
 			 * Formato dei messaggi di risposta ricevuti dal server: [stato],[contenuto]\n
 			 *   [stato] indica lo stato dell'utente sul client.
@@ -188,6 +207,16 @@ public class ClientMain
 					else
 						System.err.println("Errore, usare: register <username> <password>");
 				}
+				// interpreto il comando 'pipeline <file>'
+				else if(parts[0].equals("pipeline"))
+				{
+					if(parts.length != 2)
+					{
+						System.err.println("Errore, usare: pipeline <file>");
+						continue;
+					}
+					pipeline(parts[1], connection);
+				}
 				// interpreto il comando 'myRankings'
 				else if(parts[0].equals("myRankings"))
 				{
@@ -223,11 +252,10 @@ public class ClientMain
 				// altri comandi
 				else
 				{
-					out.println(line); // invio l'input dell'utente al server
-					String reply = in.readLine(); // leggo la risposta del server
-
-					// [stato],[contenuto]\n
-					String[] replyParts = reply.split(",", 2);
+					/* Invio l'input dell'utente al server e leggo la risposta: {stato, contenuto}.
+					 * Se la connessione cade dopo il login, 'connection' ripristina la sessione con il
+					 * token ricevuto dal server. */
+					String[] replyParts = connection.request(line);
 
 					// aggiorno lo stato dell'utente sul client
 					StatusClient previousStatus = status; // stato precedente
@@ -238,8 +266,7 @@ public class ClientMain
 					else
 						status = StatusClient.EXIT;
 
-					// stampo il contenuto del messaggio di risposta (sostituisco "*\n*" con new line)
-					replyParts[1] = replyParts[1].replace("*\\n*", "\n");
+					// stampo il contenuto del messaggio di risposta
 					if(replyParts[1].startsWith("Errore"))
 						System.err.println(replyParts[1]);
 					else
@@ -260,20 +287,24 @@ public class ClientMain
 						 * ("%s,Città seguite: %s\n", status.name(), followedCities)
 						 */
 
-						System.out.printf("> ");
-						line = inputScanner.nextLine();
-
-						out.println(line); // invio l'input dell'utente al server
-						reply = in.readLine(); // leggo la risposta del server
+						if(parts[0].equals("resume"))
+						{	// la sessione ripristinata contiene già le città seguite, nell'ultima riga della risposta
+							replyParts[1] = replyParts[1].substring(replyParts[1].lastIndexOf('\n') + 1);
+						}
+						else
+						{
+							System.out.printf("> ");
+							line = inputScanner.nextLine();
 
-						// [stato],[contenuto]\n
-						replyParts = reply.split(",", 2);
+							connection.sendFollowedCities(line); // invio l'input dell'utente al server
+							replyParts = connection.receive(); // leggo la risposta del server
 
-						// stampo il contenuto del messaggio di risposta
-						System.out.println(replyParts[1]);
+							// stampo il contenuto del messaggio di risposta
+							System.out.println(replyParts[1]);
+						}
 
 						// estraggo le città che seguo correttamente dal messaggio del server...
-						replyParts = reply.split(" ");
+						replyParts = replyParts[1].split(" ");
 						// ...e le aggiungo alla lista delle città che seguo
 						for(int i = 2; i < replyParts.length; i++)
 							if(!replyParts[i].equalsIgnoreCase("nessuna"))
@@ -338,6 +369,56 @@ public class ClientMain
 		}
 	}
 
+	/**
+	 * Invia al server, uno di seguito all'altro e senza attendere le risposte, i comandi contenuti in
+	 * un file (uno per riga), poi legge e stampa le risposte nello stesso ordine. <p>
+	 * Il server risponde ad ogni riga con una sola riga, quindi le risposte attese sono tante quante
+	 * le righe inviate. Sono ammessi solo i comandi di lettura e di inserimento: i comandi gestiti
+	 * localmente dal client e quelli che cambiano lo stato dell'utente (login, logout, resume, exit) o il
+	 * protocollo della connessione (protocol) richiedono che il client aggiorni il proprio stato dopo ogni
+	 * risposta.
+	 * @param fileName file che contiene i comandi
+	 * @param connection connessione con il server
+	 */
+	private static void pipeline(String fileName, ServerConnection connection) throws IOException
+	{
+		List<String> commands = new ArrayList<>();
+		try
+		{
+			for(String command : Files.readAllLines(Paths.get(fileName)))
+			{
+				if(command.isBlank())
+					continue;
+				String name = command.split(" ")[0];
+				if(!pipelineCommands.contains(name))
+				{
+					System.err.println("Errore: comando non consentito in pipeline: " + name);
+					return ;
+				}
+				commands.add(command);
+			}
+		}
+		catch(IOException e)
+		{
+			System.err.println("Errore: impossibile leggere il file " + fileName);
+			return ;
+		}
+
+		// invio tutti i comandi con un solo flush
+		connection.sendAll(commands);
+
+		// leggo una risposta per ogni comando inviato
+		for(int i = 0; i < commands.size(); i++)
+		{
+			String content = connection.receive()[1];
+			System.out.println("> " + commands.get(i));
+			if(content.startsWith("Errore"))
+				System.err.println(content);
+			else
+				System.out.println(content);
+		}
+	}
+
 	/**
 	 * Legge il file di configurazione del client.
 	 */
@@ -358,6 +439,9 @@ public class ClientMain
 			RMIserviceNameNotify = prop.getProperty("RMIserviceNameNotify");
 			TCPport = Integer.parseInt(prop.getProperty("TCPport"));
 			hostname = prop.getProperty("hostname");
+			socketPath = prop.getProperty("socketPath", "");
+			protocol = prop.getProperty("protocol", "text");
+			compression = prop.getProperty("compression", "none");
 			UDPport = Integer.parseInt(prop.getProperty("UDPport"));
 			multicastAddress = prop.getProperty("multicastAddress");
 		}
@@ -0,0 +1,114 @@
+package client;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import utils.BinaryProtocol;
+
+/**
+ * Classe che rappresenta una connessione multiplexata con il server, per i processi (e.g. un gateway)
+ * che servono molti utenti con una sola connessione. <p>
+ *
+ * Ogni utente è una sessione identificata da un id scelto dal chiamante: la sessione ha il proprio
+ * stato sul server, nasce con il primo comando inviato con quell'id e termina con 'exit'. Le risposte
+ * arrivano nell'ordine in cui il server le produce e riportano l'id della sessione, quindi un thread può
+ * leggerle con {@link #receive()} mentre altri thread inviano comandi con {@link #send(int, String)}.
+ */
+public class MuxConnection implements Closeable
+{
+	private final SocketChannel channel;
+	private final DataInputStream in;
+	private final DataOutputStream out;
+
+	/**
+	 * Apre la connessione TCP con il server.
+	 */
+	public MuxConnection(String hostname, int port) throws IOException
+	{
+		this(new InetSocketAddress(hostname, port));
+	}
+
+	/**
+	 * Apre la connessione con il server sul suo socket Unix domain.
+	 */
+	public MuxConnection(Path socketPath) throws IOException
+	{
+		this(UnixDomainSocketAddress.of(socketPath));
+	}
+
+	private MuxConnection(SocketAddress address) throws IOException
+	{
+		channel = SocketChannel.open(address);
+		in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+		out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+
+		// negozio il multiplexing, la richiesta e la risposta sono righe di testo
+		out.write((BinaryProtocol.NEGOTIATION_MUX + "\n").getBytes());
+		out.flush();
+		String reply = BinaryProtocol.readTextLine(in);
+		if(reply == null || reply.contains("Errore"))
+		{
+			channel.close();
+			throw new IOException("negoziazione del multiplexing fallita");
+		}
+	}
+
+	/**
+	 * Invia un comando della sessione 'session'.
+	 * @param line comando, nello stesso formato del protocollo testuale
+	 */
+	public void send(int session, String line) throws IOException
+	{
+		String[] parts = line.split(" ");
+		synchronized(out)
+		{
+			BinaryProtocol.writeMuxRequest(out, session, BinaryProtocol.opcodeOf(parts[0]), ServerConnection.requestArgs(parts, line));
+			out.flush();
+		}
+	}
+
+	/**
+	 * Invia le città da seguire della sessione 'session', subito dopo il suo login.
+	 * @param line città separate da uno spazio
+	 */
+	public void sendFollowedCities(int session, String line) throws IOException
+	{
+		synchronized(out)
+		{
+			BinaryProtocol.writeMuxRequest(out, session, BinaryProtocol.OP_FOLLOW_CITIES, Arrays.asList(line.split(" ")));
+			out.flush();
+		}
+	}
+
+	/**
+	 * Riceve la prossima risposta, di qualsiasi sessione.
+	 * @return un array {id sessione, stato, contenuto}; l'id {@link BinaryProtocol#MUX_CONNECTION}
+	 * indica un messaggio che riguarda l'intera connessione
+	 */
+	public String[] receive() throws IOException
+	{
+		synchronized(in)
+		{
+			String[] reply = BinaryProtocol.readMuxReply(in);
+			if(reply == null)
+				throw new IOException("connessione chiusa dal server");
+			return reply;
+		}
+	}
+
+	public void close() throws IOException
+	{
+		channel.close();
+	}
+}
\ No newline at end of file
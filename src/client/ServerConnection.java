@@ -0,0 +1,334 @@
+package client;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.Inflater;
+
+import entities.StatusClient;
+import utils.BinaryProtocol;
+
+/**
+ * Classe che rappresenta la connessione del client con il server: TCP oppure, se il server è sullo
+ * stesso host, sul suo socket Unix domain. <p>
+ *
+ * Nasconde al resto del client il protocollo usato sulla connessione: quello testuale (default) o
+ * quello binario, negoziato all'apertura della connessione (vedi {@link BinaryProtocol}), con o senza
+ * la compressione delle risposte. <p>
+ *
+ * Dopo il login conserva il token di sessione rilasciato dal server: se la connessione cade, o la
+ * sessione scade per inattività, {@link #request(String)} si riconnette e ripristina la sessione con
+ * 'resume <token>', senza chiedere di nuovo la password all'utente.
+ */
+public class ServerConnection implements Closeable
+{
+	// riga della risposta al login che contiene il token di sessione
+	private static final String TOKEN_PREFIX = "Token di sessione: ";
+
+	// inizio del messaggio inviato dal server quando la sessione scade per inattività
+	private static final String EXPIRED_PREFIX = "Sessione scaduta";
+
+	/* Comandi che vengono ripetuti automaticamente dopo aver ripristinato la sessione: solo quelli
+	 * che non modificano i dati, perché il server potrebbe aver già eseguito il comando prima che la
+	 * connessione cadesse. */
+	private static final Set<String> RETRYABLE_COMMANDS = Set.of("help", "searchHotel", "searchAllHotels", "suggest", "filterHotels", "topHotels", "searchByRatings", "trending", "showMyBadges", "myReviews");
+
+	private final SocketAddress address;
+	private final String compression;
+	private final boolean binary;
+
+	// socket TCP o socket channel Unix domain
+	private Closeable socket;
+
+	// stream del protocollo testuale
+	private BufferedReader in;
+	private PrintWriter out;
+
+	// stream del protocollo binario
+	private DataInputStream binIn;
+	private DataOutputStream binOut;
+
+	// decompressore delle risposte compresse del protocollo binario
+	private final Inflater inflater = new Inflater();
+
+	// token di sessione dell'utente loggato, null se non c'è
+	private String sessionToken;
+
+	/**
+	 * Apre la connessione TCP con il server.
+	 * @param protocol protocollo da usare: 'text' oppure 'binary'
+	 * @param compression compressione delle risposte: 'none' oppure 'deflate' (solo con il protocollo binario)
+	 */
+	public ServerConnection(String hostname, int port, String protocol, String compression) throws IOException
+	{
+		this(new InetSocketAddress(hostname, port), protocol, compression);
+	}
+
+	/**
+	 * Apre la connessione con il server sul suo socket Unix domain.
+	 * @param socketPath percorso del socket Unix domain del server
+	 * @param protocol protocollo da usare: 'text' oppure 'binary'
+	 * @param compression compressione delle risposte: 'none' oppure 'deflate' (solo con il protocollo binario)
+	 */
+	public ServerConnection(Path socketPath, String protocol, String compression) throws IOException
+	{
+		this(UnixDomainSocketAddress.of(socketPath), protocol, compression);
+	}
+
+	private ServerConnection(SocketAddress address, String protocol, String compression) throws IOException
+	{
+		this.address = address;
+		this.compression = compression;
+		this.binary = protocol.equals("binary");
+		open();
+	}
+
+	/**
+	 * Apre il socket e, se richiesto, negozia il protocollo binario.
+	 */
+	private void open() throws IOException
+	{
+		InputStream input;
+		OutputStream output;
+		if(address instanceof UnixDomainSocketAddress)
+		{
+			SocketChannel channel = SocketChannel.open(address);
+			socket = channel;
+			input = Channels.newInputStream(channel);
+			output = Channels.newOutputStream(channel);
+		}
+		else
+		{
+			Socket tcpSocket = new Socket();
+			tcpSocket.connect(address);
+			socket = tcpSocket;
+			input = tcpSocket.getInputStream();
+			output = tcpSocket.getOutputStream();
+		}
+
+		if(!binary)
+		{
+			in = new BufferedReader(new InputStreamReader(input));
+			out = new PrintWriter(output, false);
+			return ;
+		}
+
+		binIn = new DataInputStream(new BufferedInputStream(input));
+		binOut = new DataOutputStream(new BufferedOutputStream(output));
+
+		// negozio il protocollo binario, la richiesta e la risposta sono righe di testo
+		String negotiation = compression.equals("deflate")
+			? BinaryProtocol.NEGOTIATION_DEFLATE
+			: BinaryProtocol.NEGOTIATION;
+		binOut.write((negotiation + "\n").getBytes());
+		binOut.flush();
+		String reply = BinaryProtocol.readTextLine(binIn);
+		if(reply == null || reply.contains("Errore"))
+		{
+			socket.close();
+			throw new IOException("negoziazione del protocollo binario fallita");
+		}
+	}
+
+	/**
+	 * Invia un comando al server.
+	 * @param line comando inserito dall'utente
+	 */
+	public void send(String line) throws IOException
+	{
+		write(line);
+		flush();
+	}
+
+	/**
+	 * Invia un comando al server e ne riceve la risposta. Se c'è un utente loggato e la connessione
+	 * cade, o la sessione scade per inattività, si riconnette e ripristina la sessione: i comandi in
+	 * {@link #RETRYABLE_COMMANDS} vengono ripetuti, per gli altri si chiede all'utente di ripeterli.
+	 * @param line comando inserito dall'utente
+	 * @return un array {stato, contenuto}, dove il contenuto è il testo da mostrare all'utente
+	 * @throws IOException se la connessione cade e non è possibile ripristinare la sessione
+	 */
+	public String[] request(String line) throws IOException
+	{
+		String command = line.split(" ")[0];
+		String[] reply;
+		try
+		{
+			send(line);
+			reply = receive();
+		}
+		catch(IOException e)
+		{
+			if(sessionToken == null)
+				throw e;
+			reply = null;
+		}
+
+		if(sessionToken != null && !command.equals("exit")
+			&& (reply == null || (reply[0].equals(StatusClient.EXIT.name()) && reply[1].startsWith(EXPIRED_PREFIX))))
+		{
+			String[] resumed = resume();
+			if(!RETRYABLE_COMMANDS.contains(command))
+				return new String[] {resumed[0], "Connessione con il server ripristinata: " + resumed[1]
+					+ "\nRipeti il comando"};
+			send(line);
+			reply = receive();
+		}
+
+		// aggiorno il token di sessione: rilasciato al login, impostato da 'resume', perso dopo il logout
+		if(!reply[0].equals(StatusClient.USER_LOGGED.name()))
+			sessionToken = null;
+		else if(reply[1].contains(TOKEN_PREFIX))
+			sessionToken = reply[1].substring(reply[1].indexOf(TOKEN_PREFIX) + TOKEN_PREFIX.length()).split("\\s")[0];
+		else if(command.equals("resume") && !reply[1].startsWith("Errore"))
+			sessionToken = line.split(" ")[1];
+		return reply;
+	}
+
+	/**
+	 * Riapre la connessione e ripristina la sessione con il token ricevuto al login.
+	 * @return la risposta del server a 'resume'
+	 */
+	private String[] resume() throws IOException
+	{
+		try
+		{
+			socket.close();
+		}
+		catch(IOException e)
+		{ }
+		open();
+		send("resume " + sessionToken);
+		String[] reply = receive();
+		if(!reply[0].equals(StatusClient.USER_LOGGED.name()))
+		{
+			sessionToken = null;
+			throw new IOException("impossibile ripristinare la sessione (" + reply[1] + ")");
+		}
+		return reply;
+	}
+
+	/**
+	 * Invia più comandi al server, uno di seguito all'altro e con un solo flush (pipelining).
+	 */
+	public void sendAll(List<String> lines) throws IOException
+	{
+		for(String line : lines)
+			write(line);
+		flush();
+	}
+
+	/**
+	 * Invia al server le città da seguire, subito dopo il login.
+	 * @param line città separate da uno spazio
+	 */
+	public void sendFollowedCities(String line) throws IOException
+	{
+		if(!binary)
+			send(line);
+		else
+		{
+			BinaryProtocol.writeRequest(binOut, BinaryProtocol.OP_FOLLOW_CITIES, Arrays.asList(line.split(" ")));
+			flush();
+		}
+	}
+
+	/**
+	 * Riceve una risposta dal server.
+	 * @return un array {stato, contenuto}, dove il contenuto è il testo da mostrare all'utente
+	 */
+	public String[] receive() throws IOException
+	{
+		if(binary)
+		{
+			String[] reply = BinaryProtocol.readReply(binIn, inflater);
+			if(reply == null)
+				throw new IOException("connessione chiusa dal server");
+			return reply;
+		}
+
+		String reply = in.readLine();
+		if(reply == null)
+			throw new IOException("connessione chiusa dal server");
+
+		// [stato],[contenuto]\n, sostituisco "*\n*" con new line
+		String[] replyParts = reply.split(",", 2);
+		replyParts[1] = replyParts[1].replace("*\\n*", "\n");
+		return replyParts;
+	}
+
+	public void close() throws IOException
+	{
+		inflater.end();
+		socket.close();
+	}
+
+	/**
+	 * Scrive un comando senza fare il flush.
+	 */
+	private void write(String line) throws IOException
+	{
+		if(!binary)
+		{
+			out.print(line + "\n");
+			return ;
+		}
+
+		String[] parts = line.split(" ");
+		BinaryProtocol.writeRequest(binOut, BinaryProtocol.opcodeOf(parts[0]), requestArgs(parts, line));
+	}
+
+	/**
+	 * @return gli argomenti del frame di richiesta binario del comando testuale 'line', già diviso in
+	 * 'parts'
+	 */
+	static List<String> requestArgs(String[] parts, String line)
+	{
+		List<String> args = new ArrayList<>();
+		int n = parts.length;
+		if(parts[0].equals("searchHotel") && n >= 3)
+		{	// searchHotel <nomeHotel> <città>, il nome dell'hotel può contenere spazi
+			args.add(String.join(" ", Arrays.asList(parts).subList(1, n - 1)));
+			args.add(parts[n - 1]);
+		}
+		else if(parts[0].equals("insertReview") && n >= 8)
+		{	// insertReview <nomeHotel> <città> <rate> <cleaning> <position> <services> <quality>
+			args.add(String.join(" ", Arrays.asList(parts).subList(1, n - 6)));
+			args.addAll(Arrays.asList(parts).subList(n - 6, n));
+		}
+		else if(parts[0].equals("insertReviews"))
+		{	// insertReviews <recensione>; <recensione>; ..., le recensioni sono in un solo argomento
+			args.add(line.substring(parts[0].length()).trim());
+		}
+		else
+			args.addAll(Arrays.asList(parts).subList(1, n));
+		return args;
+	}
+
+	private void flush() throws IOException
+	{
+		if(binary)
+			binOut.flush();
+		else
+			out.flush();
+	}
+}
\ No newline at end of file
@@ -12,7 +12,8 @@ public class Hotel implements Cloneable
 	private String description; // descrizione dell'hotel
 	private String city; // città in cui si trova l'hotel
 	private String phone; // numero di telefono dell'hotel
-	private List<String> services; // lista di servizi offerti dall'hotel
+	private List<String> services; // lista di servizi offerti dall'hotel, null dopo encodeServices()
+	private transient short[] serviceIds; // id dei servizi nel ServiceDictionary, nello stesso ordine
 	private double rate; // punteggio sintetico calcolato in base alle recensioni dell'hotel
 	private Ratings ratings; // punteggi delle categorie calcolati in base alle recensioni dell'hotel
 
@@ -50,7 +51,30 @@ public class Hotel implements Cloneable
 	}
 
 	public List<String> getServices() {
-		return services;
+		return serviceIds != null ? ServiceDictionary.asList(serviceIds) : services;
+	}
+
+	/**
+	 * @return gli id dei servizi offerti dall'hotel nel {@link ServiceDictionary}, null se i servizi
+	 * non sono stati codificati
+	 */
+	public short[] getServiceIds() {
+		return serviceIds;
+	}
+
+	/**
+	 * Sostituisce la lista di servizi, letta dal file json, con gli id dei servizi nel
+	 * {@link ServiceDictionary} (aggiungendo al dizionario quelli nuovi).
+	 */
+	public void encodeServices()
+	{
+		if(services == null)
+			return ;
+		short[] ids = new short[services.size()];
+		for(int i = 0; i < ids.length; i++)
+			ids[i] = (short) ServiceDictionary.add(services.get(i));
+		serviceIds = ids;
+		services = null;
 	}
 
 	public double getRate() {
@@ -77,7 +101,7 @@ public class Hotel implements Cloneable
 			", description=\"" + description + "\"" +
 			", city=\"" + city + "\"" +
 			", phone=\"" + phone + "\"" +
-			", services=" + services +
+			", services=" + getServices() +
 			", rate=" + rate +
 			", ratings=" + ratings +
 			"}";
@@ -14,6 +14,9 @@ public class Review
 
 	private String dateTime; // data e ora in cui è stata inserita la recensione
 
+	// id dell'hotel recensito, assegnato dal server (non viene salvato nel file json)
+	private transient int hotelId;
+
 	public Review(String reviewer, String hotelName, String city, int rate, Ratings ratings, String dateTime)
 	{
 		this.reviewer = reviewer;
@@ -48,6 +51,14 @@ public class Review
 		return dateTime;
 	}
 
+	public int getHotelId() {
+		return hotelId;
+	}
+
+	public void setHotelId(int hotelId) {
+		this.hotelId = hotelId;
+	}
+
 	public String toString()
 	{
 		return "Review{" +
@@ -0,0 +1,101 @@
+package entities;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Classe che rappresenta il dizionario dei servizi offerti dagli hotel: ogni nome distinto di servizio
+ * ha un id intero, assegnato in ordine di prima apparizione. <p>
+ *
+ * Gli hotel memorizzano i propri servizi come array di id (vedi {@link Hotel#encodeServices()}) invece
+ * che come lista di stringhe, quindi ogni nome è in memoria una sola volta. I servizi vengono aggiunti
+ * durante il caricamento degli hotel; le letture non usano lock.
+ */
+public class ServiceDictionary
+{
+	private static final HashMap<String, Integer> ids = new HashMap<>();
+
+	// id del servizio -> nome del servizio
+	private static volatile String[] names = new String[0];
+
+	private ServiceDictionary()
+	{ }
+
+	/**
+	 * @return l'id del servizio 'name', aggiunto al dizionario se non c'è ancora
+	 */
+	public static synchronized int add(String name)
+	{
+		Integer id = ids.get(name);
+		if(id != null)
+			return id;
+		if(names.length > Short.MAX_VALUE)
+			throw new IllegalStateException("Troppi servizi distinti");
+		id = names.length;
+		ids.put(name, id);
+		String[] newNames = Arrays.copyOf(names, id + 1);
+		newNames[id] = name;
+		names = newNames;
+		return id;
+	}
+
+	/**
+	 * @return l'id del servizio 'name', senza distinzione tra maiuscole e minuscole, -1 se non esiste
+	 */
+	public static int find(String name)
+	{
+		String[] current = names;
+		for(int id = 0; id < current.length; id++)
+			if(current[id].equalsIgnoreCase(name))
+				return id;
+		return -1;
+	}
+
+	/**
+	 * @return il nome del servizio con id 'id'
+	 */
+	public static String nameOf(int id)
+	{
+		return names[id];
+	}
+
+	/**
+	 * @return il numero di servizi distinti, gli id vanno da 0 a size() - 1
+	 */
+	public static int size()
+	{
+		return names.length;
+	}
+
+	/**
+	 * @return i nomi di tutti i servizi, in ordine di id
+	 */
+	public static List<String> names()
+	{
+		return List.of(names);
+	}
+
+	/**
+	 * @return la lista, non modificabile, dei nomi dei servizi con id 'serviceIds' (nello stesso ordine),
+	 * senza copiarli
+	 */
+	public static List<String> asList(short[] serviceIds)
+	{
+		return new AbstractList<String>()
+		{
+			@Override
+			public String get(int index)
+			{
+				return nameOf(serviceIds[index]);
+			}
+
+			@Override
+			public int size()
+			{
+				return serviceIds.length;
+			}
+		};
+	}
+}
\ No newline at end of file
@@ -1,5 +1,7 @@
 package entities;
 
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
 /**
  * Classe che rappresenta un utente registrato.
  */
@@ -8,8 +10,14 @@ public class User
 	private String username;
 	private String salt; // valore di salt da aggiungere alla password
 	private String hashedPassword; // hash della password
-	private int experienceLevel; // livello di esperienza dell'utente
-	private int numReviews; // numero di recensioni inserite dall'utente
+	private volatile int experienceLevel; // livello di esperienza dell'utente
+	private volatile int numReviews; // numero di recensioni inserite dall'utente
+
+	// aggiornamenti atomici dei contatori, senza lock (un lock intrinseco bloccherebbe il carrier dei thread virtuali)
+	private static final AtomicIntegerFieldUpdater<User> NUM_REVIEWS =
+		AtomicIntegerFieldUpdater.newUpdater(User.class, "numReviews");
+	private static final AtomicIntegerFieldUpdater<User> EXPERIENCE_LEVEL =
+		AtomicIntegerFieldUpdater.newUpdater(User.class, "experienceLevel");
 
 	public User(String username, String salt, String hashedPassword)
 	{
@@ -44,18 +52,32 @@ public class User
 	 * Incrementa di uno il numero di recensioni inserite dall'utente e, in base ad esso, aggiorna il
 	 * suo livello di esperienza.
 	 */
-	public synchronized void incrNumReviews()
+	public void incrNumReviews()
+	{
+		incrNumReviews(1);
+	}
+
+	/**
+	 * Incrementa di 'count' il numero di recensioni inserite dall'utente (e.g. con il comando
+	 * insertReviews) e, in base ad esso, aggiorna il suo livello di esperienza.
+	 */
+	public void incrNumReviews(int count)
 	{
-		numReviews++;
-		if(numReviews >= 20)
-			experienceLevel = 5; // contributore super
-		else if(numReviews >= 15)
-			experienceLevel = 4; // contributore esperto
-		else if(numReviews >= 10)
-			experienceLevel = 3; // contributore
-		else if(numReviews >= 5)
-			experienceLevel = 2; // recensore esperto
-		else if(numReviews >= 1)
-			experienceLevel = 1; // recensore
+		int n = NUM_REVIEWS.addAndGet(this, count);
+		int newLevel;
+		if(n >= 20)
+			newLevel = 5; // contributore super
+		else if(n >= 15)
+			newLevel = 4; // contributore esperto
+		else if(n >= 10)
+			newLevel = 3; // contributore
+		else if(n >= 5)
+			newLevel = 2; // recensore esperto
+		else
+			newLevel = 1; // recensore
+
+		// il livello può solo crescere: se più incrementi concorrenti terminano in ordine diverso
+		// non sovrascrivo un livello più alto con uno più basso
+		EXPERIENCE_LEVEL.accumulateAndGet(this, newLevel, Math::max);
 	}
 }
\ No newline at end of file
@@ -6,12 +6,18 @@ import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class NotifyServerImpl extends RemoteObject implements NotifyServerInterface
 {
 	// lista dei client registrati (contiene gli stub)
 	private List<NotifyClientInterface> clients;
 
+	/* Lock che protegge 'clients'. Uso un ReentrantLock invece di metodi synchronized perché le
+	 * callback sono chiamate remote bloccanti: un thread virtuale in attesa dentro un blocco
+	 * synchronized resterebbe legato al suo thread carrier. */
+	private final ReentrantLock lock = new ReentrantLock();
+
 	/**
 	 * Crea un nuovo server (oggetto remoto).
 	 */
@@ -21,15 +27,31 @@ public class NotifyServerImpl extends RemoteObject implements NotifyServerInterf
 		clients = new ArrayList<NotifyClientInterface>();
 	}
 
-	public synchronized void registerForCallback(NotifyClientInterface clientInterface) throws RemoteException
+	public void registerForCallback(NotifyClientInterface clientInterface) throws RemoteException
 	{
-		if(!clients.contains(clientInterface))
-			clients.add(clientInterface);
+		lock.lock();
+		try
+		{
+			if(!clients.contains(clientInterface))
+				clients.add(clientInterface);
+		}
+		finally
+		{
+			lock.unlock();
+		}
 	}
 
-	public synchronized void unregisterForCallback(NotifyClientInterface clientInterface) throws RemoteException
+	public void unregisterForCallback(NotifyClientInterface clientInterface) throws RemoteException
 	{
-		clients.remove(clientInterface);
+		lock.lock();
+		try
+		{
+			clients.remove(clientInterface);
+		}
+		finally
+		{
+			lock.unlock();
+		}
 	}
 
 	/**
@@ -50,13 +72,21 @@ public class NotifyServerImpl extends RemoteObject implements NotifyServerInterf
 	 * @param hotelNames lista che contiene i nomi di, al massimo, i primi 3 hotel della nuova classifica
 	 * in ordine decrescente di rate
 	 */
-	private synchronized void doCallbacks(String city, CopyOnWriteArrayList<String> hotelNames) throws RemoteException
+	private void doCallbacks(String city, CopyOnWriteArrayList<String> hotelNames) throws RemoteException
 	{
-		Iterator<NotifyClientInterface> i = clients.iterator();
-		while(i.hasNext())
+		lock.lock();
+		try
+		{
+			Iterator<NotifyClientInterface> i = clients.iterator();
+			while(i.hasNext())
+			{
+				NotifyClientInterface client = (NotifyClientInterface) i.next(); // stub
+				client.notifyUpdatedRanking(city, hotelNames); // metodo del client
+			}
+		}
+		finally
 		{
-			NotifyClientInterface client = (NotifyClientInterface) i.next(); // stub
-			client.notifyUpdatedRanking(city, hotelNames); // metodo del client
+			lock.unlock();
 		}
 		System.out.println("[NOTIFY-SERVER] Callback eseguite");
 	}
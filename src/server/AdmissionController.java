@@ -0,0 +1,236 @@
+package server;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import entities.StatusClient;
+
+/**
+ * Classe che rappresenta il controllo di ammissione delle connessioni TCP nelle modalità 'thread' e
+ * 'virtual'. <p>
+ *
+ * 1) Al massimo 'maxSessions' sessioni vengono eseguite contemporaneamente sul pool. <p>
+ * 2) Quando il limite è raggiunto, al massimo 'queueSize' connessioni attendono in coda che si liberi
+ *    una sessione, per non più di 'queueTimeout' millisecondi. <p>
+ * 3) Le connessioni che non trovano posto in coda, o che restano in coda troppo a lungo, ricevono
+ *    subito la risposta {@link #BUSY_REPLY} e vengono chiuse. <p>
+ *
+ * Una connessione in coda non riceve risposte: i comandi che il client invia restano nel buffer del
+ * socket e vengono eseguiti, in ordine, quando la sessione viene avviata, quindi il client vede solo
+ * la prima risposta in ritardo (al massimo 'queueTimeout' millisecondi). Una riga "in coda" non viene
+ * inviata perché il client la leggerebbe come risposta al suo primo comando. <p>
+ *
+ * Il permesso di una sessione si ottiene con tryAcquire() sullo stesso semaforo per le connessioni
+ * TCP e per quelle del socket Unix domain, quindi il limite vale per la somma delle due. <p>
+ *
+ * La risposta ha lo stato {@link StatusClient#EXIT}, quindi il client la mostra all'utente e termina,
+ * indipendentemente dal comando che ha inviato.
+ */
+public class AdmissionController
+{
+	// risposta inviata alle connessioni rifiutate, nel formato del protocollo testuale (le connessioni
+	// vengono rifiutate prima di leggere la riga di negoziazione di un altro protocollo)
+	public static final byte[] BUSY_REPLY =
+		(StatusClient.EXIT.name() + ",Errore: server occupato, riprova più tardi\n").getBytes();
+
+	// intervallo tra un controllo della coda e l'altro, in millisecondi
+	private static final long SWEEP_PERIOD = 100;
+
+	/**
+	 * Connessione in attesa di una sessione libera.
+	 */
+	private static class Pending
+	{
+		final Socket socket;
+		final long deadline; // istante (System.nanoTime) oltre il quale la connessione viene rifiutata
+
+		Pending(Socket socket, long deadline)
+		{
+			this.socket = socket;
+			this.deadline = deadline;
+		}
+	}
+
+	private final Semaphore sessions;
+	private final ArrayBlockingQueue<Pending> queue; // null se le connessioni non possono attendere in coda
+	private final long queueTimeoutNanos;
+	private final ExecutorService pool;
+
+	// crea il task che gestisce la sessione di una connessione ammessa
+	private final Function<Socket, Runnable> sessionFactory;
+
+	/**
+	 * @param maxSessions numero massimo di sessioni contemporanee, 0 per nessun limite
+	 * @param queueSize numero massimo di connessioni in attesa, 0 per rifiutare subito le connessioni
+	 * oltre il limite
+	 * @param queueTimeout tempo massimo di attesa in coda, in millisecondi, 0 per rifiutare subito le
+	 * connessioni oltre il limite
+	 */
+	public AdmissionController(
+		int maxSessions, int queueSize, int queueTimeout,
+		ExecutorService pool, Function<Socket, Runnable> sessionFactory)
+	{
+		this.sessions = maxSessions > 0 ? new Semaphore(maxSessions) : null;
+		// senza coda o senza attesa le connessioni oltre il limite vengono rifiutate subito, quindi non
+		// serve nemmeno il thread che controlla le scadenze della coda
+		this.queue = queueSize > 0 && queueTimeout > 0 ? new ArrayBlockingQueue<>(queueSize) : null;
+		this.queueTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(queueTimeout);
+		this.pool = pool;
+		this.sessionFactory = sessionFactory;
+
+		if(sessions != null && queue != null)
+		{
+			ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(task -> {
+				Thread t = new Thread(task, "admission-sweeper");
+				t.setDaemon(true);
+				return t;
+			});
+			sweeper.scheduleWithFixedDelay(this::sweep, SWEEP_PERIOD, SWEEP_PERIOD, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Decide cosa fare di una connessione appena accettata: avviarne la sessione, metterla in coda
+	 * oppure rifiutarla. Invocato dal thread che esegue la accept().
+	 */
+	public void admit(Socket socket)
+	{
+		if(sessions == null || sessions.tryAcquire())
+		{
+			start(socket);
+			return ;
+		}
+		if(queue != null && queue.offer(new Pending(socket, System.nanoTime() + queueTimeoutNanos)))
+		{
+			ServerStats.sessionsQueued.increment();
+			ServerStats.queuedSessions.incrementAndGet();
+			return ;
+		}
+		reject(socket);
+	}
+
+	/**
+	 * Avvia la sessione di una connessione che ha già ottenuto il permesso.
+	 */
+	private void start(Socket socket)
+	{
+		ServerStats.sessionsAccepted.increment();
+		ServerStats.activeSessions.incrementAndGet();
+		Runnable session = sessionFactory.apply(socket);
+		try
+		{
+			pool.execute(() -> {
+				try
+				{
+					session.run();
+				}
+				finally
+				{
+					release();
+				}
+			});
+		}
+		catch(Exception e)
+		{	// pool terminato
+			release();
+			close(socket);
+		}
+	}
+
+	/**
+	 * Libera il permesso di una sessione terminata, passandolo direttamente alla prima connessione
+	 * in coda che non ha superato il tempo massimo di attesa.
+	 */
+	private void release()
+	{
+		ServerStats.activeSessions.decrementAndGet();
+		if(sessions == null)
+			return ;
+		Pending p;
+		while((p = poll()) != null)
+		{
+			if(System.nanoTime() - p.deadline < 0)
+			{
+				start(p.socket);
+				return ;
+			}
+			ServerStats.sessionsQueueTimeouts.increment();
+			reject(p.socket);
+		}
+		sessions.release();
+	}
+
+	/**
+	 * Rifiuta le connessioni in coda da troppo tempo e avvia quelle per cui si è liberato un permesso
+	 * (e.g. rilasciato mentre la connessione veniva messa in coda).
+	 */
+	private void sweep()
+	{
+		Pending p;
+		while((p = queue.peek()) != null)
+		{
+			if(System.nanoTime() - p.deadline >= 0)
+			{
+				if(queue.remove(p))
+				{
+					ServerStats.queuedSessions.decrementAndGet();
+					ServerStats.sessionsQueueTimeouts.increment();
+					reject(p.socket);
+				}
+			}
+			else if(sessions.tryAcquire())
+			{
+				p = poll();
+				if(p == null)
+				{
+					sessions.release();
+					return ;
+				}
+				start(p.socket);
+			}
+			else
+				return ;
+		}
+	}
+
+	private Pending poll()
+	{
+		Pending p = queue != null ? queue.poll() : null;
+		if(p != null)
+			ServerStats.queuedSessions.decrementAndGet();
+		return p;
+	}
+
+	/**
+	 * Invia la risposta {@link #BUSY_REPLY} e chiude la connessione.
+	 */
+	private static void reject(Socket socket)
+	{
+		ServerStats.sessionsRejected.increment();
+		try
+		{
+			socket.getOutputStream().write(BUSY_REPLY);
+			socket.shutdownOutput();
+		}
+		catch(IOException e)
+		{ }
+		close(socket);
+	}
+
+	private static void close(Socket socket)
+	{
+		try
+		{
+			socket.close();
+		}
+		catch(IOException e)
+		{ }
+	}
+}
\ No newline at end of file
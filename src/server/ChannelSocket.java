@@ -0,0 +1,64 @@
+package server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Classe che presenta come {@link Socket} una connessione accettata su un socket Unix domain (vedi
+ * {@link ServerMain#unixSocketPath}), che esiste solo come {@link SocketChannel} bloccante. <p>
+ *
+ * Implementa solo i metodi usati da {@link Worker} e {@link AdmissionController}, così le connessioni
+ * locali sono gestite dalla stessa logica di quelle TCP.
+ */
+public class ChannelSocket extends Socket
+{
+	private final SocketChannel channel;
+	private final InputStream in;
+	private final OutputStream out;
+
+	public ChannelSocket(SocketChannel channel)
+	{
+		this.channel = channel;
+		this.in = Channels.newInputStream(channel);
+		this.out = Channels.newOutputStream(channel);
+	}
+
+	public InputStream getInputStream()
+	{
+		return in;
+	}
+
+	public OutputStream getOutputStream()
+	{
+		return out;
+	}
+
+	public void shutdownOutput() throws IOException
+	{
+		channel.shutdownOutput();
+	}
+
+	public void shutdownInput() throws IOException
+	{
+		channel.shutdownInput();
+	}
+
+	public boolean isConnected()
+	{
+		return channel.isConnected();
+	}
+
+	public boolean isClosed()
+	{
+		return !channel.isOpen();
+	}
+
+	public void close() throws IOException
+	{
+		channel.close();
+	}
+}
\ No newline at end of file
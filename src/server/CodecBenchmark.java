@@ -0,0 +1,119 @@
+package server;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.Socket;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Programma di misura del costo per richiesta del protocollo testuale nella modalità 'thread'. <p>
+ *
+ * Carica i dati dai file json ed esegue {@link Worker#run()} sul thread corrente, su una connessione
+ * simulata che contiene 'requests' comandi inviati in pipelining (un mix di help, searchHotel,
+ * searchAllHotels e showMyBadges) seguiti da exit. Misura i byte allocati dal thread e il tempo,
+ * divisi per il numero di richieste. <p>
+ *
+ * Uso: {@code java server.CodecBenchmark [requests] [rounds]}
+ */
+public class CodecBenchmark
+{
+	private static final String[] REQUESTS = {
+		"help",
+		"searchHotel Hotel Roma 1 Roma",
+		"searchAllHotels Milano",
+		"searchAllHotels Roma 3",
+		"showMyBadges"
+	};
+
+	public static void main(String[] args) throws Exception
+	{
+		int requests = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+		// carico le strutture dati come fa il server
+		ServerMain.usersMap = new ConcurrentHashMap<>();
+		ServerMain.loadCitiesFromJson();
+		ServerMain.loadHotelsFromJson();
+		ServerMain.loadReviewsFromJson();
+		ServerMain.loadUsersFromJson();
+		ServerMain.responseCache.rebuild(ServerMain.hotelsByCityMap);
+
+		ByteArrayOutputStream input = new ByteArrayOutputStream();
+		for(int i = 0; i < requests; i++)
+			input.write((REQUESTS[i % REQUESTS.length] + "\n").getBytes());
+		input.write("exit\n".getBytes());
+		byte[] commands = input.toByteArray();
+
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		for(int r = 0; r < rounds; r++)
+		{
+			CountingOutputStream output = new CountingOutputStream();
+			Worker worker = new Worker(
+				new StreamSocket(new ByteArrayInputStream(commands), output),
+				ServerMain.usersMap, ServerMain.hotelsByCityMap, ServerMain.hotelIndex, ServerMain.hotelReviews,
+				ServerMain.responseCache, 0);
+
+			long allocatedBefore = threads.getCurrentThreadAllocatedBytes();
+			long start = System.nanoTime();
+			worker.run();
+			double seconds = (System.nanoTime() - start) / 1e9;
+			long allocated = threads.getCurrentThreadAllocatedBytes() - allocatedBefore;
+
+			System.out.printf("round %d: %.0f req/s, %.0f byte allocati per richiesta, %d byte di risposta%n",
+				r, requests / seconds, (double) allocated / requests, output.count);
+		}
+		System.exit(0);
+	}
+
+	/**
+	 * Socket non connesso che legge e scrive su stream in memoria, per eseguire il Worker senza rete.
+	 */
+	private static class StreamSocket extends Socket
+	{
+		private final InputStream in;
+		private final OutputStream out;
+
+		StreamSocket(InputStream in, OutputStream out)
+		{
+			this.in = in;
+			this.out = out;
+		}
+
+		public InputStream getInputStream()
+		{
+			return in;
+		}
+
+		public OutputStream getOutputStream()
+		{
+			return out;
+		}
+
+		public void shutdownOutput()
+		{ }
+
+		public void close()
+		{ }
+	}
+
+	/**
+	 * Stream che scarta i byte scritti contandoli.
+	 */
+	private static class CountingOutputStream extends OutputStream
+	{
+		long count = 0;
+
+		public void write(int b)
+		{
+			count++;
+		}
+
+		public void write(byte[] b, int off, int len)
+		{
+			count += len;
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,223 @@
+package server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Classe che rappresenta il decodificatore dei comandi del protocollo testuale di una connessione,
+ * usato dal {@link Worker} nelle modalità 'thread' e 'virtual'. <p>
+ *
+ * Legge i byte del socket in un buffer riusato per tutta la connessione e divide ogni riga nelle parole
+ * del comando direttamente dal buffer, senza creare la stringa della riga: il risultato è lo stesso
+ * di {@code BufferedReader.readLine()} seguito da {@code line.split(" ")}, ma per ogni comando vengono
+ * create solo le stringhe delle parole e l'array che le contiene. <p>
+ *
+ * Come BufferedReader, una riga termina con '\n', '\r' oppure "\r\n" e l'ultima riga prima della
+ * chiusura della connessione può non avere terminatore.
+ */
+public class CommandCodec
+{
+	private static final int INITIAL_BUFFER_SIZE = 8192;
+
+	// charset usato da InputStreamReader, con cui erano decodificate le righe
+	private static final Charset CHARSET = Charset.defaultCharset();
+
+	private final InputStream in;
+
+	// byte letti dal socket: quelli ancora da consumare sono in [start, end)
+	private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+	private int start = 0;
+	private int end = 0;
+
+	// posizione da cui continuare a cercare la fine della riga, dopo aver letto altri byte
+	private int scan = 0;
+
+	// true se l'ultima riga è terminata con '\r': un eventuale '\n' successivo va saltato
+	private boolean skipLF = false;
+
+	// ultima riga restituita da readCommand(), valida fino alla chiamata successiva
+	private int lineStart = 0;
+	private int lineEnd = 0;
+
+	public CommandCodec(InputStream in)
+	{
+		this.in = in;
+	}
+
+	/**
+	 * Legge il prossimo comando.
+	 * @return le parole del comando, come {@code line.split(" ")}, o null se la connessione è stata
+	 * chiusa
+	 */
+	public String[] readCommand() throws IOException
+	{
+		if(skipLF)
+		{
+			if(start == end && !fill())
+				return null;
+			if(buffer[start] == '\n')
+				start++;
+			skipLF = false;
+		}
+
+		// cerco la fine della riga, leggendo altri byte finché non la trovo
+		scan = start;
+		int eol;
+		while((eol = findEndOfLine()) < 0)
+		{
+			if(!fill())
+			{
+				if(start == end)
+					return null;
+				eol = end; // ultima riga senza terminatore
+				break;
+			}
+		}
+
+		lineStart = start;
+		lineEnd = eol;
+		if(eol < end)
+		{
+			skipLF = buffer[eol] == '\r';
+			start = eol + 1;
+		}
+		else
+			start = end;
+		return tokenize();
+	}
+
+	/**
+	 * @return la riga dell'ultimo comando letto, creata solo quando serve (e.g. la negoziazione del
+	 * protocollo binario)
+	 */
+	public String line()
+	{
+		return new String(buffer, lineStart, lineEnd - lineStart, CHARSET);
+	}
+
+	/**
+	 * @return true se ci sono altri byte ricevuti da elaborare senza bloccarsi, come
+	 * {@code BufferedReader.ready()}
+	 */
+	public boolean ready() throws IOException
+	{
+		if(skipLF && start < end && buffer[start] == '\n')
+		{
+			start++;
+			skipLF = false;
+		}
+		return start < end || in.available() > 0;
+	}
+
+	/**
+	 * @return uno stream che restituisce i byte già letti nel buffer e non ancora consumati, seguiti da
+	 * quelli del socket; usato quando la connessione passa al protocollo binario
+	 */
+	public InputStream remainingInput()
+	{
+		return new InputStream() {
+			public int read() throws IOException
+			{
+				if(start < end)
+					return buffer[start++] & 0xff;
+				return in.read();
+			}
+
+			public int read(byte[] b, int off, int len) throws IOException
+			{
+				if(start == end)
+					return in.read(b, off, len);
+				int n = Math.min(len, end - start);
+				System.arraycopy(buffer, start, b, off, n);
+				start += n;
+				return n;
+			}
+
+			public int available() throws IOException
+			{
+				return (end - start) + in.available();
+			}
+		};
+	}
+
+	/**
+	 * @return la posizione del primo '\n' o '\r' in [scan, end), -1 se non c'è
+	 */
+	private int findEndOfLine()
+	{
+		for(int i = scan; i < end; i++)
+			if(buffer[i] == '\n' || buffer[i] == '\r')
+				return i;
+		scan = end;
+		return -1;
+	}
+
+	/**
+	 * Legge altri byte dal socket, spostando all'inizio del buffer quelli non consumati e ingrandendolo
+	 * se è pieno.
+	 * @return false se la connessione è stata chiusa
+	 */
+	private boolean fill() throws IOException
+	{
+		if(start > 0)
+		{
+			System.arraycopy(buffer, start, buffer, 0, end - start);
+			end -= start;
+			scan -= start;
+			start = 0;
+		}
+		if(end == buffer.length)
+		{
+			byte[] bigger = new byte[buffer.length * 2];
+			System.arraycopy(buffer, 0, bigger, 0, end);
+			buffer = bigger;
+		}
+		int n = in.read(buffer, end, buffer.length - end);
+		if(n < 0)
+			return false;
+		end += n;
+		return true;
+	}
+
+	/**
+	 * Divide la riga in [lineStart, lineEnd) con le stesse regole di {@code String.split(" ")}: una
+	 * riga senza spazi è una sola parola, altrimenti le parole vuote in fondo vengono scartate.
+	 */
+	private String[] tokenize()
+	{
+		int spaces = 0;
+		int last = lineStart; // fine della riga senza gli spazi finali
+		for(int i = lineStart; i < lineEnd; i++)
+		{
+			if(buffer[i] == ' ')
+				spaces++;
+			else
+				last = i + 1;
+		}
+		if(spaces == 0)
+			return new String[] {line()};
+
+		spaces = 0;
+		for(int i = lineStart; i < last; i++)
+			if(buffer[i] == ' ')
+				spaces++;
+		String[] parts = new String[last == lineStart ? 0 : spaces + 1];
+		int n = 0;
+		int tokenStart = lineStart;
+		for(int i = lineStart; i < last; i++)
+			if(buffer[i] == ' ')
+			{
+				parts[n++] = token(tokenStart, i);
+				tokenStart = i + 1;
+			}
+		if(parts.length > 0)
+			parts[n] = token(tokenStart, last);
+		return parts;
+	}
+
+	private String token(int from, int to)
+	{
+		return from == to ? "" : new String(buffer, from, to - from, CHARSET);
+	}
+}
\ No newline at end of file
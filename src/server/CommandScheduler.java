@@ -0,0 +1,135 @@
+package server;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Classe che rappresenta lo scheduler dei comandi, che li esegue su corsie separate invece che sul
+ * thread della connessione. <p>
+ *
+ * Ogni corsia ({@link Lane}) ha il proprio pool di thread e la propria coda limitata: le letture
+ * (ricerche, badge, aiuto), le scritture (inserimento di recensioni) e l'autenticazione (login, logout,
+ * ripristino della sessione, che calcolano hash). Così un picco di login o di recensioni occupa solo i
+ * thread della propria corsia e non aumenta la latenza delle ricerche. <p>
+ *
+ * Per ogni corsia vengono misurati il tempo di attesa in coda e il tempo di esecuzione dei comandi
+ * (vedi {@link ServerStats#recordLane}). Quando la coda di una corsia è piena il comando viene rifiutato
+ * con RejectedExecutionException.
+ */
+public class CommandScheduler
+{
+	/**
+	 * Corsie dei comandi.
+	 */
+	public enum Lane
+	{
+		READ, WRITE, AUTH
+	}
+
+	private final ThreadPoolExecutor[] lanes = new ThreadPoolExecutor[Lane.values().length];
+
+	/**
+	 * @param read thread e dimensione della coda della corsia delle letture, "thread,coda"
+	 * @param write thread e dimensione della coda della corsia delle scritture
+	 * @param auth thread e dimensione della coda della corsia dell'autenticazione
+	 */
+	public CommandScheduler(String read, String write, String auth)
+	{
+		lanes[Lane.READ.ordinal()] = newLane(Lane.READ, read);
+		lanes[Lane.WRITE.ordinal()] = newLane(Lane.WRITE, write);
+		lanes[Lane.AUTH.ordinal()] = newLane(Lane.AUTH, auth);
+	}
+
+	private static ThreadPoolExecutor newLane(Lane lane, String config)
+	{
+		String[] parts = config.split(",");
+		int threads = Math.max(1, Integer.parseInt(parts[0].trim()));
+		int queueSize = parts.length > 1 ? Math.max(1, Integer.parseInt(parts[1].trim())) : 1000;
+		String name = "lane-" + lane.name().toLowerCase() + "-";
+		AtomicInteger count = new AtomicInteger();
+		return new ThreadPoolExecutor(
+			threads, threads, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueSize),
+			task -> {
+				Thread t = new Thread(task, name + count.getAndIncrement());
+				t.setDaemon(true);
+				return t;
+			});
+	}
+
+	/**
+	 * @return la corsia del comando 'command'; i comandi non validi e le righe che non sono comandi
+	 * (e.g. le città da seguire) sono letture
+	 */
+	public static Lane laneOf(String command)
+	{
+		switch(command)
+		{
+			case "insertReview":
+			case "insertReviews":
+				return Lane.WRITE;
+			case "login":
+			case "logout":
+			case "resume":
+				return Lane.AUTH;
+			default:
+				return Lane.READ;
+		}
+	}
+
+	/**
+	 * Accoda 'task' sulla corsia 'lane', senza attenderne l'esecuzione.
+	 * @throws RejectedExecutionException se la coda della corsia è piena
+	 */
+	public void submit(Lane lane, Runnable task)
+	{
+		long queued = System.nanoTime();
+		try
+		{
+			lanes[lane.ordinal()].execute(() -> {
+				long started = System.nanoTime();
+				try
+				{
+					task.run();
+				}
+				finally
+				{
+					ServerStats.recordLane(lane.name(), started - queued, System.nanoTime() - started);
+				}
+			});
+		}
+		catch(RejectedExecutionException e)
+		{
+			ServerStats.recordLaneRejected(lane.name());
+			throw e;
+		}
+	}
+
+	/**
+	 * Esegue 'task' sulla corsia 'lane' e ne attende il risultato, usato dai thread delle connessioni
+	 * (modalità 'thread' e 'virtual').
+	 * @throws RejectedExecutionException se la coda della corsia è piena
+	 */
+	public <T> T call(Lane lane, Callable<T> task) throws Exception
+	{
+		FutureTask<T> future = new FutureTask<>(task);
+		submit(lane, future);
+		try
+		{
+			return future.get();
+		}
+		catch(ExecutionException e)
+		{	// rilancio l'eccezione del comando come se fosse stato eseguito dal chiamante
+			if(e.getCause() instanceof Exception cause)
+				throw cause;
+			if(e.getCause() instanceof Error error)
+				throw error;
+			throw e;
+		}
+	}
+}
\ No newline at end of file
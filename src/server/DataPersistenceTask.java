@@ -20,19 +20,19 @@ public class DataPersistenceTask implements Runnable
 	private final ConcurrentHashMap<String, User> usersMap;
 
 	private final String reviewsJsonPath;
-	private final ConcurrentHashMap<String, CopyOnWriteArrayList<Review>> reviewsMap;
+	private final HotelReviews hotelReviews;
 
 	private final String hotelsJsonPath;
 	private final ConcurrentHashMap<String, CopyOnWriteArrayList<Hotel>> hotelsByCityMap;
 
 	public DataPersistenceTask(
 		ConcurrentHashMap<String, User> usersMap, String usersJsonPath,
-		ConcurrentHashMap<String, CopyOnWriteArrayList<Review>> reviewsMap, String reviewsJsonPath,
+		HotelReviews hotelReviews, String reviewsJsonPath,
 		ConcurrentHashMap<String, CopyOnWriteArrayList<Hotel>> hotelsByCityMap, String hotelsJsonPath)
 	{
 		this.usersMap = usersMap;
 		this.usersJsonPath = usersJsonPath;
-		this.reviewsMap = reviewsMap;
+		this.hotelReviews = hotelReviews;
 		this.reviewsJsonPath = reviewsJsonPath;
 		this.hotelsByCityMap = hotelsByCityMap;
 		this.hotelsJsonPath = hotelsJsonPath;
@@ -87,7 +87,7 @@ public class DataPersistenceTask implements Runnable
 	}
 
 	/**
-	 * Salva i dati delle recensioni (presenti in reviewsMap) in un file json. <p>
+	 * Salva i dati delle recensioni (presenti in hotelReviews) in un file json. <p>
 	 * Utilizza il meccanismo Gson Streaming API.
 	 */
 	private void persistReviews() throws Exception
@@ -97,10 +97,10 @@ public class DataPersistenceTask implements Runnable
 			writer.setIndent("	");
 			writer.beginArray(); // [
 
-			// scorro la hash map delle recensioni
-			reviewsMap.forEach((key, list) -> {
-				// scorro la lista di recensioni dell'hotel identificato da 'key'
-				for(Review review : list)
+			// scorro le recensioni di ogni hotel
+			for(int hotelId = 0; hotelId < hotelReviews.hotelIdLimit(); hotelId++)
+			{
+				for(Review review : hotelReviews.get(hotelId))
 				{
 					try
 					{
@@ -124,7 +124,7 @@ public class DataPersistenceTask implements Runnable
 						throw new RuntimeException(e);
 					}
 				}
-			});
+			}
 			writer.endArray(); // ]
 			writer.flush();
 		}
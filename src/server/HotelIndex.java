@@ -0,0 +1,266 @@
+package server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import entities.Hotel;
+
+/**
+ * Classe che rappresenta il catalogo di città e hotel con id interi densi: l'id di una città è la sua
+ * posizione in Cities.json, l'id di un hotel è il suo campo 'id'. <p>
+ *
+ * I nomi vengono convertiti in id solo ai confini del protocollo (i comandi e i file json), poi le
+ * strutture per città e per hotel sono array indicizzati dall'id (vedi {@link HotelReviews}), senza
+ * concatenare né calcolare hash di stringhe. <p>
+ *
+ * Contiene gli stessi oggetti Hotel delle liste di 'hotelsByCityMap'. Città e hotel vengono raccolti da
+ * un {@link Builder} durante il caricamento dei file json (vedi {@link ServerMain#loadHotelsFromJson()}),
+ * che poi costruisce il catalogo una sola volta: da quel momento il catalogo è immutabile, come l'insieme
+ * degli hotel del server, e le strutture indicizzate dall'id dell'hotel (e.g. {@link HotelReviews} e
+ * {@link TrendingCounters}) sono dimensionate con {@link #hotelIdLimit()}. Tutti i campi sono final,
+ * quindi il catalogo è visibile per intero a qualsiasi thread e le ricerche non usano lock. <p>
+ *
+ * Per il comando suggest contiene anche gli indici per prefisso dei nomi degli hotel, di tutti e di ogni
+ * città (vedi {@link PrefixIndex}), e i nomi delle città in ordine lessicografico, costruiti insieme al
+ * catalogo. I rate negli indici vengono aggiornati da {@link #refreshRates()} ad ogni ricalcolo della
+ * classifica. <p>
+ *
+ * Per i comandi filterHotels e searchByRatings contiene l'indice dei servizi (vedi {@link ServiceIndex})
+ * e gli indici ordinati dei punteggi delle categorie (vedi {@link RatingIndex}) degli hotel di ogni
+ * città, ricostruiti da {@link #rebuildRankingIndexes} ad ogni ricalcolo della classifica.
+ */
+public class HotelIndex
+{
+	// nome della città -> id della città
+	private final Map<String, Integer> cityIds;
+
+	// id della città -> nome della città
+	private final String[] cityNames;
+
+	// id della città -> nome dell'hotel -> hotel
+	private final Map<String, Hotel>[] hotelsByCity;
+
+	// id dell'hotel -> hotel, null se non esiste
+	private final Hotel[] hotelsById;
+
+	// numero massimo di suggerimenti per tipo (città e hotel) in una risposta a suggest
+	private final int suggestLimit;
+
+	// indice per prefisso degli hotel di tutte le città
+	private final PrefixIndex allHotels;
+
+	// id della città -> indice per prefisso dei suoi hotel
+	private final PrefixIndex[] hotelsInCity;
+
+	// nomi delle città in minuscolo, in ordine lessicografico, e nomi corrispondenti
+	private final String[] cityKeys;
+	private final String[] sortedCityNames;
+
+	// BitSet dei servizi degli hotel di ogni città
+	private final ServiceIndex serviceIndex = new ServiceIndex();
+
+	// indici ordinati dei punteggi delle categorie degli hotel di ogni città
+	private final RatingIndex ratingIndex = new RatingIndex();
+
+	/**
+	 * Raccoglie le città e gli hotel durante il caricamento dei file json. Usato da un solo thread.
+	 */
+	public static class Builder
+	{
+		private final HashMap<String, Integer> cityIds = new HashMap<>();
+		private final List<String> cityNames = new ArrayList<>();
+		private final List<HashMap<String, Hotel>> hotelsByCity = new ArrayList<>();
+		private final HashMap<Integer, Hotel> hotelsById = new HashMap<>();
+
+		/**
+		 * Aggiunge la città al catalogo, con id uguale al numero di città già presenti.
+		 * @return l'id della città
+		 */
+		public int addCity(String city)
+		{
+			Integer id = cityIds.get(city);
+			if(id != null)
+				return id;
+			id = cityNames.size();
+			cityIds.put(city, id);
+			cityNames.add(city);
+			hotelsByCity.add(new HashMap<>());
+			return id;
+		}
+
+		/**
+		 * Aggiunge l'hotel al catalogo.
+		 * @return false se la città dell'hotel non è nel catalogo
+		 */
+		public boolean add(Hotel hotel)
+		{
+			Integer cityId = cityIds.get(hotel.getCity());
+			if(cityId == null)
+				return false;
+			hotelsByCity.get(cityId).put(hotel.getName(), hotel);
+			hotelsById.put(hotel.getId(), hotel);
+			return true;
+		}
+
+		/**
+		 * Costruisce il catalogo, con gli indici per prefisso, dalle città e dagli hotel aggiunti.
+		 * @param suggestLimit numero massimo di città e di hotel suggeriti da {@link #suggestCities} e
+		 * {@link #suggestHotels}
+		 */
+		public HotelIndex build(int suggestLimit)
+		{
+			return new HotelIndex(this, suggestLimit);
+		}
+	}
+
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private HotelIndex(Builder builder, int suggestLimit)
+	{
+		cityIds = new HashMap<>(builder.cityIds);
+		cityNames = builder.cityNames.toArray(new String[0]);
+		hotelsByCity = new Map[cityNames.length];
+		for(int cityId = 0; cityId < cityNames.length; cityId++)
+			hotelsByCity[cityId] = new HashMap<>(builder.hotelsByCity.get(cityId));
+		int idLimit = 0;
+		for(int id : builder.hotelsById.keySet())
+			idLimit = Math.max(idLimit, id + 1);
+		hotelsById = new Hotel[idLimit];
+		builder.hotelsById.forEach((id, hotel) -> hotelsById[id] = hotel);
+
+		// indici per prefisso, usati dal comando suggest
+		this.suggestLimit = suggestLimit;
+		List<Hotel> all = new ArrayList<>();
+		hotelsInCity = new PrefixIndex[cityNames.length];
+		for(int cityId = 0; cityId < cityNames.length; cityId++)
+		{
+			hotelsInCity[cityId] = new PrefixIndex(new ArrayList<>(hotelsByCity[cityId].values()));
+			all.addAll(hotelsByCity[cityId].values());
+		}
+		allHotels = new PrefixIndex(all);
+
+		sortedCityNames = cityNames.clone();
+		Arrays.sort(sortedCityNames, (a, b) -> PrefixIndex.normalize(a).compareTo(PrefixIndex.normalize(b)));
+		cityKeys = new String[sortedCityNames.length];
+		for(int i = 0; i < cityKeys.length; i++)
+			cityKeys[i] = PrefixIndex.normalize(sortedCityNames[i]);
+	}
+
+	/**
+	 * @return l'id della città 'city', -1 se non esiste
+	 */
+	public int cityId(String city)
+	{
+		Integer id = cityIds.get(city);
+		return id == null ? -1 : id;
+	}
+
+	/**
+	 * @return il nome della città con id 'cityId'
+	 */
+	public String cityName(int cityId)
+	{
+		return cityNames[cityId];
+	}
+
+	/**
+	 * @return il numero di città, gli id vanno da 0 a cityCount() - 1
+	 */
+	public int cityCount()
+	{
+		return cityNames.length;
+	}
+
+	/**
+	 * @return un limite superiore agli id degli hotel: gli id vanno da 0 a hotelIdLimit() - 1
+	 */
+	public int hotelIdLimit()
+	{
+		return hotelsById.length;
+	}
+
+	/**
+	 * @return l'hotel 'hotelName' della città 'city', null se non esiste
+	 */
+	public Hotel get(String city, String hotelName)
+	{
+		int cityId = cityId(city);
+		return cityId < 0 ? null : hotelsByCity[cityId].get(hotelName);
+	}
+
+	/**
+	 * @return l'hotel con id 'id', null se non esiste
+	 */
+	public Hotel get(int id)
+	{
+		return id >= 0 && id < hotelsById.length ? hotelsById[id] : null;
+	}
+
+	/**
+	 * Aggiorna i rate negli indici per prefisso, dopo un ricalcolo della classifica.
+	 */
+	public void refreshRates()
+	{
+		allHotels.refreshRates();
+		for(PrefixIndex index : hotelsInCity)
+			index.refreshRates();
+	}
+
+	/**
+	 * @return le città, al massimo 'suggestLimit' in ordine alfabetico, il cui nome inizia con 'prefix'
+	 * (senza distinzione tra maiuscole e minuscole)
+	 */
+	public List<String> suggestCities(String prefix)
+	{
+		String key = PrefixIndex.normalize(prefix);
+		int from = PrefixIndex.lowerBound(cityKeys, key);
+		List<String> result = new ArrayList<>();
+		for(int i = from; i < cityKeys.length && result.size() < suggestLimit && cityKeys[i].startsWith(key); i++)
+			result.add(sortedCityNames[i]);
+		return result;
+	}
+
+	/**
+	 * @param cityId id della città in cui cercare, -1 per cercare in tutte
+	 * @return gli hotel, al massimo 'suggestLimit' in ordine di rate decrescente, il cui nome inizia con
+	 * 'prefix' (senza distinzione tra maiuscole e minuscole)
+	 */
+	public List<Hotel> suggestHotels(String prefix, int cityId)
+	{
+		PrefixIndex index = cityId < 0 ? allHotels : hotelsInCity[cityId];
+		return index.suggest(PrefixIndex.normalize(prefix), suggestLimit);
+	}
+
+	/**
+	 * Ricostruisce l'indice dei servizi e gli indici dei punteggi dalle liste di hotel, già ordinate per
+	 * rate decrescente, con i punteggi appena calcolati.
+	 */
+	public void rebuildRankingIndexes(Map<String, ? extends List<Hotel>> hotelsByCityMap)
+	{
+		serviceIndex.rebuild(this, hotelsByCityMap);
+		ratingIndex.rebuild(this, hotelsByCityMap);
+	}
+
+	/**
+	 * @param serviceIds id dei servizi richiesti nel ServiceDictionary
+	 * @return gli hotel della città con id 'cityId' che offrono tutti i servizi richiesti, in ordine di
+	 * classifica
+	 */
+	public List<Hotel> filterByServices(int cityId, int[] serviceIds)
+	{
+		return serviceIndex.filter(cityId, serviceIds);
+	}
+
+	/**
+	 * @return gli hotel della città con id 'cityId' con il punteggio della categoria 'range' tra 'min' e
+	 * 'max', al massimo 'limit', in ordine di punteggio della categoria 'sortBy' decrescente (vedi
+	 * {@link RatingIndex#query})
+	 */
+	public List<Hotel> searchByRatings(
+		int cityId, RatingIndex.Category range, double min, double max, RatingIndex.Category sortBy, int limit)
+	{
+		return ratingIndex.query(cityId, range, min, max, sortBy, limit);
+	}
+}
\ No newline at end of file
@@ -0,0 +1,172 @@
+package server;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import entities.Review;
+
+/**
+ * Classe che rappresenta le recensioni degli hotel, in un array indicizzato dall'id dell'hotel (vedi
+ * {@link HotelIndex}). <p>
+ *
+ * La lista di ogni hotel esiste fin dalla creazione, quindi l'array non cambia mai e l'inserimento di
+ * una recensione si riduce all'aggiunta alla lista del suo hotel ({@link Review#getHotelId()}). <p>
+ *
+ * Le recensioni sono indicizzate anche per autore (vedi {@link ReviewerReviews}): per ogni utente ci
+ * sono le sue recensioni e l'istante dell'ultima recensione di ogni hotel, quindi il controllo del
+ * periodo minimo tra due recensioni dello stesso utente per lo stesso hotel costa O(1) invece di
+ * scorrere le recensioni dell'hotel. Il controllo e l'inserimento avvengono con il lock dell'utente,
+ * quindi due comandi concorrenti dello stesso utente non possono superare entrambi il controllo. <p>
+ *
+ * Ogni recensione inserita viene registrata anche nei contatori del comando trending (vedi
+ * {@link TrendingCounters}).
+ */
+public class HotelReviews
+{
+	private final CopyOnWriteArrayList<Review>[] reviewsByHotel;
+
+	// username -> recensioni dell'utente
+	private final ConcurrentHashMap<String, ReviewerReviews> reviewsByReviewer = new ConcurrentHashMap<>();
+
+	private final TrendingCounters trending;
+
+	/**
+	 * Recensioni di un utente. Gli accessi sono sincronizzati sull'oggetto.
+	 */
+	private static class ReviewerReviews
+	{
+		// recensioni dell'utente, in ordine di inserimento
+		final List<Review> reviews = new ArrayList<>();
+
+		// id dell'hotel -> istante dell'ultima recensione dell'utente per quell'hotel, in millisecondi
+		final Map<Integer, Long> lastReviewByHotel = new HashMap<>();
+
+		/**
+		 * @return true se l'utente ha recensito l'hotel con id 'hotelId' da meno di 'periodSeconds' secondi
+		 */
+		boolean reviewedWithin(int hotelId, long nowMillis, long periodSeconds)
+		{
+			Long last = lastReviewByHotel.get(hotelId);
+			return last != null && (nowMillis - last) / 1000 < periodSeconds;
+		}
+
+		void add(Review review, long millis)
+		{
+			reviews.add(review);
+			lastReviewByHotel.merge(review.getHotelId(), millis, Math::max);
+		}
+	}
+
+	/**
+	 * @param hotelIdLimit limite superiore agli id degli hotel (vedi {@link HotelIndex#hotelIdLimit()})
+	 * @param trendingLimit numero di hotel di ogni classifica del comando trending
+	 */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public HotelReviews(int hotelIdLimit, int trendingLimit)
+	{
+		trending = new TrendingCounters(hotelIdLimit, trendingLimit);
+		reviewsByHotel = new CopyOnWriteArrayList[hotelIdLimit];
+		for(int i = 0; i < hotelIdLimit; i++)
+			reviewsByHotel[i] = new CopyOnWriteArrayList<>();
+	}
+
+	/**
+	 * @return l'istante 'dateTime' in millisecondi, usato per confrontare le date delle recensioni
+	 */
+	public static long epochMillis(LocalDateTime dateTime)
+	{
+		return dateTime.toInstant(ZoneOffset.UTC).toEpochMilli();
+	}
+
+	/**
+	 * @return le recensioni dell'hotel con id 'hotelId'
+	 */
+	public CopyOnWriteArrayList<Review> get(int hotelId)
+	{
+		return reviewsByHotel[hotelId];
+	}
+
+	/**
+	 * @return le recensioni dell'utente 'reviewer', in ordine di inserimento
+	 */
+	public List<Review> getByReviewer(String reviewer)
+	{
+		ReviewerReviews mine = reviewsByReviewer.get(reviewer);
+		if(mine == null)
+			return List.of();
+		synchronized(mine)
+		{
+			return List.copyOf(mine.reviews);
+		}
+	}
+
+	/**
+	 * Aggiunge la recensione alla lista del suo hotel e a quelle del suo autore, senza controlli (usato
+	 * durante il caricamento delle recensioni dal file json).
+	 */
+	public void add(Review review)
+	{
+		ReviewerReviews mine = reviewsByReviewer.computeIfAbsent(review.getReviewer(), k -> new ReviewerReviews());
+		long millis = epochMillis(LocalDateTime.parse(review.getDateTime()));
+		synchronized(mine)
+		{
+			reviewsByHotel[review.getHotelId()].add(review);
+			mine.add(review, millis);
+		}
+		trending.record(review.getHotelId(), millis, review.getRate());
+	}
+
+	/**
+	 * Aggiunge le recensioni di uno stesso utente, scritte nell'istante 'dateTime', tranne quelle di hotel
+	 * che l'utente ha già recensito da meno di 'periodSeconds' secondi (anche con una recensione
+	 * precedente di 'reviews'). Le recensioni accettate vengono aggiunte con una sola copia della lista
+	 * di ogni hotel.
+	 * @return per ogni recensione, true se è stata aggiunta
+	 */
+	public boolean[] tryAddAll(String reviewer, List<Review> reviews, LocalDateTime dateTime, long periodSeconds)
+	{
+		long millis = epochMillis(dateTime);
+		boolean[] added = new boolean[reviews.size()];
+		ReviewerReviews mine = reviewsByReviewer.computeIfAbsent(reviewer, k -> new ReviewerReviews());
+		synchronized(mine)
+		{
+			// recensioni accettate raggruppate per id dell'hotel
+			Map<Integer, List<Review>> accepted = new LinkedHashMap<>();
+			for(int i = 0; i < added.length; i++)
+			{
+				Review review = reviews.get(i);
+				if(mine.reviewedWithin(review.getHotelId(), millis, periodSeconds))
+					continue;
+				mine.add(review, millis);
+				trending.record(review.getHotelId(), millis, review.getRate());
+				accepted.computeIfAbsent(review.getHotelId(), id -> new ArrayList<>()).add(review);
+				added[i] = true;
+			}
+			accepted.forEach((hotelId, batch) -> reviewsByHotel[hotelId].addAll(batch));
+		}
+		return added;
+	}
+
+	/**
+	 * @return i contatori delle recensioni recenti, usati dal comando trending
+	 */
+	public TrendingCounters trending()
+	{
+		return trending;
+	}
+
+	/**
+	 * @return un limite superiore agli id degli hotel: gli id vanno da 0 a hotelIdLimit() - 1
+	 */
+	public int hotelIdLimit()
+	{
+		return reviewsByHotel.length;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,193 @@
+package server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Classe che rappresenta il gateway HTTP di sola lettura, per i client web che non usano il protocollo
+ * TCP. Risponde in JSON, con i dati della {@link ResponseCache}: <p>
+ *
+ *   GET /hotels?city=[città]                  hotel della città in ordine di classifica (come searchAllHotels) <p>
+ *   GET /hotels?city=[città]&amp;name=[hotel]     dati di un hotel (come searchHotel) <p>
+ *   GET /rankings                             classifiche locali di tutte le città <p>
+ *   GET /rankings?city=[città]                classifica locale di una città <p>
+ *
+ * Ogni risposta ha come ETag la versione della classifica prodotta da {@link LocalRankingUpdater},
+ * preceduta dall'identificativo dell'avvio del server (la versione riparte ad ogni avvio, quindi da sola
+ * indicherebbe dati diversi prima e dopo un riavvio): se la richiesta contiene l'ETag nell'header
+ * If-None-Match e la classifica non è cambiata, la risposta è 304 senza contenuto. <p>
+ *
+ * Le richieste vengono gestite sull'executor passato al costruttore: {@link ServerMain} usa un thread
+ * virtuale per richiesta solo nella modalità 'virtual' (se la JVM li supporta), altrimenti un pool di
+ * thread di piattaforma riusati (Executors.newCachedThreadPool()), come prima dei thread virtuali. <p>
+ *
+ * La cache deve contenere le risposte JSON (vedi {@link ResponseCache#enableJson()}).
+ */
+public class HttpGateway
+{
+	private static final String CONTENT_TYPE = "application/json; charset=utf-8";
+
+	// identificativo dell'avvio del server, prefisso degli ETag: istante di avvio in base 36
+	private static final String BOOT_ID = Long.toString(System.currentTimeMillis(), 36);
+
+	private final HttpServer server;
+	private final ResponseCache responseCache;
+
+	/**
+	 * @param port porta TCP di ascolto
+	 * @param backlog dimensione della coda delle connessioni in attesa di accept()
+	 * @param executor executor su cui vengono gestite le richieste
+	 */
+	public HttpGateway(int port, int backlog, ResponseCache responseCache, Executor executor) throws IOException
+	{
+		this.responseCache = responseCache;
+		server = HttpServer.create(new InetSocketAddress(port), backlog);
+		server.setExecutor(executor);
+		server.createContext("/hotels", exchange -> handle(exchange, true));
+		server.createContext("/rankings", exchange -> handle(exchange, false));
+	}
+
+	public void start()
+	{
+		server.start();
+	}
+
+	public void stop()
+	{
+		server.stop(0);
+	}
+
+	/**
+	 * Gestisce una richiesta a /hotels ('hotels' true) o a /rankings.
+	 */
+	private void handle(HttpExchange exchange, boolean hotels) throws IOException
+	{
+		try(exchange)
+		{
+			ServerStats.httpRequests.increment();
+			if(!exchange.getRequestMethod().equals("GET") && !exchange.getRequestMethod().equals("HEAD"))
+			{
+				exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+				sendError(exchange, 405, "metodo non consentito");
+				return ;
+			}
+			String path = exchange.getRequestURI().getPath();
+			if(!path.equals(exchange.getHttpContext().getPath()))
+			{
+				sendError(exchange, 404, "risorsa non trovata");
+				return ;
+			}
+
+			// la versione e le risposte vengono lette dalla stessa versione della cache
+			ResponseCache.Json json = responseCache.getJson();
+			if(json == null)
+			{
+				sendError(exchange, 503, "dati non ancora disponibili");
+				return ;
+			}
+
+			Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+			String city = query.get("city");
+			String name = query.get("name");
+			byte[] body;
+			if(hotels)
+			{
+				if(city == null)
+				{
+					sendError(exchange, 400, "parametro 'city' mancante");
+					return ;
+				}
+				body = name == null ? json.getHotels(city) : json.getHotel(city, name);
+			}
+			else
+				body = city == null ? json.getRankings() : json.getRanking(city);
+			if(body == null)
+			{
+				sendError(exchange, 404, name == null ? "città non trovata" : "hotel non trovato");
+				return ;
+			}
+
+			String etag = "\"" + BOOT_ID + "-" + json.version + "\"";
+			exchange.getResponseHeaders().set("ETag", etag);
+			exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+			if(matches(exchange.getRequestHeaders().getFirst("If-None-Match"), etag))
+			{	// il client ha già i dati di questa versione
+				ServerStats.httpNotModified.increment();
+				exchange.sendResponseHeaders(304, -1);
+				return ;
+			}
+			send(exchange, 200, body);
+		}
+		catch(IOException e)
+		{
+			// il client ha chiuso la connessione
+		}
+	}
+
+	/**
+	 * @return true se l'header If-None-Match contiene 'etag' (anche come ETag debole) oppure '*'
+	 */
+	private static boolean matches(String ifNoneMatch, String etag)
+	{
+		if(ifNoneMatch == null)
+			return false;
+		for(String tag : ifNoneMatch.split(","))
+		{
+			tag = tag.trim();
+			if(tag.startsWith("W/"))
+				tag = tag.substring(2);
+			if(tag.equals(etag) || tag.equals("*"))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return i parametri della query string, decodificati
+	 */
+	private static Map<String, String> parseQuery(String rawQuery)
+	{
+		Map<String, String> params = new HashMap<>();
+		if(rawQuery == null)
+			return params;
+		for(String param : rawQuery.split("&"))
+		{
+			int eq = param.indexOf('=');
+			if(eq <= 0)
+				continue;
+			params.put(
+				URLDecoder.decode(param.substring(0, eq), StandardCharsets.UTF_8),
+				URLDecoder.decode(param.substring(eq + 1), StandardCharsets.UTF_8));
+		}
+		return params;
+	}
+
+	private static void sendError(HttpExchange exchange, int code, String message) throws IOException
+	{
+		send(exchange, code, ("{\"errore\":\"" + message + "\"}").getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static void send(HttpExchange exchange, int code, byte[] body) throws IOException
+	{
+		exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+		if(exchange.getRequestMethod().equals("HEAD"))
+		{
+			exchange.sendResponseHeaders(code, -1);
+			return ;
+		}
+		exchange.sendResponseHeaders(code, body.length);
+		try(OutputStream out = exchange.getResponseBody())
+		{
+			out.write(body);
+		}
+	}
+}
\ No newline at end of file
@@ -9,7 +9,10 @@ import java.time.LocalDateTime;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 
@@ -27,7 +30,16 @@ import rmi.NotifyServerImpl;
  *    client iscritti al gruppo di multicast. <p>
  * 
  * 3) Se almeno uno tra i primi 3 di una classifica locale è cambiato, notifica la variazione della
- *    classifica con una callback RMI a tutti i client registrati.
+ *    classifica con una callback RMI a tutti i client registrati. <p>
+ *
+ * 4) Calcola la classifica globale dei primi 'topHotelsLimit' hotel di tutte le città, con una fusione
+ *    delle classifiche locali (vedi {@link #mergeTopHotels}). <p>
+ *
+ * 5) Ricostruisce la cache delle risposte ({@link ResponseCache}), che contiene anche la classifica
+ *    globale. <p>
+ *
+ * 6) Ricalcola le classifiche di tendenza del comando trending dai contatori delle recensioni recenti
+ *    (vedi {@link TrendingCounters}).
  */
 public class LocalRankingUpdater implements Runnable
 {
@@ -35,27 +47,42 @@ public class LocalRankingUpdater implements Runnable
 	private int UDPport;
 	private DatagramSocket datagramSocket;
 
-	// riferimento alla hash map che ha come chiave 'nomeHotel_città' e valore la lista di recensioni di quell'hotel
-	private ConcurrentHashMap<String, CopyOnWriteArrayList<Review>> reviewsMap;
+	// riferimento alle recensioni di ogni hotel, indicizzate dall'id dell'hotel
+	private HotelReviews hotelReviews;
 
 	// riferimento alla hash map che ha come chiave la città e valore la lista degli hotel presenti in quella città
 	private ConcurrentHashMap<String, CopyOnWriteArrayList<Hotel>> hotelsByCityMap;
 
+	// riferimento all'indice degli hotel per città e nome
+	private HotelIndex hotelIndex;
+
+	// riferimento alla cache delle risposte, ricostruita alla fine di ogni ricalcolo
+	private ResponseCache responseCache;
+
 	// riferimento all'oggetto remoto per il servizio di notifica
 	private NotifyServerImpl server;
 
+	// numero di hotel della classifica globale
+	private int topHotelsLimit;
+
 	public LocalRankingUpdater(
 		DatagramSocket datagramSocket, InetAddress group, int UDPport,
-		ConcurrentHashMap<String, CopyOnWriteArrayList<Review>> reviewsMap,
+		HotelReviews hotelReviews,
 		ConcurrentHashMap<String, CopyOnWriteArrayList<Hotel>> hotelsByCityMap,
-		NotifyServerImpl server)
+		HotelIndex hotelIndex,
+		ResponseCache responseCache,
+		NotifyServerImpl server,
+		int topHotelsLimit)
 	{
 		this.datagramSocket = datagramSocket;
 		this.group = group;
 		this.UDPport = UDPport;
-		this.reviewsMap = reviewsMap;
+		this.hotelReviews = hotelReviews;
 		this.hotelsByCityMap = hotelsByCityMap;
+		this.hotelIndex = hotelIndex;
+		this.responseCache = responseCache;
 		this.server = server;
+		this.topHotelsLimit = topHotelsLimit;
 	}
 
 	public void run()
@@ -76,9 +103,15 @@ public class LocalRankingUpdater implements Runnable
 			hotelsByCityMap_Old.put(city, clonedList);
 		});
 
-		reviewsMap.forEach((key, list) -> {
+		for(int hotelId = 0; hotelId < hotelReviews.hotelIdLimit(); hotelId++)
+		{
+			CopyOnWriteArrayList<Review> list = hotelReviews.get(hotelId);
+			Hotel hotel = hotelIndex.get(hotelId);
+			if(list.isEmpty() || hotel == null)
+				continue;
+
 			// calcolo il punteggio (rate) basato sui punteggi sintetici
-			// delle recensioni dell'hotel identificato da 'key'
+			// delle recensioni dell'hotel con id 'hotelId'
 			CopyOnWriteArrayList<Review> listCopy = new CopyOnWriteArrayList<>(list);
 			double totalScore = calculateTotalScore(listCopy);
 
@@ -95,22 +128,10 @@ public class LocalRankingUpdater implements Runnable
 				n++;
 			}
 
-			// reviewsMap ha come chiave 'nomeHotel_città'
-			int lastUnderscore = key.lastIndexOf('_');
-			String hotelName = key.substring(0, lastUnderscore);
-			String city = key.substring(lastUnderscore + 1);
-
-			// setto i nuovi valori di rate e ratings, appena ricalcolati,
-			// relativi all'hotel identificato da 'key' in hotelsByCityMap
-			CopyOnWriteArrayList<Hotel> hotelList = hotelsByCityMap.get(city);
-			for(Hotel hotel : hotelList)
-				if(hotel.getName().equals(hotelName))
-				{
-					hotel.setRate(totalScore);
-					hotel.setRatings(new Ratings(avgCleaning, avgPosition, avgServices, avgQuality));
-					break;
-				}
-		});
+			// setto i nuovi valori di rate e ratings, appena ricalcolati, dell'hotel
+			hotel.setRate(totalScore);
+			hotel.setRatings(new Ratings(avgCleaning, avgPosition, avgServices, avgQuality));
+		}
 
 		hotelsByCityMap.forEach((city, list) -> {
 			// ordino in modo decrescente 'list' (lista di hotel) in base al rate dell'hotel
@@ -156,6 +177,70 @@ public class LocalRankingUpdater implements Runnable
 				catch(RemoteException e)
 				{ }
 		});
+
+		// aggiorno i rate negli indici per prefisso del comando suggest
+		hotelIndex.refreshRates();
+
+		// ricostruisco gli indici dei servizi e dei punteggi con la nuova classifica e i nuovi punteggi
+		hotelIndex.rebuildRankingIndexes(hotelsByCityMap);
+
+		// sostituisco la cache delle risposte con una nuova versione costruita dalle classifiche aggiornate
+		responseCache.rebuild(hotelsByCityMap, mergeTopHotels(hotelsByCityMap, topHotelsLimit));
+
+		// ricalcolo le classifiche di tendenza delle finestre che terminano adesso
+		hotelReviews.trending().rebuildTop(hotelIndex, HotelReviews.epochMillis(LocalDateTime.now()));
+	}
+
+	/**
+	 * Fonde le classifiche locali, già ordinate per rate decrescente, nella classifica globale dei primi
+	 * 'k' hotel. <p>
+	 * Un heap contiene un cursore per ogni città, posizionato sul primo hotel non ancora estratto: ogni
+	 * estrazione costa O(log città), quindi la fusione costa O(città + k log città) invece di ordinare
+	 * tutti gli hotel. I cursori sono iteratori delle CopyOnWriteArrayList, che scorrono l'array della
+	 * classifica letto alla loro creazione senza copiarlo.
+	 * @return i primi 'k' hotel di tutte le città in ordine di rate decrescente (a parità di rate, in
+	 * ordine di id)
+	 */
+	public static List<Hotel> mergeTopHotels(Map<String, ? extends List<Hotel>> hotelsByCityMap, int k)
+	{
+		Comparator<Cursor> byRate = Comparator.comparingDouble((Cursor cursor) -> cursor.head.getRate())
+			.reversed()
+			.thenComparingInt(cursor -> cursor.head.getId());
+		PriorityQueue<Cursor> heads = new PriorityQueue<>(Math.max(1, hotelsByCityMap.size()), byRate);
+		hotelsByCityMap.forEach((city, list) -> {
+			Iterator<Hotel> ranking = list.iterator();
+			if(ranking.hasNext())
+				heads.add(new Cursor(ranking));
+		});
+
+		List<Hotel> top = new ArrayList<>(Math.max(0, k));
+		while(top.size() < k && !heads.isEmpty())
+		{
+			Cursor cursor = heads.poll();
+			top.add(cursor.head);
+			if(cursor.rest.hasNext())
+			{
+				cursor.head = cursor.rest.next();
+				heads.add(cursor);
+			}
+		}
+		return top;
+	}
+
+	/**
+	 * Posizione di {@link #mergeTopHotels} in una classifica locale: 'head' è il prossimo hotel da
+	 * estrarre, 'rest' gli hotel che lo seguono.
+	 */
+	private static final class Cursor
+	{
+		private final Iterator<Hotel> rest;
+		private Hotel head;
+
+		private Cursor(Iterator<Hotel> ranking)
+		{
+			this.rest = ranking;
+			this.head = ranking.next();
+		}
 	}
 
 	/**
@@ -0,0 +1,115 @@
+package server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.function.Function;
+
+import entities.StatusClient;
+import utils.BinaryProtocol;
+
+/**
+ * Classe che rappresenta la tabella delle sessioni utente di una connessione multiplexata (vedi
+ * {@link BinaryProtocol#NEGOTIATION_MUX}). <p>
+ *
+ * Ogni sessione ha il proprio {@link Worker}, con il proprio stato e utente loggato, che scrive le
+ * risposte in un buffer condiviso: dopo ogni richiesta la risposta viene copiata sulla connessione con
+ * l'id della sessione. Le richieste di una connessione sono eseguite una alla volta, quindi la tabella
+ * e il buffer non richiedono sincronizzazione.
+ */
+public class MuxSessions
+{
+	// id sessione -> worker della sessione
+	private final HashMap<Integer, Worker> sessions = new HashMap<>();
+
+	// numero massimo di sessioni sulla connessione
+	private final int maxSessions;
+
+	// crea il worker di una nuova sessione, che scrive le risposte sullo stream passato
+	private final Function<OutputStream, Worker> sessionFactory;
+
+	// buffer in cui i worker delle sessioni scrivono la risposta alla richiesta in corso
+	private final ByteArrayOutputStream sessionOut = new ByteArrayOutputStream();
+
+	public MuxSessions(int maxSessions, Function<OutputStream, Worker> sessionFactory)
+	{
+		this.maxSessions = maxSessions;
+		this.sessionFactory = sessionFactory;
+	}
+
+	/**
+	 * Esegue una richiesta e scrive su 'out' la risposta con l'id della sessione.
+	 * @param frame frame ricevuto dal client, senza il prefisso di lunghezza: [int id sessione][richiesta]
+	 */
+	public void handleFrame(byte[] frame, DataOutputStream out) throws IOException, NoSuchAlgorithmException
+	{
+		if(frame.length < 4)
+			throw new IOException("frame multiplexato troppo corto");
+		int session = ((frame[0] & 0xff) << 24) | ((frame[1] & 0xff) << 16) | ((frame[2] & 0xff) << 8) | (frame[3] & 0xff);
+		if(session == BinaryProtocol.MUX_CONNECTION)
+		{	// l'id è riservato ai messaggi della connessione, una sessione con quell'id sarebbe ambigua
+			writeReply(out, session, StatusClient.USER_NOT_LOGGED, "Errore: id di sessione " + session + " riservato");
+			return ;
+		}
+
+		Worker worker = sessions.get(session);
+		if(worker == null)
+		{
+			if(sessions.size() >= maxSessions)
+			{
+				writeReply(out, session, StatusClient.USER_NOT_LOGGED, "Errore: troppe sessioni sulla connessione");
+				return ;
+			}
+			worker = sessionFactory.apply(sessionOut);
+			sessions.put(session, worker);
+			ServerStats.muxSessions.incrementAndGet();
+		}
+
+		boolean open = worker.handleFrame(Arrays.copyOfRange(frame, 4, frame.length));
+		worker.flush();
+		if(!open)
+		{	// la sessione ha inviato 'exit'
+			sessions.remove(session);
+			ServerStats.muxSessions.decrementAndGet();
+		}
+
+		// la risposta è un frame [int lunghezza][stato][tipo][contenuto], la inoltro con l'id della sessione
+		byte[] reply = sessionOut.toByteArray();
+		sessionOut.reset();
+		out.writeInt(reply.length);
+		out.writeInt(session);
+		out.write(reply, 4, reply.length - 4);
+	}
+
+	/**
+	 * Termina tutte le sessioni della connessione, con il logout automatico degli utenti loggati.
+	 * @param reason motivo della terminazione, stampato nel log
+	 */
+	public void endAll(String reason)
+	{
+		for(Worker worker : sessions.values())
+		{
+			worker.endSession(reason);
+			worker.releaseCompression();
+		}
+		ServerStats.muxSessions.addAndGet(-sessions.size());
+		sessions.clear();
+	}
+
+	/**
+	 * Scrive una risposta con l'id 'session' (o {@link BinaryProtocol#MUX_CONNECTION}).
+	 */
+	public static void writeReply(DataOutputStream out, int session, StatusClient status, String message) throws IOException
+	{
+		byte[] content = message.getBytes();
+		out.writeInt(content.length + 6);
+		out.writeInt(session);
+		out.writeByte(status.ordinal());
+		out.writeByte(BinaryProtocol.TYPE_MESSAGE);
+		out.write(content);
+	}
+}
\ No newline at end of file
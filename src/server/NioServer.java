@@ -0,0 +1,183 @@
+package server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import entities.Hotel;
+import entities.User;
+
+/**
+ * Classe che rappresenta il server TCP in modalità NIO. <p>
+ *
+ * Accetta le connessioni sul server socket channel e le distribuisce, a turno, tra un numero fissato
+ * di thread {@link Reactor}. Un client inattivo occupa solo un socket e i suoi buffer, non un thread. <p>
+ *
+ * Oltre 'maxSessions' connessioni aperte le nuove connessioni ricevono subito la risposta
+ * {@link AdmissionController#BUSY_REPLY} (prima della negoziazione del protocollo, quindi in formato
+ * testuale) e vengono chiuse: non c'è una coda di attesa, perché in questa
+ * modalità le connessioni aperte non occupano thread e il limite serve solo a proteggere la memoria. <p>
+ *
+ * Le connessioni accettate sul socket Unix domain (vedi {@link #acceptLocal(ServerSocketChannel)})
+ * sono distribuite tra gli stessi reactor.
+ */
+public class NioServer
+{
+	private final ServerSocketChannel serverChannel;
+	private final Reactor[] reactors;
+	private final int maxSessions;
+
+	// indice del reactor a cui affidare la prossima connessione
+	private final AtomicInteger next = new AtomicInteger();
+
+	public NioServer(
+		ServerSocketChannel serverChannel,
+		int reactorThreads,
+		ExecutorService handlerPool,
+		int maxSessions,
+		ConcurrentHashMap<String, User> usersMap,
+		ConcurrentHashMap<String, CopyOnWriteArrayList<Hotel>> hotelsByCityMap,
+		HotelIndex hotelIndex,
+		HotelReviews hotelReviews,
+		ResponseCache responseCache,
+		int sameReviewerSameHotelPeriod,
+		TimingWheel timingWheel,
+		int idleTimeout,
+		int readTimeout,
+		int compressionThreshold,
+		SessionTokens sessionTokens,
+		int muxMaxSessions,
+		RateLimiter rateLimiter,
+		CommandScheduler scheduler) throws IOException
+	{
+		this.serverChannel = serverChannel;
+		this.maxSessions = maxSessions;
+		this.reactors = new Reactor[Math.max(1, reactorThreads)];
+		for(int i = 0; i < reactors.length; i++)
+			reactors[i] = new Reactor(
+				"reactor-" + i, handlerPool,
+				usersMap, hotelsByCityMap, hotelIndex, hotelReviews, responseCache, sameReviewerSameHotelPeriod,
+				timingWheel, idleTimeout, readTimeout, compressionThreshold, sessionTokens, muxMaxSessions,
+				rateLimiter, scheduler);
+	}
+
+	/**
+	 * Avvia i reactor e accetta le connessioni finché il server socket channel non viene chiuso.
+	 */
+	public void serve() throws IOException
+	{
+		for(Reactor reactor : reactors)
+			reactor.start();
+
+		try
+		{
+			accept(serverChannel);
+		}
+		finally
+		{
+			for(Reactor reactor : reactors)
+				reactor.shutdown();
+		}
+	}
+
+	/**
+	 * Accetta, su un thread dedicato, le connessioni del socket Unix domain 'unixChannel' finché non
+	 * viene chiuso.
+	 */
+	public void acceptLocal(ServerSocketChannel unixChannel)
+	{
+		Thread acceptor = new Thread(() -> {
+			try
+			{
+				accept(unixChannel);
+			}
+			catch(IOException e)
+			{
+				System.err.printf("[SERVER] Errore sul socket Unix domain: %s\n", e.getMessage());
+			}
+		}, "unix-acceptor");
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+
+	/**
+	 * Accetta le connessioni su 'channel' e le affida a turno ai reactor, finché 'channel' non viene
+	 * chiuso.
+	 */
+	private void accept(ServerSocketChannel channel) throws IOException
+	{
+		while(true)
+		{
+			SocketChannel client;
+			try
+			{	// accetto le richieste provenienti dai client
+				client = channel.accept();
+			}
+			catch(AsynchronousCloseException e)
+			{	// server socket channel chiuso dal TerminationHandler
+				break;
+			}
+			if(!tryOpenSession())
+			{	// troppe connessioni aperte, rifiuto la connessione
+				reject(client);
+				continue;
+			}
+			ServerStats.sessionsAccepted.increment();
+
+			// affido la connessione al prossimo reactor
+			reactors[Math.floorMod(next.getAndIncrement(), reactors.length)].register(client);
+		}
+	}
+
+	/**
+	 * Incrementa il numero di sessioni aperte se è minore di 'maxSessions'. Il controllo e l'incremento
+	 * sono un solo compareAndSet, quindi i due thread che accettano le connessioni (TCP e socket Unix
+	 * domain) non possono superare insieme il limite.
+	 * @return true se la sessione può essere aperta
+	 */
+	private boolean tryOpenSession()
+	{
+		if(maxSessions <= 0)
+		{
+			ServerStats.activeSessions.incrementAndGet();
+			return true;
+		}
+		int active;
+		do
+		{
+			active = ServerStats.activeSessions.get();
+			if(active >= maxSessions)
+				return false;
+		}
+		while(!ServerStats.activeSessions.compareAndSet(active, active + 1));
+		return true;
+	}
+
+	/**
+	 * Invia la risposta {@link AdmissionController#BUSY_REPLY} e chiude la connessione.
+	 * Il channel appena accettato è ancora in modalità bloccante.
+	 */
+	private static void reject(SocketChannel channel)
+	{
+		ServerStats.sessionsRejected.increment();
+		try
+		{
+			channel.write(ByteBuffer.wrap(AdmissionController.BUSY_REPLY));
+			channel.shutdownOutput();
+		}
+		catch(IOException e)
+		{ }
+		try
+		{
+			channel.close();
+		}
+		catch(IOException e)
+		{ }
+	}
+}
\ No newline at end of file
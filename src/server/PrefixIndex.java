@@ -0,0 +1,183 @@
+package server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+
+import entities.Hotel;
+
+/**
+ * Classe che rappresenta l'indice per prefisso dei nomi degli hotel, usato dal comando suggest. <p>
+ *
+ * I nomi, senza distinzione tra maiuscole e minuscole, sono in un array ordinato: gli hotel il cui nome
+ * inizia con un prefisso occupano un intervallo contiguo, trovato con due ricerche binarie. Sopra
+ * l'array c'è un segment tree con, per ogni intervallo, la posizione dell'hotel con il rate più alto:
+ * i primi k hotel dell'intervallo per rate si estraggono con una coda di priorità di sotto-intervalli,
+ * in O(k log n) invece che scorrendo tutti gli hotel con quel prefisso (e.g. "Hotel"). <p>
+ *
+ * L'array ordinato non cambia, mentre il segment tree viene ricostruito da {@link #refreshRates()}
+ * dopo ogni ricalcolo della classifica e pubblicato con un riferimento volatile, quindi le ricerche
+ * non usano lock.
+ */
+public class PrefixIndex
+{
+	// nomi in minuscolo, in ordine lessicografico
+	private final String[] keys;
+
+	// hotel corrispondente ad ogni nome
+	private final Hotel[] hotels;
+
+	// rate degli hotel e segment tree costruiti all'ultimo ricalcolo della classifica
+	private volatile Ranking ranking;
+
+	// nome normalizzato e hotel, usati solo per l'ordinamento iniziale
+	private static class Entry
+	{
+		final String key;
+		final Hotel hotel;
+
+		Entry(String key, Hotel hotel)
+		{
+			this.key = key;
+			this.hotel = hotel;
+		}
+	}
+
+	/**
+	 * Rate degli hotel, letti tutti nello stesso momento, e segment tree delle posizioni con il rate
+	 * massimo: la foglia dell'hotel in posizione i è tree[n + i], il nodo j ha figli 2j e 2j + 1.
+	 */
+	private static class Ranking
+	{
+		final double[] rates;
+		final int[] tree;
+
+		Ranking(Hotel[] hotels)
+		{
+			int n = hotels.length;
+			rates = new double[n];
+			tree = new int[2 * n];
+			for(int i = 0; i < n; i++)
+			{
+				rates[i] = hotels[i].getRate();
+				tree[n + i] = i;
+			}
+			for(int j = n - 1; j > 0; j--)
+				tree[j] = better(tree[2 * j], tree[2 * j + 1]);
+		}
+
+		/**
+		 * @return tra le posizioni 'a' e 'b', quella con il rate più alto (a parità, quella con il nome
+		 * che viene prima)
+		 */
+		int better(int a, int b)
+		{
+			if(rates[a] != rates[b])
+				return rates[a] > rates[b] ? a : b;
+			return Math.min(a, b);
+		}
+
+		/**
+		 * @return la posizione con il rate più alto nell'intervallo [from, to), non vuoto
+		 */
+		int best(int from, int to)
+		{
+			int n = rates.length;
+			int result = from;
+			for(int l = from + n, r = to + n; l < r; l >>= 1, r >>= 1)
+			{
+				if((l & 1) == 1)
+					result = better(result, tree[l++]);
+				if((r & 1) == 1)
+					result = better(result, tree[--r]);
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * @param hotels hotel da indicizzare
+	 */
+	public PrefixIndex(List<Hotel> hotels)
+	{
+		// ordino le coppie (nome normalizzato, hotel), normalizzando ogni nome una sola volta
+		Entry[] entries = new Entry[hotels.size()];
+		for(int i = 0; i < entries.length; i++)
+			entries[i] = new Entry(normalize(hotels.get(i).getName()), hotels.get(i));
+		Arrays.parallelSort(entries, Comparator.comparing((Entry entry) -> entry.key));
+
+		keys = new String[entries.length];
+		this.hotels = new Hotel[entries.length];
+		for(int i = 0; i < entries.length; i++)
+		{
+			keys[i] = entries[i].key;
+			this.hotels[i] = entries[i].hotel;
+		}
+		ranking = new Ranking(this.hotels);
+	}
+
+	/**
+	 * @return il nome in minuscolo, come viene confrontato con i prefissi
+	 */
+	public static String normalize(String name)
+	{
+		return name.toLowerCase(Locale.ROOT);
+	}
+
+	/**
+	 * Aggiorna i rate degli hotel dopo un ricalcolo della classifica.
+	 */
+	public void refreshRates()
+	{
+		ranking = new Ranking(hotels);
+	}
+
+	/**
+	 * @return i primi 'limit' hotel, in ordine di rate decrescente, il cui nome inizia con 'prefix'
+	 * (già normalizzato, vedi {@link #normalize})
+	 */
+	public List<Hotel> suggest(String prefix, int limit)
+	{
+		List<Hotel> result = new ArrayList<>();
+		int from = lowerBound(keys, prefix);
+		int to = lowerBound(keys, prefix + Character.MAX_VALUE);
+		if(from >= to || limit <= 0)
+			return result;
+
+		// sotto-intervalli {from, to, posizione del rate massimo}, in ordine di rate decrescente
+		Ranking r = ranking;
+		PriorityQueue<int[]> ranges = new PriorityQueue<>((a, b) -> r.better(a[2], b[2]) == a[2] ? -1 : 1);
+		ranges.add(new int[] {from, to, r.best(from, to)});
+		while(!ranges.isEmpty() && result.size() < limit)
+		{
+			int[] range = ranges.poll();
+			int best = range[2];
+			result.add(hotels[best]);
+			if(range[0] < best)
+				ranges.add(new int[] {range[0], best, r.best(range[0], best)});
+			if(best + 1 < range[1])
+				ranges.add(new int[] {best + 1, range[1], r.best(best + 1, range[1])});
+		}
+		return result;
+	}
+
+	/**
+	 * @return la prima posizione di 'keys' con una stringa non minore di 'key'
+	 */
+	static int lowerBound(String[] keys, String key)
+	{
+		int low = 0, high = keys.length;
+		while(low < high)
+		{
+			int mid = (low + high) >>> 1;
+			if(keys[mid].compareTo(key) < 0)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,232 @@
+package server;
+
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Classe che rappresenta la limitazione della frequenza dei comandi, per utente e per indirizzo del
+ * client. <p>
+ *
+ * Ogni utente e ogni indirizzo hanno due budget: uno per i comandi costosi (vedi {@link #isExpensive})
+ * e uno per gli altri. Un budget è un token bucket con una frequenza, in comandi al secondo, e un burst,
+ * cioè il numero di comandi che possono arrivare insieme dopo un periodo di inattività. <p>
+ *
+ * I bucket sono implementati con GCRA: per ogni chiave c'è un solo AtomicLong con l'istante teorico di
+ * arrivo del prossimo comando, aggiornato con compareAndSet, quindi il controllo non usa lock e non
+ * crea oggetti (tranne alla prima richiesta di una chiave). Un comando può costare più unità del
+ * budget (e.g. insertReviews costa una unità per recensione). <p>
+ *
+ * Gli indirizzi IPv6 sono raggruppati per rete /64 (vedi {@link #addressKey}), perché un singolo client
+ * ne ha di solito una intera e potrebbe altrimenti usare un indirizzo diverso per ogni comando. <p>
+ *
+ * Le chiavi con il bucket pieno vengono rimosse ogni {@link #SWEEP_PERIOD} millisecondi da un thread
+ * dedicato, quindi il controllo di un comando non scorre mai la tabella. Se una tabella ha già
+ * {@link #MAX_KEYS} chiavi le nuove chiavi non vengono aggiunte e i loro comandi vengono accettati:
+ * rifiutarli permetterebbe a chi dispone di molti indirizzi di escludere tutti i nuovi client. Un nuovo
+ * utente resta comunque limitato dal budget del suo indirizzo, e viceversa. <p>
+ *
+ * I tentativi di login sono attribuiti solo all'indirizzo del client e non all'utente di cui si tenta
+ * l'accesso, altrimenti chiunque potrebbe esaurire il budget di un altro utente e impedirgli il login.
+ */
+public class RateLimiter
+{
+	// numero massimo di chiavi di ogni tabella
+	private static final int MAX_KEYS = 100000;
+
+	// intervallo tra una pulizia delle tabelle e l'altra, in millisecondi
+	private static final long SWEEP_PERIOD = 1000;
+
+	private final Bucket userExpensive;
+	private final Bucket userCheap;
+	private final Bucket addressExpensive;
+	private final Bucket addressCheap;
+
+	/**
+	 * Parametri di un budget e istante teorico di arrivo (System.nanoTime) per ogni chiave.
+	 */
+	private static class Bucket
+	{
+		final long interval; // intervallo tra due comandi alla frequenza consentita, in nanosecondi
+		final long tolerance; // anticipo massimo rispetto alla frequenza consentita, in nanosecondi
+		final ConcurrentHashMap<Object, AtomicLong> arrivals = new ConcurrentHashMap<>();
+
+		/**
+		 * @param limit budget nel formato "frequenza,burst", vuoto o con frequenza 0 per nessun limite
+		 */
+		static Bucket parse(String limit)
+		{
+			if(limit == null || limit.isBlank())
+				return null;
+			String[] parts = limit.split(",");
+			double rate = Double.parseDouble(parts[0].trim());
+			int burst = parts.length > 1 ? Integer.parseInt(parts[1].trim()) : 1;
+			if(rate <= 0)
+				return null;
+			return new Bucket((long) (TimeUnit.SECONDS.toNanos(1) / rate), Math.max(1, burst));
+		}
+
+		Bucket(long interval, int burst)
+		{
+			this.interval = interval;
+			this.tolerance = interval * (burst - 1);
+		}
+
+		/**
+		 * Un comando che costa più del burst viene accettato solo se il bucket è pieno, e consuma
+		 * comunque tutto il suo costo: la chiave resta poi senza budget per il tempo corrispondente.
+		 * @param cost unità di budget del comando
+		 * @return true se il comando della chiave 'key' rientra nel budget, che in tal caso viene consumato
+		 * (o se la chiave è nuova e la tabella è piena)
+		 */
+		boolean tryAcquire(Object key, long now, int cost)
+		{
+			AtomicLong arrival = arrivals.get(key);
+			if(arrival == null)
+			{
+				if(arrivals.size() >= MAX_KEYS)
+					return true;
+				arrival = arrivals.computeIfAbsent(key, k -> new AtomicLong(now));
+			}
+			while(true)
+			{
+				long expected = arrival.get();
+				long theoretical = Math.max(expected, now);
+				if(theoretical + (cost - 1) * interval - now > tolerance && theoretical > now)
+					return false;
+				if(arrival.compareAndSet(expected, theoretical + cost * interval))
+					return true;
+			}
+		}
+
+		/**
+		 * Restituisce le unità consumate da un comando che è stato poi rifiutato da un altro budget.
+		 */
+		void refund(Object key, int cost)
+		{
+			AtomicLong arrival = arrivals.get(key);
+			if(arrival != null)
+				arrival.addAndGet(-cost * interval);
+		}
+
+		/**
+		 * Rimuove le chiavi con il bucket pieno, cioè con l'istante teorico di arrivo già passato.
+		 */
+		void sweep(long now)
+		{
+			arrivals.values().removeIf(a -> a.get() <= now);
+		}
+	}
+
+	/**
+	 * @param userExpensive budget di ogni utente per i comandi costosi, "frequenza,burst"
+	 * @param userCheap budget di ogni utente per gli altri comandi
+	 * @param addressExpensive budget di ogni indirizzo per i comandi costosi
+	 * @param addressCheap budget di ogni indirizzo per gli altri comandi
+	 */
+	public RateLimiter(String userExpensive, String userCheap, String addressExpensive, String addressCheap)
+	{
+		this.userExpensive = Bucket.parse(userExpensive);
+		this.userCheap = Bucket.parse(userCheap);
+		this.addressExpensive = Bucket.parse(addressExpensive);
+		this.addressCheap = Bucket.parse(addressCheap);
+
+		if(isEnabled())
+		{
+			ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(task -> {
+				Thread t = new Thread(task, "rate-limiter-sweeper");
+				t.setDaemon(true);
+				return t;
+			});
+			sweeper.scheduleWithFixedDelay(this::sweep, SWEEP_PERIOD, SWEEP_PERIOD, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private void sweep()
+	{
+		long now = System.nanoTime();
+		for(Bucket bucket : new Bucket[] {userExpensive, userCheap, addressExpensive, addressCheap})
+			if(bucket != null)
+				bucket.sweep(now);
+	}
+
+	/**
+	 * @return true se almeno un budget è impostato
+	 */
+	public boolean isEnabled()
+	{
+		return userExpensive != null || userCheap != null || addressExpensive != null || addressCheap != null;
+	}
+
+	/**
+	 * @return true se il comando usa il budget dei comandi costosi: i login (anche con il token di
+	 * sessione), che calcolano un hash, la ricerca di tutti gli hotel di una città (anche filtrata per
+	 * servizi o punteggi) e l'inserimento di recensioni
+	 */
+	public static boolean isExpensive(String command)
+	{
+		switch(command)
+		{
+			case "login":
+			case "resume":
+			case "searchAllHotels":
+			case "filterHotels":
+			case "searchByRatings":
+			case "insertReview":
+			case "insertReviews":
+				return true;
+			default:
+				return false;
+		}
+	}
+
+	/**
+	 * @return la chiave del budget dell'indirizzo: l'indirizzo stesso per IPv4, i primi 64 bit (la rete
+	 * /64) per IPv6; null se 'address' è null
+	 */
+	public static Object addressKey(InetAddress address)
+	{
+		if(address instanceof Inet6Address)
+			return ByteBuffer.wrap(address.getAddress()).getLong();
+		return address;
+	}
+
+	/**
+	 * Controlla e consuma i budget di un comando: prima quello dell'indirizzo, poi quello dell'utente.
+	 * Se il budget dell'utente rifiuta il comando, le unità consumate dal budget dell'indirizzo vengono
+	 * restituite.
+	 * @param username utente loggato a cui è attribuito il comando, null se non c'è (e.g. per il login)
+	 * @param addressKey chiave dell'indirizzo del client (vedi {@link #addressKey}), null per le
+	 * connessioni locali (socket Unix domain)
+	 * @param cost unità di budget del comando (e.g. il numero di recensioni di insertReviews)
+	 * @return true se il comando può essere eseguito, false se va rifiutato
+	 */
+	public boolean tryAcquire(String command, String username, Object addressKey, int cost)
+	{
+		boolean expensive = isExpensive(command);
+		long now = System.nanoTime();
+		cost = Math.max(1, cost);
+
+		Bucket addressBucket = expensive ? addressExpensive : addressCheap;
+		boolean addressCharged = addressKey != null && addressBucket != null;
+		if(addressCharged && !addressBucket.tryAcquire(addressKey, now, cost))
+		{
+			ServerStats.throttledByAddress.increment();
+			return false;
+		}
+		Bucket userBucket = expensive ? userExpensive : userCheap;
+		if(username != null && userBucket != null && !userBucket.tryAcquire(username, now, cost))
+		{
+			if(addressCharged)
+				addressBucket.refund(addressKey, cost);
+			ServerStats.throttledByUser.increment();
+			return false;
+		}
+		return true;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,239 @@
+package server;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import entities.Hotel;
+import entities.Ratings;
+
+/**
+ * Classe che rappresenta gli indici ordinati dei punteggi delle categorie degli hotel, usati dal comando
+ * searchByRatings. <p>
+ *
+ * Per ogni città e per ogni categoria ({@link Category}) c'è l'ordine degli hotel della città per
+ * punteggio crescente in quella categoria, con i punteggi letti tutti nello stesso momento: gli hotel
+ * con il punteggio in un intervallo occupano posizioni contigue, trovate con due ricerche binarie. <p>
+ *
+ * Se l'ordinamento è sulla stessa categoria dell'intervallo la risposta costa O(log n + k), scorrendo
+ * l'intervallo dal punteggio più alto; altrimenti i k hotel migliori dell'intervallo vengono scelti con
+ * un heap di dimensione k, in O(log n + m log k) con m hotel nell'intervallo. <p>
+ *
+ * I punteggi sono indicizzati in centesimi, arrotondati come vengono mostrati ai client (formato
+ * "%.2f"): un hotel mostrato con cleaning=4.50 è tra 4.5 e 5 anche se il punteggio calcolato è 4.4996,
+ * e ordinamenti e parità seguono i valori mostrati. <p>
+ *
+ * L'indice viene ricostruito da {@link #rebuild} dopo ogni ricalcolo della classifica, quando
+ * {@link LocalRankingUpdater} ha scritto i nuovi punteggi, e pubblicato con un riferimento volatile,
+ * quindi le ricerche non usano lock.
+ */
+public class RatingIndex
+{
+	/**
+	 * Categorie dei punteggi, con lo stesso nome dei campi di {@link Ratings}.
+	 */
+	public enum Category
+	{
+		CLEANING, POSITION, SERVICES, QUALITY;
+
+		double of(Ratings ratings)
+		{
+			switch(this)
+			{
+				case CLEANING:
+					return ratings.getCleaning();
+				case POSITION:
+					return ratings.getPosition();
+				case SERVICES:
+					return ratings.getServices();
+				default:
+					return ratings.getQuality();
+			}
+		}
+
+		/**
+		 * @return la categoria di nome 'name' (senza distinzione tra maiuscole e minuscole), null se non
+		 * esiste
+		 */
+		public static Category parse(String name)
+		{
+			for(Category category : values())
+				if(category.name().equalsIgnoreCase(name))
+					return category;
+			return null;
+		}
+	}
+
+	// id della città -> indici dei punteggi degli hotel della città, all'ultimo ricalcolo della classifica
+	private volatile CityRatings[] cities = new CityRatings[0];
+
+	private static class CityRatings
+	{
+		// hotel della città, in ordine di classifica
+		final Hotel[] hotels;
+
+		// categoria -> punteggio di ogni hotel, in centesimi
+		final long[][] values;
+
+		// categoria -> posizioni in 'hotels' in ordine di punteggio crescente (a parità, dall'ultimo in
+		// classifica), quindi scorrendo all'indietro si ottiene l'ordine della risposta
+		final int[][] order;
+
+		// categoria -> punteggi in ordine crescente, cioè values[c][order[c][i]]
+		final long[][] sortedValues;
+
+		CityRatings(Hotel[] hotels)
+		{
+			this.hotels = hotels;
+			int categories = Category.values().length;
+			values = new long[categories][hotels.length];
+			order = new int[categories][];
+			sortedValues = new long[categories][hotels.length];
+			for(int i = 0; i < hotels.length; i++)
+			{
+				Ratings ratings = hotels[i].getRatings();
+				for(Category category : Category.values())
+					values[category.ordinal()][i] = hundredths(category.of(ratings));
+			}
+			for(int c = 0; c < categories; c++)
+			{
+				long[] v = values[c];
+				Integer[] positions = new Integer[hotels.length];
+				for(int i = 0; i < positions.length; i++)
+					positions[i] = i;
+				Arrays.sort(positions, Comparator.comparingLong((Integer i) -> v[i]).thenComparing(Comparator.reverseOrder()));
+				order[c] = new int[hotels.length];
+				for(int i = 0; i < positions.length; i++)
+				{
+					order[c][i] = positions[i];
+					sortedValues[c][i] = v[positions[i]];
+				}
+			}
+		}
+	}
+
+	/**
+	 * Ricostruisce l'indice dalle liste di hotel, già ordinate per rate decrescente.
+	 */
+	public void rebuild(HotelIndex hotelIndex, Map<String, ? extends List<Hotel>> hotelsByCityMap)
+	{
+		CityRatings[] newCities = new CityRatings[hotelIndex.cityCount()];
+		for(int cityId = 0; cityId < newCities.length; cityId++)
+		{
+			List<Hotel> hotels = hotelsByCityMap.get(hotelIndex.cityName(cityId));
+			newCities[cityId] = new CityRatings(hotels == null ? new Hotel[0] : hotels.toArray(new Hotel[0]));
+		}
+		cities = newCities;
+	}
+
+	/**
+	 * @param cityId id della città
+	 * @param range categoria dell'intervallo
+	 * @param min punteggio minimo (incluso), confrontato con il punteggio arrotondato a due decimali
+	 * @param max punteggio massimo (incluso), confrontato con il punteggio arrotondato a due decimali
+	 * @param sortBy categoria dell'ordinamento
+	 * @param limit numero massimo di hotel
+	 * @return gli hotel della città con il punteggio di 'range' tra 'min' e 'max', al massimo 'limit', in
+	 * ordine di punteggio di 'sortBy' decrescente (a parità, in ordine di classifica)
+	 */
+	public List<Hotel> query(int cityId, Category range, double min, double max, Category sortBy, int limit)
+	{
+		List<Hotel> result = new ArrayList<>();
+		CityRatings[] current = cities;
+		if(cityId < 0 || cityId >= current.length || limit <= 0 || min > max)
+			return result;
+		CityRatings city = current[cityId];
+
+		// un punteggio mostrato p è nell'intervallo se min <= p <= max, cioè se i suoi centesimi sono tra
+		// min e max in centesimi, arrotondati rispettivamente per eccesso e per difetto
+		int[] order = city.order[range.ordinal()];
+		long[] sorted = city.sortedValues[range.ordinal()];
+		int from = lowerBound(sorted, bound(min, RoundingMode.CEILING));
+		int to = upperBound(sorted, bound(max, RoundingMode.FLOOR));
+		if(from >= to)
+			return result;
+
+		if(sortBy == range)
+		{	// l'intervallo è già ordinato: lo scorro dal punteggio più alto
+			for(int i = to - 1; i >= from && result.size() < limit; i--)
+				result.add(city.hotels[order[i]]);
+			return result;
+		}
+
+		// heap dei 'limit' hotel migliori per 'sortBy', con in cima il peggiore
+		long[] key = city.values[sortBy.ordinal()];
+		Comparator<Integer> better = Comparator.comparingLong((Integer p) -> key[p])
+			.thenComparing(Comparator.<Integer>reverseOrder());
+		PriorityQueue<Integer> best = new PriorityQueue<>(Math.min(limit, to - from) + 1, better);
+		for(int i = from; i < to; i++)
+		{
+			best.add(order[i]);
+			if(best.size() > limit)
+				best.poll();
+		}
+		List<Integer> positions = new ArrayList<>(best);
+		positions.sort(Collections.reverseOrder(better));
+		for(int p : positions)
+			result.add(city.hotels[p]);
+		return result;
+	}
+
+	/**
+	 * @return 'value' in centesimi, arrotondato come nel formato "%.2f" usato per mostrare i punteggi
+	 */
+	private static long hundredths(double value)
+	{
+		return new BigDecimal(String.format(Locale.US, "%.2f", value)).movePointRight(2).longValueExact();
+	}
+
+	/**
+	 * @return l'estremo 'value' dell'intervallo in centesimi, arrotondato con 'mode' (e limitato a un
+	 * valore molto più grande, in valore assoluto, di qualsiasi punteggio)
+	 */
+	private static long bound(double value, RoundingMode mode)
+	{
+		double limited = Math.max(-1e9, Math.min(1e9, value));
+		return BigDecimal.valueOf(limited).movePointRight(2).setScale(0, mode).longValueExact();
+	}
+
+	/**
+	 * @return la prima posizione di 'sorted' con un valore non minore di 'value'
+	 */
+	private static int lowerBound(long[] sorted, long value)
+	{
+		int low = 0, high = sorted.length;
+		while(low < high)
+		{
+			int mid = (low + high) >>> 1;
+			if(sorted[mid] < value)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+
+	/**
+	 * @return la prima posizione di 'sorted' con un valore maggiore di 'value'
+	 */
+	private static int upperBound(long[] sorted, long value)
+	{
+		int low = 0, high = sorted.length;
+		while(low < high)
+		{
+			int mid = (low + high) >>> 1;
+			if(sorted[mid] <= value)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+}
\ No newline at end of file
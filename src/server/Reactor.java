@@ -0,0 +1,822 @@
+package server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import entities.Hotel;
+import entities.User;
+import utils.BinaryProtocol;
+
+/**
+ * Classe che rappresenta il thread reactor della modalità NIO. <p>
+ *
+ * 1) Gestisce con un selettore le letture e le scritture non bloccanti di un insieme di connessioni. <p>
+ * 2) Estrae dai byte ricevuti le richieste complete: righe di comando oppure, se il client ha negoziato
+ *    il protocollo binario, frame con prefisso di lunghezza. Il protocollo lo decide il {@link Worker}:
+ *    finché la connessione è testuale il reactor estrae una riga alla volta e attende che il worker
+ *    l'abbia eseguita, perché dopo una riga di negoziazione i byte successivi sono frame. <p>
+ * 3) Passa le richieste complete di una connessione ad un pool di thread limitato, che le esegue in
+ *    ordine su un {@link Worker} associato alla connessione. Se la coda del pool (o della corsia) è
+ *    piena le richieste restano in coda sulla connessione e vengono riaffidate al pool quando un task
+ *    termina, come nella modalità con un thread per connessione in cui il client attende. <p>
+ * 4) Scrive sul socket le risposte prodotte dal pool, che arrivano a blocchi (vedi {@link ReplyStream}):
+ *    una risposta lunga viene scritta mentre il worker la produce, senza copiarla in un unico array. Se una connessione accumula troppe richieste da
+ *    eseguire o troppi byte di risposte da scrivere (un client che invia comandi in pipeline senza
+ *    leggere le risposte) il reactor smette di leggerla finché le code non scendono sotto metà del
+ *    limite, così la memoria usata da ogni connessione resta limitata. <p>
+ * 5) Chiude le connessioni scadute per inattività (vedi {@link SessionDeadlines}). <p>
+ *
+ * Il protocollo e lo stato della sessione (StatusClient, utente loggato) sono gli stessi della
+ * modalità con un thread per connessione.
+ */
+public class Reactor extends Thread
+{
+	private static final int INITIAL_BUFFER_SIZE = 1024; // dimensione iniziale del buffer di lettura
+	private static final int MAX_LINE_LENGTH = 1 << 20; // lunghezza massima di una riga di comando
+	private static final int MAX_BUFFER_SIZE = BinaryProtocol.MAX_FRAME_LENGTH + 4; // dimensione massima del buffer di lettura
+	private static final long DEFERRED_RETRY_MILLIS = 10; // intervallo massimo tra due tentativi di riaffidare le richieste rinviate
+	private static final int MAX_PENDING_REQUESTS = 64; // richieste in coda oltre le quali la connessione non viene più letta
+	private static final long MAX_PENDING_REPLY_BYTES = 1 << 20; // byte di risposte in coda oltre i quali la connessione non viene più letta
+	private static final int REPLY_CHUNK_SIZE = 1 << 16; // dimensione dei blocchi in cui vengono accodate le risposte
+
+	private final Selector selector;
+
+	// connessioni accettate in attesa di essere registrate sul selettore
+	private final ConcurrentLinkedQueue<SocketChannel> pendingRegistrations = new ConcurrentLinkedQueue<>();
+
+	// connessioni che hanno nuove risposte da scrivere
+	private final ConcurrentLinkedQueue<Connection> pendingWrites = new ConcurrentLinkedQueue<>();
+
+	// connessioni scadute segnalate dal TimingWheel
+	private final ConcurrentLinkedQueue<Connection> pendingExpirations = new ConcurrentLinkedQueue<>();
+
+	// connessioni con richieste rifiutate dal pool perché la coda era piena, da riaffidare al pool
+	private final ConcurrentLinkedQueue<Connection> deferredConnections = new ConcurrentLinkedQueue<>();
+
+	// pool di thread che esegue i comandi
+	private final ExecutorService handlerPool;
+
+	private final ConcurrentHashMap<String, User> usersMap;
+	private final ConcurrentHashMap<String, CopyOnWriteArrayList<Hotel>> hotelsByCityMap;
+	private final HotelIndex hotelIndex;
+	private final HotelReviews hotelReviews;
+	private final ResponseCache responseCache;
+	private final int sameReviewerSameHotelPeriod;
+
+	// ruota che controlla le scadenze delle sessioni, con le scadenze di inattività e di lettura in secondi
+	private final TimingWheel timingWheel;
+	private final int idleTimeout;
+	private final int readTimeout;
+
+	// soglia di compressione delle risposte del protocollo binario, negativa se disattivata
+	private final int compressionThreshold;
+
+	// token di sessione rilasciati al login, null se disattivati
+	private final SessionTokens sessionTokens;
+
+	// numero massimo di sessioni utente su una connessione multiplexata
+	private final int muxMaxSessions;
+
+	// budget dei comandi per utente e per indirizzo, null se disattivati
+	private final RateLimiter rateLimiter;
+
+	// corsie su cui vengono eseguiti i comandi al posto di 'handlerPool', null se disattivate
+	private final CommandScheduler scheduler;
+
+	public Reactor(
+		String name,
+		ExecutorService handlerPool,
+		ConcurrentHashMap<String, User> usersMap,
+		ConcurrentHashMap<String, CopyOnWriteArrayList<Hotel>> hotelsByCityMap,
+		HotelIndex hotelIndex,
+		HotelReviews hotelReviews,
+		ResponseCache responseCache,
+		int sameReviewerSameHotelPeriod,
+		TimingWheel timingWheel,
+		int idleTimeout,
+		int readTimeout,
+		int compressionThreshold,
+		SessionTokens sessionTokens,
+		int muxMaxSessions,
+		RateLimiter rateLimiter,
+		CommandScheduler scheduler) throws IOException
+	{
+		super(name);
+		setDaemon(true);
+		this.selector = Selector.open();
+		this.handlerPool = handlerPool;
+		this.usersMap = usersMap;
+		this.hotelsByCityMap = hotelsByCityMap;
+		this.hotelIndex = hotelIndex;
+		this.hotelReviews = hotelReviews;
+		this.responseCache = responseCache;
+		this.sameReviewerSameHotelPeriod = sameReviewerSameHotelPeriod;
+		this.timingWheel = timingWheel;
+		this.idleTimeout = idleTimeout;
+		this.readTimeout = readTimeout;
+		this.compressionThreshold = compressionThreshold;
+		this.sessionTokens = sessionTokens;
+		this.muxMaxSessions = muxMaxSessions;
+		this.rateLimiter = rateLimiter;
+		this.scheduler = scheduler;
+	}
+
+	/**
+	 * Stato di una connessione gestita dal reactor.
+	 */
+	private class Connection
+	{
+		final SocketChannel channel;
+		SelectionKey key;
+
+		// buffer di lettura, usato solo dal thread reactor
+		ByteBuffer readBuffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+
+		// true se il client ha negoziato il protocollo binario, o il multiplexing (i frame iniziano con
+		// l'id della sessione). Copiati dal worker dal task che esegue una riga (vedi process), mentre il
+		// reactor attende 'linePending', quindi prima che il reactor estragga i frame successivi
+		volatile boolean binary = false;
+		volatile boolean mux = false;
+
+		// true se una riga del protocollo testuale è stata accodata e il worker non l'ha ancora eseguita:
+		// finché non è eseguita il reactor non sa se i byte successivi sono righe o frame
+		volatile boolean linePending = false;
+
+		// richieste complete in attesa di essere eseguite: righe (String) o frame binari (byte[])
+		final ConcurrentLinkedQueue<Object> requests = new ConcurrentLinkedQueue<>();
+		final AtomicInteger pendingRequests = new AtomicInteger();
+
+		// risposte in attesa di essere scritte sul socket, con il numero di byte ancora da scrivere
+		final ConcurrentLinkedQueue<ByteBuffer> writeQueue = new ConcurrentLinkedQueue<>();
+		final AtomicLong pendingReplyBytes = new AtomicLong();
+
+		// true se il reactor ha smesso di leggere la connessione perché le code sono piene o perché
+		// attende l'esecuzione di una riga (vedi parseRequests), usato solo dal thread reactor
+		boolean readPaused = false;
+
+		// true se c'è un task nel pool che sta eseguendo (o deve eseguire) le righe della connessione
+		final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+		// true se la connessione deve essere chiusa dopo aver scritto le risposte in coda
+		volatile boolean closing = false;
+
+		// true se la connessione è stata chiusa, con il motivo della chiusura: se in quel momento un task
+		// stava usando il worker, la sessione viene terminata dal task stesso (vedi process)
+		volatile boolean closed = false;
+		volatile String closeReason;
+
+		// stream delle risposte del worker, usato solo dal task in esecuzione nel pool
+		final ReplyStream outBuffer = new ReplyStream(this);
+		final Worker worker;
+
+		// scadenze di inattività e di lettura della connessione
+		final SessionDeadlines deadlines = new SessionDeadlines(timingWheel, idleTimeout, readTimeout);
+
+		Connection(SocketChannel channel)
+		{
+			this.channel = channel;
+			this.worker = new Worker(outBuffer, usersMap, hotelsByCityMap, hotelIndex, hotelReviews, responseCache, sameReviewerSameHotelPeriod);
+			this.worker.setCompressionThreshold(compressionThreshold);
+			this.worker.setSessionTokens(sessionTokens);
+			this.worker.setMuxMaxSessions(muxMaxSessions);
+			this.worker.setRateLimiter(rateLimiter, remoteAddress(channel));
+		}
+	}
+
+	/**
+	 * Stream su cui il worker di una connessione scrive le risposte. I byte vengono raccolti in blocchi:
+	 * ogni blocco di {@link #REPLY_CHUNK_SIZE} byte viene accodato sulla connessione appena è pieno, e
+	 * il reactor inizia a scriverlo mentre il worker continua la risposta; {@link #flush()} accoda il
+	 * blocco incompleto. Usato solo dal task in esecuzione nel pool.
+	 */
+	private class ReplyStream extends OutputStream
+	{
+		private final Connection conn;
+		private ByteArrayOutputStream chunk = new ByteArrayOutputStream();
+
+		ReplyStream(Connection conn)
+		{
+			this.conn = conn;
+		}
+
+		public void write(int b)
+		{
+			chunk.write(b);
+			if(chunk.size() >= REPLY_CHUNK_SIZE)
+				enqueueFullChunk();
+		}
+
+		public void write(byte[] b, int off, int len)
+		{
+			while(len > 0)
+			{
+				int n = Math.min(len, REPLY_CHUNK_SIZE - chunk.size());
+				chunk.write(b, off, n);
+				off += n;
+				len -= n;
+				if(chunk.size() >= REPLY_CHUNK_SIZE)
+					enqueueFullChunk();
+			}
+		}
+
+		/**
+		 * Accoda i byte scritti dall'ultimo blocco accodato.
+		 */
+		public void flush()
+		{
+			if(chunk.size() == 0)
+				return ;
+			enqueueReply(conn, ByteBuffer.wrap(chunk.toByteArray()));
+			chunk.reset();
+		}
+
+		/**
+		 * Accoda il blocco pieno e risveglia il reactor perché inizi a scriverlo. Il blocco successivo
+		 * riparte da un buffer nuovo, così la connessione non trattiene un buffer grande dopo una
+		 * risposta lunga.
+		 */
+		private void enqueueFullChunk()
+		{
+			enqueueReply(conn, ByteBuffer.wrap(chunk.toByteArray()));
+			chunk = new ByteArrayOutputStream();
+			pendingWrites.add(conn);
+			selector.wakeup();
+		}
+	}
+
+	/**
+	 * Affida una nuova connessione al reactor. Può essere invocato da qualsiasi thread.
+	 */
+	public void register(SocketChannel channel)
+	{
+		pendingRegistrations.add(channel);
+		selector.wakeup();
+	}
+
+	/**
+	 * Chiude il selettore e termina il reactor.
+	 */
+	public void shutdown()
+	{
+		try
+		{
+			selector.close();
+		}
+		catch(IOException e)
+		{ }
+	}
+
+	public void run()
+	{
+		try
+		{
+			while(selector.isOpen())
+			{
+				// con richieste rinviate ricontrollo periodicamente il pool: i task che terminano
+				// risvegliano solo il reactor delle proprie connessioni
+				if(deferredConnections.isEmpty())
+					selector.select();
+				else
+					selector.select(DEFERRED_RETRY_MILLIS);
+
+				registerPendingConnections();
+				flushPendingWrites();
+				scheduleDeferredConnections();
+				closeExpiredConnections();
+
+				Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+				while(it.hasNext())
+				{
+					SelectionKey key = it.next();
+					it.remove();
+					Connection conn = (Connection) key.attachment();
+					try
+					{
+						if(key.isReadable())
+							read(conn);
+						if(key.isValid() && key.isWritable())
+							write(conn);
+					}
+					catch(IOException | CancelledKeyException e)
+					{	// il client ha chiuso la connessione in modo anomalo
+						close(conn);
+					}
+				}
+			}
+		}
+		catch(ClosedSelectorException e)
+		{
+			// selettore chiuso durante la terminazione del server
+		}
+		catch(Exception e)
+		{
+			System.err.printf("[REACTOR] Errore: %s\n", e.getMessage());
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Registra sul selettore le connessioni accettate dall'ultimo ciclo.
+	 */
+	private void registerPendingConnections()
+	{
+		SocketChannel channel;
+		while((channel = pendingRegistrations.poll()) != null)
+		{
+			try
+			{
+				channel.configureBlocking(false);
+				Connection conn = new Connection(channel);
+				conn.key = channel.register(selector, SelectionKey.OP_READ, conn);
+				watchDeadlines(conn);
+			}
+			catch(IOException e)
+			{
+				ServerStats.activeSessions.decrementAndGet();
+				try
+				{
+					channel.close();
+				}
+				catch(IOException ignored)
+				{ }
+			}
+		}
+	}
+
+	/**
+	 * Tenta di scrivere subito le risposte prodotte dal pool; se il socket non accetta tutti i byte
+	 * attendo che diventi scrivibile.
+	 */
+	private void flushPendingWrites()
+	{
+		Connection conn;
+		while((conn = pendingWrites.poll()) != null)
+		{
+			if(!conn.key.isValid())
+				continue;
+			try
+			{
+				write(conn);
+			}
+			catch(IOException | CancelledKeyException e)
+			{
+				close(conn);
+			}
+		}
+	}
+
+	/**
+	 * Riaffida al pool le richieste delle connessioni rinviate: quelle che vengono rifiutate di nuovo
+	 * tornano in coda (vedi {@link #schedule}).
+	 */
+	private void scheduleDeferredConnections()
+	{
+		Connection conn;
+		for(int n = deferredConnections.size(); n > 0 && (conn = deferredConnections.poll()) != null; n--)
+			if(!conn.closed && !conn.closing && !conn.requests.isEmpty())
+				schedule(conn);
+	}
+
+	/**
+	 * Avvia il controllo delle scadenze della connessione: quando scade viene segnalata al reactor,
+	 * che la chiude nel proprio thread.
+	 */
+	private void watchDeadlines(Connection conn)
+	{
+		conn.deadlines.start(() -> {
+			pendingExpirations.add(conn);
+			selector.wakeup();
+		});
+	}
+
+	/**
+	 * Chiude le connessioni scadute, effettuando il logout automatico dell'utente loggato.
+	 */
+	private void closeExpiredConnections()
+	{
+		Connection conn;
+		while((conn = pendingExpirations.poll()) != null)
+		{
+			if(!conn.channel.isOpen())
+				continue;
+			if(conn.scheduled.get() || !conn.requests.isEmpty())
+			{	// il pool sta eseguendo (o deve eseguire) i comandi della connessione, quindi non è inattiva
+				watchDeadlines(conn);
+				continue;
+			}
+			/* Comunico al client la scadenza della sessione, senza attendere se il socket è pieno, solo se
+			 * non ci sono risposte in coda: altrimenti la notifica finirebbe in mezzo ad una risposta
+			 * scritta solo in parte, e un client che non legge non la riceverebbe comunque. */
+			if(conn.writeQueue.isEmpty())
+				try
+				{
+					conn.channel.write(ByteBuffer.wrap(conn.worker.expiredReply()));
+				}
+				catch(IOException e)
+				{ }
+			close(conn, "sessione scaduta");
+		}
+	}
+
+	/**
+	 * Legge i byte disponibili sulla connessione ed estrae le richieste complete.
+	 */
+	private void read(Connection conn) throws IOException
+	{
+		int n = conn.channel.read(conn.readBuffer);
+		if(n == -1)
+		{	// il client ha chiuso la connessione
+			close(conn);
+			return ;
+		}
+
+		parseRequests(conn);
+	}
+
+	/**
+	 * Estrae le richieste complete dal buffer di lettura e le affida al pool. Se le richieste in coda o
+	 * i byte delle risposte da scrivere superano il limite, oppure se c'è una riga del protocollo
+	 * testuale non ancora eseguita, smetto di estrarle e di leggere dal socket: i byte restano nel
+	 * buffer finché {@link #write} non riprende la lettura.
+	 */
+	private void parseRequests(Connection conn) throws IOException
+	{
+		ByteBuffer buf = conn.readBuffer;
+		buf.flip();
+		boolean newRequests = false;
+		while(true)
+		{
+			if(conn.linePending || isOverHighWater(conn))
+			{
+				pauseReading(conn);
+				break;
+			}
+			Object request = conn.binary ? nextFrame(buf) : nextLine(buf);
+			if(request == null)
+				break;
+
+			// se la riga cambia protocollo i byte successivi sono frame: lo saprò solo dopo che il
+			// worker l'ha eseguita
+			if(request instanceof String)
+				conn.linePending = true;
+
+			conn.requests.add(request);
+			conn.pendingRequests.incrementAndGet();
+			newRequests = true;
+		}
+		if(newRequests)
+			conn.deadlines.requestCompleted();
+		if(buf.hasRemaining()) // restano i byte di una richiesta non ancora completa
+			conn.deadlines.bytesReceived();
+		buf.compact();
+
+		// se il buffer è pieno senza contenere una richiesta completa lo ingrandisco
+		if(!buf.hasRemaining() && !conn.readPaused)
+		{
+			int maxSize = conn.binary ? MAX_BUFFER_SIZE : MAX_LINE_LENGTH;
+			if(buf.capacity() >= maxSize)
+			{
+				close(conn);
+				return ;
+			}
+			ByteBuffer bigger = ByteBuffer.allocate(Math.min(buf.capacity() * 2, maxSize));
+			buf.flip();
+			bigger.put(buf);
+			conn.readBuffer = bigger;
+		}
+
+		if(newRequests && !conn.closing)
+			schedule(conn);
+	}
+
+	/**
+	 * @return true se la connessione ha troppe richieste in coda o troppi byte di risposte da scrivere
+	 */
+	private static boolean isOverHighWater(Connection conn)
+	{
+		return conn.pendingRequests.get() >= MAX_PENDING_REQUESTS
+			|| conn.pendingReplyBytes.get() >= MAX_PENDING_REPLY_BYTES;
+	}
+
+	/**
+	 * @return true se le richieste in coda e i byte di risposte da scrivere sono scesi sotto metà del
+	 * limite
+	 */
+	private static boolean isBelowLowWater(Connection conn)
+	{
+		return conn.pendingRequests.get() <= MAX_PENDING_REQUESTS / 2
+			&& conn.pendingReplyBytes.get() <= MAX_PENDING_REPLY_BYTES / 2;
+	}
+
+	/**
+	 * Smette di leggere la connessione: il client che continua ad inviare richieste viene rallentato
+	 * dal controllo di flusso del TCP.
+	 */
+	private static void pauseReading(Connection conn)
+	{
+		conn.readPaused = true;
+		conn.key.interestOps(conn.key.interestOps() & ~SelectionKey.OP_READ);
+	}
+
+	/**
+	 * Riprende a leggere la connessione, estraendo prima le richieste rimaste nel buffer.
+	 */
+	private void resumeReading(Connection conn) throws IOException
+	{
+		conn.readPaused = false;
+		conn.key.interestOps(conn.key.interestOps() | SelectionKey.OP_READ);
+		parseRequests(conn);
+	}
+
+	/**
+	 * Accoda una risposta da scrivere sul socket.
+	 */
+	private static void enqueueReply(Connection conn, ByteBuffer reply)
+	{
+		conn.pendingReplyBytes.addAndGet(reply.remaining());
+		conn.writeQueue.add(reply);
+	}
+
+	/**
+	 * @return l'indirizzo del client connesso su 'channel', null per le connessioni sul socket Unix domain
+	 */
+	private static InetAddress remoteAddress(SocketChannel channel)
+	{
+		try
+		{
+			SocketAddress address = channel.getRemoteAddress();
+			if(address instanceof InetSocketAddress)
+				return ((InetSocketAddress) address).getAddress();
+		}
+		catch(IOException e)
+		{ }
+		return null;
+	}
+
+	/**
+	 * Estrae dal buffer una riga terminata da '\n'.
+	 * @return la riga, senza '\n' e l'eventuale '\r', o null se il buffer non contiene una riga completa
+	 */
+	private static String nextLine(ByteBuffer buf)
+	{
+		int start = buf.position();
+		for(int i = start; i < buf.limit(); i++)
+			if(buf.get(i) == '\n')
+			{
+				int end = i;
+				if(end > start && buf.get(end - 1) == '\r')
+					end--;
+				// decodifico direttamente dall'array del buffer, senza copiare la riga
+				String line = new String(buf.array(), buf.arrayOffset() + start, end - start);
+				buf.position(i + 1);
+				return line;
+			}
+		return null;
+	}
+
+	/**
+	 * Estrae dal buffer un frame del protocollo binario.
+	 * @return il contenuto del frame, senza il prefisso di lunghezza, o null se il buffer non contiene
+	 * un frame completo
+	 */
+	private static byte[] nextFrame(ByteBuffer buf) throws IOException
+	{
+		if(buf.remaining() < 4)
+			return null;
+		int length = buf.getInt(buf.position());
+		if(length < 0 || length > BinaryProtocol.MAX_FRAME_LENGTH)
+			throw new IOException("lunghezza del frame non valida: " + length);
+		if(buf.remaining() < 4 + length)
+			return null;
+		byte[] frame = new byte[length];
+		buf.get(buf.position() + 4, frame);
+		buf.position(buf.position() + 4 + length);
+		return frame;
+	}
+
+	/**
+	 * Scrive sul socket le risposte in coda. Se il socket non accetta tutti i byte mi registro per
+	 * l'evento di scrittura. Se la lettura della connessione era sospesa la riprendo quando le code
+	 * scendono sotto metà del limite.
+	 */
+	private void write(Connection conn) throws IOException
+	{
+		ByteBuffer buf;
+		while((buf = conn.writeQueue.peek()) != null)
+		{
+			conn.pendingReplyBytes.addAndGet(-conn.channel.write(buf));
+			if(buf.hasRemaining())
+			{	// il buffer di invio del socket è pieno
+				conn.key.interestOps(conn.key.interestOps() | SelectionKey.OP_WRITE);
+				resumeReadingIfDrained(conn);
+				return ;
+			}
+			conn.writeQueue.poll();
+		}
+		conn.key.interestOps(conn.key.interestOps() & ~SelectionKey.OP_WRITE);
+		resumeReadingIfDrained(conn);
+		if(!conn.key.isValid())
+			return ;
+
+		// tutte le risposte sono state scritte, se il client ha inviato 'exit' chiudo la connessione
+		if(conn.closing && !conn.scheduled.get())
+			close(conn);
+	}
+
+	/**
+	 * Riprende la lettura sospesa della connessione, se le code sono scese sotto metà del limite e il
+	 * worker ha eseguito l'ultima riga accodata.
+	 */
+	private void resumeReadingIfDrained(Connection conn) throws IOException
+	{
+		if(conn.readPaused && !conn.closing && !conn.linePending && isBelowLowWater(conn))
+			resumeReading(conn);
+	}
+
+	/**
+	 * Affida al pool l'esecuzione delle richieste in coda sulla connessione, se non c'è già un task che
+	 * se ne sta occupando. In questo modo le richieste di una connessione sono eseguite una alla volta
+	 * e nell'ordine in cui sono arrivate. <p>
+	 *
+	 * Se le corsie sono attive il task viene eseguito sulla corsia della prima richiesta in coda ed
+	 * esegue solo le richieste successive della stessa corsia: per le altre si riaccoda sulla loro. <p>
+	 *
+	 * Se la coda del pool o della corsia è piena le richieste restano sulla connessione, che viene
+	 * rinviata: il reactor la riaffida al pool al termine di un task (o al più tardi dopo
+	 * {@link #DEFERRED_RETRY_MILLIS} millisecondi). Solo durante la terminazione del server, quando il
+	 * pool non accetta più task, la connessione viene chiusa con una risposta di server occupato.
+	 */
+	private void schedule(Connection conn)
+	{
+		if(!conn.scheduled.compareAndSet(false, true))
+			return ;
+		try
+		{
+			if(scheduler == null)
+				handlerPool.execute(() -> process(conn, null));
+			else
+			{
+				CommandScheduler.Lane lane = laneOf(conn, conn.requests.peek());
+				scheduler.submit(lane, () -> process(conn, lane));
+			}
+		}
+		catch(RejectedExecutionException e)
+		{
+			conn.scheduled.set(false);
+			if(!handlerPool.isShutdown())
+			{	// la coda è piena: le richieste restano in coda e vengono riaffidate al pool più tardi
+				deferredConnections.add(conn);
+				selector.wakeup();
+				return ;
+			}
+			// il server è in terminazione, rifiuto esplicitamente la richiesta e chiudo la connessione
+			conn.requests.clear();
+			conn.pendingRequests.set(0);
+			conn.closing = true;
+			enqueueReply(conn, ByteBuffer.wrap(conn.worker.busyReply()));
+			pendingWrites.add(conn);
+			selector.wakeup();
+		}
+	}
+
+	/**
+	 * @return la corsia della richiesta, in base al nome del comando della riga o all'opcode del frame
+	 */
+	private static CommandScheduler.Lane laneOf(Connection conn, Object request)
+	{
+		if(request instanceof String line)
+		{
+			int space = line.indexOf(' ');
+			return CommandScheduler.laneOf(space < 0 ? line : line.substring(0, space));
+		}
+		if(request instanceof byte[] frame)
+		{
+			int opcode = conn.mux ? 4 : 0; // nei frame multiplexati l'opcode segue l'id della sessione
+			if(frame.length > opcode)
+				return CommandScheduler.laneOf(BinaryProtocol.commandOf(frame[opcode] & 0xff));
+		}
+		return CommandScheduler.Lane.READ;
+	}
+
+	/**
+	 * Eseguito da un thread del pool: passa al worker le richieste in coda e accoda le risposte.
+	 * @param lane corsia su cui è eseguito il task, che esegue solo le richieste di quella corsia; null
+	 * se le corsie sono disattivate
+	 */
+	private void process(Connection conn, CommandScheduler.Lane lane)
+	{
+		try
+		{
+			Object request;
+			while(!conn.closing && (lane == null || laneOf(conn, conn.requests.peek()) == lane)
+				&& (request = conn.requests.poll()) != null)
+			{
+				conn.pendingRequests.decrementAndGet();
+				boolean open;
+				if(request instanceof String line)
+				{	// il worker decide se la riga cambia protocollo: lo comunico al reactor, che attende
+					open = conn.worker.handleLine(line);
+					conn.mux = conn.worker.isMux();
+					conn.binary = conn.worker.isBinary();
+					conn.linePending = false;
+				}
+				else
+					open = conn.worker.handleFrame((byte[]) request);
+				if(!open)
+					conn.closing = true; // il client ha inviato il comando 'exit'
+			}
+
+			conn.worker.flush(); // accoda l'ultimo blocco delle risposte
+		}
+		catch(Exception e)
+		{
+			System.err.printf("[REACTOR] Errore: %s\n", e.getMessage());
+			e.printStackTrace();
+			conn.closing = true;
+		}
+		finally
+		{
+			conn.scheduled.set(false);
+
+			// se la connessione è stata chiusa durante l'esecuzione termino io la sessione (vedi close)
+			if(conn.closed)
+			{
+				if(conn.scheduled.compareAndSet(false, true))
+					endSession(conn);
+				return ;
+			}
+
+			// se nel frattempo sono arrivate altre richieste le eseguo
+			if(!conn.closing && !conn.requests.isEmpty())
+				schedule(conn);
+
+			pendingWrites.add(conn);
+			selector.wakeup();
+		}
+	}
+
+	/**
+	 * Chiude la connessione.
+	 */
+	private void close(Connection conn)
+	{
+		close(conn, "connessione chiusa");
+	}
+
+	/**
+	 * Chiude la connessione ed effettua il logout automatico dell'utente loggato. Se un thread del pool
+	 * sta usando il worker, la sessione viene terminata da quel thread alla fine di {@link #process}:
+	 * 'closed' viene scritto prima del compareAndSet, quindi almeno uno dei due lo vede e solo uno dei
+	 * due termina la sessione.
+	 * @param reason motivo della chiusura, stampato nel log
+	 */
+	private void close(Connection conn, String reason)
+	{
+		conn.closing = true;
+		if(conn.key != null)
+			conn.key.cancel();
+		if(conn.closed)
+			return ;
+		conn.closeReason = reason;
+		conn.closed = true;
+		conn.deadlines.stop();
+		if(conn.scheduled.compareAndSet(false, true))
+			endSession(conn);
+		ServerStats.activeSessions.decrementAndGet();
+		try
+		{
+			conn.channel.close();
+		}
+		catch(IOException e)
+		{ }
+	}
+
+	/**
+	 * Termina la sessione della connessione chiusa: logout automatico e rilascio del compressore.
+	 * Eseguito una sola volta, dal thread che ha ottenuto 'scheduled'.
+	 */
+	private static void endSession(Connection conn)
+	{
+		conn.worker.endSession(conn.closeReason);
+		conn.worker.releaseCompression();
+	}
+}
\ No newline at end of file
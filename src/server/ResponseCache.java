@@ -0,0 +1,375 @@
+package server;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import entities.Hotel;
+import entities.Ratings;
+
+/**
+ * Classe che rappresenta la cache delle risposte già pronte ai comandi searchHotel e searchAllHotels. <p>
+ *
+ * I dati degli hotel cambiano solo quando {@link LocalRankingUpdater} ricalcola le classifiche locali.
+ * Alla fine di ogni ricalcolo la cache viene ricostruita e sostituita atomicamente da una nuova versione,
+ * quindi un comando di lettura si riduce ad una ricerca in una hash map e alla scrittura dei byte sul
+ * socket. <p>
+ *
+ * Per ogni città la cache contiene i dati di ogni hotel in classifica, preceduti dalla posizione, che
+ * il Worker scrive sul socket uno dopo l'altro per rispondere a searchAllHotels (anche solo una pagina
+ * della classifica), e per ogni hotel il [contenuto] della risposta a searchHotel, già codificati in
+ * byte. Il [stato] della risposta dipende dal client e viene aggiunto dal Worker. <p>
+ *
+ * Ogni versione contiene anche la classifica globale dei migliori hotel di tutte le città, calcolata da
+ * {@link LocalRankingUpdater#mergeTopHotels}, per il comando topHotels. <p>
+ *
+ * Se attivate con {@link #enableJson()}, ogni versione contiene anche le risposte JSON del gateway HTTP
+ * ({@link HttpGateway}), costruite dagli stessi dati e quindi identificate dalla stessa versione.
+ */
+public class ResponseCache
+{
+	/**
+	 * Versione immutabile della cache.
+	 */
+	private static class Snapshot
+	{
+		final long version; // versione della classifica da cui è stata costruita la cache
+
+		// città -> dati degli hotel in ordine di classifica, ognuno nel formato "(posizione) hotel"
+		final Map<String, byte[][]> rankedHotelsByCity;
+
+		// città -> nome dell'hotel -> contenuto della risposta a searchHotel
+		final Map<String, Map<String, byte[]>> hotelsByCity;
+
+		// classifica globale, e dati dei suoi hotel nel formato "(posizione) città, hotel"
+		final List<Hotel> topHotels;
+		final byte[][] rankedTopHotels;
+
+		// risposte JSON del gateway HTTP, null se non attivate
+		final Json json;
+
+		Snapshot(
+			long version, Map<String, byte[][]> rankedHotelsByCity, Map<String, Map<String, byte[]>> hotelsByCity,
+			List<Hotel> topHotels, byte[][] rankedTopHotels, Json json)
+		{
+			this.version = version;
+			this.rankedHotelsByCity = rankedHotelsByCity;
+			this.hotelsByCity = hotelsByCity;
+			this.topHotels = topHotels;
+			this.rankedTopHotels = rankedTopHotels;
+			this.json = json;
+		}
+	}
+
+	/**
+	 * Risposte JSON di una versione della cache, codificate in UTF-8.
+	 */
+	public static class Json
+	{
+		public final long version; // versione della classifica da cui sono state costruite
+
+		// città -> hotel in ordine di classifica, ognuno con la sua posizione
+		final Map<String, byte[]> hotelsByCity = new HashMap<>();
+
+		// città -> nome dell'hotel -> dati dell'hotel
+		final Map<String, Map<String, byte[]>> hotelByCity = new HashMap<>();
+
+		// città -> classifica locale (posizione, nome e rate degli hotel)
+		final Map<String, byte[]> rankingByCity = new HashMap<>();
+
+		// classifiche locali di tutte le città
+		byte[] rankings;
+
+		Json(long version)
+		{
+			this.version = version;
+		}
+
+		/**
+		 * @return gli hotel della città 'city' in ordine di classifica, null se la città non esiste
+		 */
+		public byte[] getHotels(String city)
+		{
+			return hotelsByCity.get(city);
+		}
+
+		/**
+		 * @return i dati dell'hotel 'hotelName' della città 'city', null se non esiste
+		 */
+		public byte[] getHotel(String city, String hotelName)
+		{
+			Map<String, byte[]> hotelsInCity = hotelByCity.get(city);
+			return hotelsInCity == null ? null : hotelsInCity.get(hotelName);
+		}
+
+		/**
+		 * @return la classifica locale della città 'city', null se la città non esiste
+		 */
+		public byte[] getRanking(String city)
+		{
+			return rankingByCity.get(city);
+		}
+
+		/**
+		 * @return le classifiche locali di tutte le città
+		 */
+		public byte[] getRankings()
+		{
+			return rankings;
+		}
+	}
+
+	private static final Gson GSON = new Gson();
+
+	private volatile Snapshot snapshot = new Snapshot(0, Map.of(), Map.of(), List.of(), new byte[0][], null);
+
+	// true se ogni versione deve contenere anche le risposte JSON
+	private volatile boolean jsonEnabled = false;
+
+	/**
+	 * Aggiunge alle prossime versioni della cache le risposte JSON del gateway HTTP.
+	 */
+	public void enableJson()
+	{
+		jsonEnabled = true;
+	}
+
+	/**
+	 * Ricostruisce la cache, senza classifica globale (vedi {@link #rebuild(ConcurrentHashMap, List)}).
+	 */
+	public void rebuild(ConcurrentHashMap<String, CopyOnWriteArrayList<Hotel>> hotelsByCityMap)
+	{
+		rebuild(hotelsByCityMap, List.of());
+	}
+
+	/**
+	 * Ricostruisce la cache a partire dalle liste di hotel, già ordinate per rate decrescente, e la
+	 * sostituisce atomicamente a quella precedente. <p>
+	 * Viene invocato da un solo thread alla volta (all'avvio del server e poi dal LocalRankingUpdater).
+	 * @param topHotels classifica globale, ricavata dalle stesse liste
+	 */
+	public void rebuild(ConcurrentHashMap<String, CopyOnWriteArrayList<Hotel>> hotelsByCityMap, List<Hotel> topHotels)
+	{
+		long start = System.nanoTime();
+
+		Map<String, byte[][]> rankedHotelsByCity = new HashMap<>();
+		Map<String, Map<String, byte[]>> hotelsByCity = new HashMap<>();
+		Map<String, List<Hotel>> hotelsToPublish = new TreeMap<>();
+		hotelsByCityMap.forEach((city, list) -> {
+			List<Hotel> hotels = List.copyOf(list);
+			if(hotels.isEmpty())
+				return ;
+			hotelsToPublish.put(city, hotels);
+
+			Map<String, byte[]> hotelsInCity = new HashMap<>();
+			byte[][] rankedHotels = new byte[hotels.size()][];
+			for(int i = 0; i < hotels.size(); i++)
+			{
+				String hotelText = formatHotel(hotels.get(i));
+				hotelsInCity.put(hotels.get(i).getName(), ("*\\n*" + hotelText).getBytes());
+				rankedHotels[i] = ("(" + (i + 1) + ") " + hotelText).getBytes();
+			}
+			rankedHotelsByCity.put(city, rankedHotels);
+			hotelsByCity.put(city, hotelsInCity);
+		});
+
+		byte[][] rankedTopHotels = new byte[topHotels.size()][];
+		for(int i = 0; i < rankedTopHotels.length; i++)
+			rankedTopHotels[i] = ("(" + (i + 1) + ") " + topHotels.get(i).getCity() + ", "
+				+ formatHotel(topHotels.get(i))).getBytes();
+
+		/* Se i dati pubblicati (con rate e ratings arrotondati) non sono cambiati mantengo la versione
+		 * corrente, così i client del gateway HTTP ricevono 304 finché la classifica non cambia. */
+		Snapshot current = snapshot;
+		if(sameRankings(current.rankedHotelsByCity, rankedHotelsByCity)
+			&& Arrays.deepEquals(current.rankedTopHotels, rankedTopHotels)
+			&& (current.json != null || !jsonEnabled))
+		{
+			ServerStats.cacheRebuilds.increment();
+			ServerStats.cacheLastRebuildNanos = System.nanoTime() - start;
+			return ;
+		}
+
+		Json json = null;
+		if(jsonEnabled)
+		{
+			json = new Json(current.version + 1);
+			JsonObject rankings = new JsonObject();
+			for(Map.Entry<String, List<Hotel>> e : hotelsToPublish.entrySet())
+				rankings.add(e.getKey(), buildJson(json, e.getKey(), e.getValue()));
+			json.rankings = GSON.toJson(rankings).getBytes(StandardCharsets.UTF_8);
+		}
+
+		snapshot = new Snapshot(
+			current.version + 1, rankedHotelsByCity, hotelsByCity, List.copyOf(topHotels), rankedTopHotels, json);
+
+		ServerStats.cacheRebuilds.increment();
+		ServerStats.cacheLastRebuildNanos = System.nanoTime() - start;
+	}
+
+	/**
+	 * @return true se le due versioni contengono gli stessi hotel, con gli stessi dati e nello stesso
+	 * ordine, in ogni città
+	 */
+	private static boolean sameRankings(Map<String, byte[][]> a, Map<String, byte[][]> b)
+	{
+		if(!a.keySet().equals(b.keySet()))
+			return false;
+		for(Map.Entry<String, byte[][]> e : a.entrySet())
+			if(!Arrays.deepEquals(e.getValue(), b.get(e.getKey())))
+				return false;
+		return true;
+	}
+
+	/**
+	 * @return la versione della classifica da cui è stata costruita la cache
+	 */
+	public long getVersion()
+	{
+		return snapshot.version;
+	}
+
+	/**
+	 * @return i dati degli hotel della città 'city' in ordine di classifica, ognuno preceduto dalla sua
+	 * posizione e senza separatori, null se la città non è in cache
+	 */
+	public byte[][] getRankedHotels(String city)
+	{
+		byte[][] rankedHotels = snapshot.rankedHotelsByCity.get(city);
+		count(rankedHotels != null);
+		return rankedHotels;
+	}
+
+	/**
+	 * @return gli hotel della classifica globale, in ordine di classifica
+	 */
+	public List<Hotel> getTopHotels()
+	{
+		return snapshot.topHotels;
+	}
+
+	/**
+	 * @return i dati degli hotel della classifica globale, ognuno preceduto dalla sua posizione e dalla
+	 * sua città e senza separatori
+	 */
+	public byte[][] getRankedTopHotels()
+	{
+		return snapshot.rankedTopHotels;
+	}
+
+	/**
+	 * @return il contenuto della risposta a searchHotel per l'hotel 'hotelName' nella città 'city',
+	 * null se non è in cache
+	 */
+	public byte[] getHotel(String city, String hotelName)
+	{
+		Map<String, byte[]> hotelsInCity = snapshot.hotelsByCity.get(city);
+		byte[] content = hotelsInCity == null ? null : hotelsInCity.get(hotelName);
+		count(content != null);
+		return content;
+	}
+
+	/**
+	 * @return le risposte JSON della versione corrente, null se non sono attivate
+	 */
+	public Json getJson()
+	{
+		return snapshot.json;
+	}
+
+	/**
+	 * Costruisce le risposte JSON degli hotel della città 'city', già ordinati per classifica.
+	 * @return la classifica locale della città, da includere in quella di tutte le città
+	 */
+	private static JsonArray buildJson(Json json, String city, List<Hotel> hotels)
+	{
+		JsonArray hotelsArray = new JsonArray();
+		JsonArray ranking = new JsonArray();
+		Map<String, byte[]> hotelsInCity = new HashMap<>();
+		for(int i = 0; i < hotels.size(); i++)
+		{
+			Hotel hotel = hotels.get(i);
+			JsonObject hotelObject = hotelJson(hotel);
+			hotelsInCity.put(hotel.getName(), GSON.toJson(hotelObject).getBytes(StandardCharsets.UTF_8));
+
+			JsonObject rankedHotel = new JsonObject();
+			rankedHotel.addProperty("position", i + 1);
+			hotelObject.entrySet().forEach(e -> rankedHotel.add(e.getKey(), e.getValue()));
+			hotelsArray.add(rankedHotel);
+
+			JsonObject entry = new JsonObject();
+			entry.addProperty("position", i + 1);
+			entry.addProperty("name", hotel.getName());
+			entry.addProperty("rate", round(hotel.getRate()));
+			ranking.add(entry);
+		}
+		json.hotelsByCity.put(city, GSON.toJson(hotelsArray).getBytes(StandardCharsets.UTF_8));
+		json.hotelByCity.put(city, hotelsInCity);
+		json.rankingByCity.put(city, GSON.toJson(ranking).getBytes(StandardCharsets.UTF_8));
+		return ranking;
+	}
+
+	/**
+	 * @return i dati dell'hotel in JSON, con rate e ratings arrotondati come nel protocollo testuale
+	 */
+	private static JsonObject hotelJson(Hotel hotel)
+	{
+		JsonObject object = new JsonObject();
+		object.addProperty("id", hotel.getId());
+		object.addProperty("name", hotel.getName());
+		object.addProperty("description", hotel.getDescription());
+		object.addProperty("city", hotel.getCity());
+		object.addProperty("phone", hotel.getPhone());
+		JsonArray services = new JsonArray();
+		hotel.getServices().forEach(services::add);
+		object.add("services", services);
+		object.addProperty("rate", round(hotel.getRate()));
+		Ratings ratings = hotel.getRatings();
+		JsonObject ratingsObject = new JsonObject();
+		ratingsObject.addProperty("cleaning", round(ratings.getCleaning()));
+		ratingsObject.addProperty("position", round(ratings.getPosition()));
+		ratingsObject.addProperty("services", round(ratings.getServices()));
+		ratingsObject.addProperty("quality", round(ratings.getQuality()));
+		object.add("ratings", ratingsObject);
+		return object;
+	}
+
+	/**
+	 * @return 'value' arrotondato a due cifre decimali, come nel formato "%.2f"
+	 */
+	private static double round(double value)
+	{
+		return Double.parseDouble(String.format(Locale.US, "%.2f", value));
+	}
+
+	private static void count(boolean hit)
+	{
+		if(hit)
+			ServerStats.cacheHits.increment();
+		else
+			ServerStats.cacheMisses.increment();
+	}
+
+	/**
+	 * Dati di un hotel nel formato del protocollo testuale (new line codificati come '*\n*').
+	 */
+	static String formatHotel(Hotel hotel)
+	{
+		return hotel.getName() + "*\\n*"
+			+ "  \"" + hotel.getDescription() + "\"*\\n*"
+			+ "  phone=" + hotel.getPhone() + "*\\n*"
+			+ "  services=" + hotel.getServices() + "*\\n*"
+			+ "  rate=" + String.format(Locale.US, "%.2f", hotel.getRate()) + "*\\n*"
+			+ "  ratings=" + hotel.getRatings().toStringWithApproximation() + "*\\n*";
+	}
+}
\ No newline at end of file
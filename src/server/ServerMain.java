@@ -7,23 +7,34 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
+import java.net.StandardProtocolFamily;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
 import java.rmi.server.UnicastRemoteObject;
+import java.time.LocalDateTime;
 import java.util.Comparator;
 import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 import com.google.gson.Gson;
@@ -52,8 +63,34 @@ public class ServerMain
 
 	public static int maxDelay; // tempo di attesa prima della chiusura del pool di thread, in millisecondi
 	public static int TCPport; // porta di ascolto del server
+	public static String unixSocketPath; // percorso del socket Unix domain per i client sullo stesso host (vuoto per disattivarlo)
 	public static ServerSocket serverSocket;
-	public static final ExecutorService pool = Executors.newCachedThreadPool();
+	public static ExecutorService pool; // pool di thread che gestisce le connessioni (in modalità NIO, i comandi)
+
+	public static String serverMode; // modalità di gestione delle connessioni TCP: 'thread', 'virtual' oppure 'nio'
+	public static int reactorThreads; // numero di thread reactor (modalità NIO)
+	public static int handlerThreads; // numero di thread del pool che esegue i comandi (modalità NIO)
+	public static int handlerQueueSize; // dimensione massima della coda del pool che esegue i comandi (modalità NIO)
+
+	public static int maxSessions; // numero massimo di sessioni TCP contemporanee (0 per nessun limite)
+	public static int acceptBacklog; // dimensione della coda delle connessioni in attesa di accept() nel sistema operativo
+	public static int acceptQueueSize; // numero massimo di connessioni accettate in attesa di una sessione libera (modalità thread e virtual)
+	public static int acceptQueueTimeout; // tempo massimo di attesa di una connessione in coda, in millisecondi
+	public static int sessionIdleTimeout; // tempo massimo senza comandi prima della chiusura della sessione, in secondi (0 per disattivarlo)
+	public static int sessionReadTimeout; // tempo massimo per completare la ricezione di un comando, in secondi (0 per disattivarlo)
+	public static TimingWheel timingWheel; // timer condiviso che controlla le scadenze delle sessioni
+	public static int compressionThreshold; // lunghezza minima, in byte, di una risposta binaria da comprimere (negativa per non consentire la compressione)
+	public static String sessionTokenSecret; // segreto con cui vengono firmati i token di sessione (se vuoto ne viene generato uno ad ogni avvio)
+	public static int sessionTokenTtl; // durata di un token di sessione, in secondi (0 per non rilasciare token)
+	public static int sessionTableSize; // numero massimo di sessioni ripristinabili mantenute dal server
+	public static SessionTokens sessionTokens; // token di sessione rilasciati al login
+	public static int httpPort; // porta del gateway HTTP/JSON di sola lettura (0 per disattivarlo)
+	public static int suggestLimit; // numero massimo di città e di hotel suggeriti dal comando suggest
+	public static int topHotelsLimit; // numero di hotel della classifica globale (comando topHotels)
+	public static int trendingLimit; // numero di hotel di ogni classifica del comando trending
+	public static int muxMaxSessions; // numero massimo di sessioni utente su una connessione multiplexata
+	public static RateLimiter rateLimiter; // budget dei comandi per utente e per indirizzo (null se disattivato)
+	public static CommandScheduler commandScheduler; // corsie su cui vengono eseguiti i comandi (null se disattivate)
 
 	public static int UDPport; // porta multicast
 	public static String multicastAddress; // indirizzo di multicast
@@ -62,16 +99,26 @@ public class ServerMain
 	public static int persistencePeriod; // periodo di tempo tra un salvataggio delle strutture dati in json e l'altro, in secondi
 	public static int rankingPeriod; // periodo di tempo tra un ricalcolo della classifica locale e l'altro, in secondi
 	public static int sameReviewerSameHotelPeriod; // periodo di tempo tra le recensioni dello stesso utente per lo stesso hotel, in secondi
+	public static int statsPeriod; // periodo di tempo tra una stampa delle statistiche del server e l'altra, in secondi (0 per disattivarla)
 
 	// hash map che ha come chiave la città e valore la lista degli hotel presenti in quella città
 	public static ConcurrentHashMap<String, CopyOnWriteArrayList<Hotel>> hotelsByCityMap = new ConcurrentHashMap<>();
 
-	// hash map che ha come chiave 'nomeHotel_città' e valore la lista di recensioni di quell'hotel
-	public static ConcurrentHashMap<String, CopyOnWriteArrayList<Review>> reviewsMap = new ConcurrentHashMap<>();
+	// catalogo delle città e degli hotel di hotelsByCityMap, con i loro id (creato da loadHotelsFromJson)
+	public static HotelIndex hotelIndex;
+
+	// città e hotel letti dai file json, da cui loadHotelsFromJson costruisce hotelIndex
+	private static HotelIndex.Builder catalog;
+
+	// recensioni di ogni hotel, indicizzate dall'id dell'hotel (create da loadReviewsFromJson)
+	public static HotelReviews hotelReviews;
 
 	// hash map degli utenti registrati
 	public static ConcurrentHashMap<String, User> usersMap;
 
+	// cache delle risposte a searchHotel e searchAllHotels, ricostruita ad ogni ricalcolo della classifica
+	public static ResponseCache responseCache = new ResponseCache();
+
 	public static void main(String[] args)
 	{
 		try
@@ -89,11 +136,22 @@ public class ServerMain
 		{
 			loadCitiesFromJson(); // carico le città in hotelsByCityMap dal file json
 			loadHotelsFromJson(); // carico gli hotel in hotelsByCityMap dal file json
-			loadReviewsFromJson(); // carico le recensioni in reviewsMap dal file json
+			loadReviewsFromJson(); // carico le recensioni in hotelReviews dal file json
 
 			// ordino, per ogni città, la lista di hotel in modo decrescente in base al rate
 			hotelsByCityMap.forEach((city, list) ->
 				list.sort(Comparator.comparingDouble(Hotel::getRate).reversed()));
+
+			// costruisco gli indici dei servizi e dei punteggi, usati dai comandi filterHotels e searchByRatings
+			hotelIndex.rebuildRankingIndexes(hotelsByCityMap);
+
+			// calcolo le prime classifiche di tendenza dai contatori delle recensioni caricate
+			hotelReviews.trending().rebuildTop(hotelIndex, HotelReviews.epochMillis(LocalDateTime.now()));
+
+			// costruisco la prima versione della cache delle risposte (con quelle JSON per il gateway HTTP)
+			if(httpPort > 0)
+				responseCache.enableJson();
+			responseCache.rebuild(hotelsByCityMap, LocalRankingUpdater.mergeTopHotels(hotelsByCityMap, topHotelsLimit));
 		}
 		catch(Exception e)
 		{
@@ -146,7 +204,7 @@ public class ServerMain
 		 * PERSISTENZA DELLE STRUTTURE DATI SUI FILE JSON
 		 */
 		DataPersistenceTask dataPersistenceTask = new DataPersistenceTask(
-			usersMap, usersJsonPath, reviewsMap, reviewsJsonPath, hotelsByCityMap, hotelsJsonPath);
+			usersMap, usersJsonPath, hotelReviews, reviewsJsonPath, hotelsByCityMap, hotelsJsonPath);
 
 		// persisto le strutture dati ogni 'persistencePeriod' secondi
 		if(persistencePeriod <= 0)
@@ -203,8 +261,8 @@ public class ServerMain
 			schedulerLocalRanking.scheduleAtFixedRate(
 				new LocalRankingUpdater(
 					datagramSocket, group, UDPport,
-					reviewsMap, hotelsByCityMap,
-					server),
+					hotelReviews, hotelsByCityMap, hotelIndex,
+					responseCache, server, topHotelsLimit),
 				1, rankingPeriod, TimeUnit.SECONDS);
 		}
 		catch(Exception e)
@@ -214,53 +272,240 @@ public class ServerMain
 			System.exit(1);
 		}
 
+		// stampo le statistiche del server ogni 'statsPeriod' secondi
+		if(statsPeriod > 0)
+		{
+			ScheduledExecutorService schedulerStats = Executors.newSingleThreadScheduledExecutor(task -> {
+				Thread t = new Thread(task);
+				t.setDaemon(true);
+				return t;
+			});
+			schedulerStats.scheduleAtFixedRate(
+				() -> ServerStats.print(responseCache), statsPeriod, statsPeriod, TimeUnit.SECONDS);
+		}
+
+		// avvio il gateway HTTP/JSON di sola lettura per i client web
+		if(httpPort > 0)
+		{
+			try
+			{
+				// le richieste HTTP usano thread virtuali solo nella modalità 'virtual'
+				ExecutorService httpPool = serverMode.equals("virtual") ? newVirtualThreadPool() : null;
+				if(httpPool == null)
+					httpPool = Executors.newCachedThreadPool();
+				new HttpGateway(httpPort, acceptBacklog, responseCache, httpPool).start();
+				System.out.printf("[SERVER] Gateway HTTP sulla porta %d\n", httpPort);
+			}
+			catch(IOException e)
+			{
+				System.err.println("[SERVER] Errore durante l'avvio del gateway HTTP: " + e.getMessage());
+				System.exit(1);
+			}
+		}
+
+		// avvio il timer che controlla le scadenze di inattività e di lettura delle sessioni
+		if(sessionIdleTimeout > 0 || sessionReadTimeout > 0)
+		{
+			timingWheel = new TimingWheel(100, 512);
+			timingWheel.start();
+		}
+
+		// token con cui i client che si riconnettono ripristinano la sessione senza rifare il login
+		if(sessionTokenTtl > 0)
+			sessionTokens = new SessionTokens(sessionTokenSecret, sessionTokenTtl, sessionTableSize);
+
 		/*
 		 * TCP
 		 * PER INTERAGIRE CON IL CLIENT SECONDO IL MODELLO RICHIESTA/RISPOSTA
 		 */
 		try
 		{
-			serverSocket = new ServerSocket(TCPport);
+			if(serverMode.equals("nio"))
+				serveNio();
+			else
+				serveThreadPerConnection();
+		}
+		catch(Exception e)
+		{
+			System.err.println("[SERVER] Errore: " + e.getMessage());
+			e.printStackTrace();
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Accetta le connessioni TCP ed esegue un task Worker per ogni connessione sul pool di thread.
+	 * In modalità 'virtual' ogni Worker viene eseguito su un thread virtuale; se la JVM non li supporta
+	 * (Java precedente alla 21) viene usata la modalità 'thread'.
+	 */
+	private static void serveThreadPerConnection() throws IOException
+	{
+		serverSocket = new ServerSocket(TCPport, acceptBacklog);
+		pool = serverMode.equals("virtual") ? newVirtualThreadPool() : null;
+		if(pool == null)
+		{
+			if(serverMode.equals("virtual"))
+				System.err.println("[SERVER] Thread virtuali non disponibili (richiedono Java 21), uso la modalità thread");
+			pool = Executors.newCachedThreadPool();
+		}
 
-			// chiusura ordinata del pool di thread e del server socket quando il runtime Java viene terminato
-			Runtime.getRuntime().addShutdownHook(new TerminationHandler(maxDelay, pool, serverSocket));
-			System.out.printf("[SERVER] Pronto\n");
+		// limita le sessioni contemporanee, mette in coda o rifiuta le connessioni in eccesso
+		AdmissionController admission = new AdmissionController(
+			maxSessions, acceptQueueSize, acceptQueueTimeout, pool,
+			socket -> {
+				Worker worker = new Worker(
+					socket, usersMap, hotelsByCityMap, hotelIndex, hotelReviews, responseCache, sameReviewerSameHotelPeriod);
+				worker.setDeadlines(new SessionDeadlines(timingWheel, sessionIdleTimeout, sessionReadTimeout));
+				worker.setCompressionThreshold(compressionThreshold);
+				worker.setSessionTokens(sessionTokens);
+				worker.setMuxMaxSessions(muxMaxSessions);
+				worker.setRateLimiter(rateLimiter, socket.getInetAddress());
+				worker.setScheduler(commandScheduler);
+				return worker;
+			});
 
-			while(true)
-			{
-				Socket socket = null;
-				try
-				{	// accetto le richieste provenienti dai client
-					socket = serverSocket.accept();
-				}
-				catch(SocketException e)
+		// le connessioni sul socket Unix domain passano dallo stesso controllo di ammissione
+		ServerSocketChannel unixChannel = openUnixSocket();
+		if(unixChannel != null)
+		{
+			Thread unixAcceptor = new Thread(() -> {
+				while(true)
 				{
-					break;
+					try
+					{
+						SocketChannel channel = unixChannel.accept();
+						admission.admit(new ChannelSocket(channel));
+					}
+					catch(ClosedChannelException e)
+					{
+						break;
+					}
+					catch(IOException e)
+					{
+						System.err.printf("[SERVER] Errore sul socket Unix domain: %s\n", e.getMessage());
+					}
 				}
-				// eseguo un nuovo task Worker per gestire la connessione con il client
-				pool.execute(new Worker(socket, usersMap, hotelsByCityMap, reviewsMap, sameReviewerSameHotelPeriod));
+			}, "unix-acceptor");
+			unixAcceptor.setDaemon(true);
+			unixAcceptor.start();
+		}
+
+		// chiusura ordinata del pool di thread e del server socket quando il runtime Java viene terminato
+		Runtime.getRuntime().addShutdownHook(new TerminationHandler(maxDelay, pool, serverSocket));
+		System.out.printf("[SERVER] Pronto\n");
+
+		while(true)
+		{
+			Socket socket = null;
+			try
+			{	// accetto le richieste provenienti dai client
+				socket = serverSocket.accept();
 			}
+			catch(SocketException e)
+			{
+				break;
+			}
+			// eseguo un nuovo task Worker per gestire la connessione con il client, se c'è posto
+			admission.admit(socket);
 		}
-		catch(Exception e)
+	}
+
+	/**
+	 * Accetta le connessioni TCP e le affida ai thread reactor, che eseguono le letture e le scritture
+	 * non bloccanti e passano le righe di comando complete ad un pool di thread limitato.
+	 */
+	private static void serveNio() throws IOException
+	{
+		ServerSocketChannel serverChannel = ServerSocketChannel.open();
+		serverChannel.bind(new InetSocketAddress(TCPport), acceptBacklog);
+		serverSocket = serverChannel.socket();
+		pool = new ThreadPoolExecutor(
+			handlerThreads, handlerThreads, 0L, TimeUnit.MILLISECONDS,
+			new ArrayBlockingQueue<>(handlerQueueSize));
+
+		NioServer nioServer = new NioServer(
+			serverChannel, reactorThreads, pool, maxSessions,
+			usersMap, hotelsByCityMap, hotelIndex, hotelReviews, responseCache, sameReviewerSameHotelPeriod,
+			timingWheel, sessionIdleTimeout, sessionReadTimeout, compressionThreshold, sessionTokens, muxMaxSessions,
+			rateLimiter, commandScheduler);
+
+		ServerSocketChannel unixChannel = openUnixSocket();
+		if(unixChannel != null)
+			nioServer.acceptLocal(unixChannel);
+
+		// chiusura ordinata del pool di thread e del server socket quando il runtime Java viene terminato
+		Runtime.getRuntime().addShutdownHook(new TerminationHandler(maxDelay, pool, serverSocket));
+		System.out.printf("[SERVER] Pronto (modalità NIO, %d reactor)\n", reactorThreads);
+
+		nioServer.serve();
+	}
+
+	/**
+	 * Crea un executor che esegue ogni task su un nuovo thread virtuale. Il metodo viene cercato per
+	 * reflection, quindi il server compila e funziona anche con Java 17, dove i thread virtuali non ci
+	 * sono.
+	 * @return l'executor, null se la JVM non supporta i thread virtuali
+	 */
+	static ExecutorService newVirtualThreadPool()
+	{
+		try
 		{
-			System.err.println("[SERVER] Errore: " + e.getMessage());
-			e.printStackTrace();
-			System.exit(1);
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		}
+		catch(ReflectiveOperationException e)
+		{
+			return null;
 		}
 	}
 
 	/**
-	 * Legge le città da un file json e le inserisce come chiave in hotelsByCityMap. <p>
+	 * Apre il socket Unix domain 'unixSocketPath', su cui i client sullo stesso host si connettono con
+	 * lo stesso protocollo del socket TCP ma senza passare dallo stack di rete. Il file del socket viene
+	 * rimosso alla terminazione del server.
+	 * @return il server socket channel, null se il socket Unix domain è disattivato
+	 */
+	private static ServerSocketChannel openUnixSocket() throws IOException
+	{
+		if(unixSocketPath.isEmpty())
+			return null;
+
+		// rimuovo il file lasciato da un'esecuzione precedente terminata in modo anomalo
+		Path path = Paths.get(unixSocketPath);
+		Files.deleteIfExists(path);
+
+		ServerSocketChannel unixChannel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+		unixChannel.bind(UnixDomainSocketAddress.of(path), acceptBacklog);
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			try
+			{
+				unixChannel.close();
+				Files.deleteIfExists(path);
+			}
+			catch(IOException e)
+			{ }
+		}));
+		System.out.printf("[SERVER] In ascolto sul socket Unix domain %s\n", path);
+		return unixChannel;
+	}
+
+	/**
+	 * Legge le città da un file json e le inserisce come chiave in hotelsByCityMap e nel catalogo, che
+	 * assegna ad ognuna come id la sua posizione nel file. <p>
 	 * Utilizza il meccanismo Gson Streaming API.
 	 */
-	private static void loadCitiesFromJson() throws Exception
+	static void loadCitiesFromJson() throws Exception
 	{
 		JsonReader reader = new JsonReader(new FileReader(citiesJsonPath));
 		reader.beginArray(); // [
+		catalog = new HotelIndex.Builder();
 
 		// continuo a leggere finché ci sono elementi nell'array
-		while(reader.hasNext()) // inserisco la città come chiave in hotelsByCityMap
-			hotelsByCityMap.put(reader.nextString(), new CopyOnWriteArrayList<>());
+		while(reader.hasNext()) // inserisco la città come chiave in hotelsByCityMap e nel catalogo
+		{
+			String city = reader.nextString();
+			hotelsByCityMap.put(city, new CopyOnWriteArrayList<>());
+			catalog.addCity(city);
+		}
 
 		reader.endArray(); // ]
 		reader.close();
@@ -268,10 +513,11 @@ public class ServerMain
 
 	/**
 	 * Legge gli hotel da un file json. Ogni hotel viene aggiunto alla lista, valore di hotelsByCityMap,
-	 * che ha come chiave la città in cui esso si trova. <p>
+	 * che ha come chiave la città in cui esso si trova, e al catalogo, da cui infine viene costruito
+	 * hotelIndex con gli indici per prefisso dei nomi usati dal comando suggest. <p>
 	 * Utilizza il meccanismo Gson Streaming API.
 	 */
-	private static void loadHotelsFromJson() throws Exception
+	static void loadHotelsFromJson() throws Exception
 	{
 		Gson gson = new Gson();
 		JsonReader reader = new JsonReader(new FileReader(hotelsJsonPath));
@@ -282,26 +528,34 @@ public class ServerMain
 		{
 			// deserializzo ogni hotel
 			Hotel hotel = gson.fromJson(reader, Hotel.class);
+			hotel.encodeServices(); // i nomi dei servizi sono nel ServiceDictionary
 
-			// inserisco l'hotel in hotelsByCityMap
+			// inserisco l'hotel in hotelsByCityMap e nell'indice
 			hotelsByCityMap.computeIfPresent(hotel.getCity(), (k, list) -> {
 				list.add(hotel);
+				catalog.add(hotel);
 				return list;
 			});
 		}
 		reader.endArray(); // ]
+
+		// da qui il catalogo non cambia più
+		hotelIndex = catalog.build(suggestLimit);
+		catalog = null;
 	}
 
 	/**
-	 * Legge le recensioni da un file json. Ogni recensione viene aggiunta alla lista, valore di reviewsMap,
-	 * che ha come chiave 'nomeHotel_città' dell'hotel di cui è stata fatta la recensione. <p>
+	 * Legge le recensioni da un file json. Ogni recensione viene aggiunta alla lista, in hotelReviews,
+	 * dell'hotel di cui è stata fatta la recensione; le recensioni di hotel che non esistono vengono
+	 * scartate. <p>
 	 * Utilizza il meccanismo Gson Streaming API.
 	 */
-	private static void loadReviewsFromJson() throws Exception
+	static void loadReviewsFromJson() throws Exception
 	{
 		Gson gson = new Gson();
 		JsonReader reader = new JsonReader(new FileReader(reviewsJsonPath));
 		reader.beginArray(); // [
+		hotelReviews = new HotelReviews(hotelIndex.hotelIdLimit(), trendingLimit);
 
 		// continuo a leggere finché ci sono elementi nell'array
 		while(reader.hasNext())
@@ -309,14 +563,16 @@ public class ServerMain
 			// deserializzo ogni recensione
 			Review review = gson.fromJson(reader, Review.class);
 
-			// inserisco la recensione in reviewsMap
-			String key = review.getHotelName() + "_" + review.getCity();
-			reviewsMap.compute(key, (k, list) -> {
-				if(list == null)
-					list = new CopyOnWriteArrayList<>();
-				list.add(review);
-				return list;
-			});
+			// inserisco la recensione nella lista del suo hotel
+			Hotel hotel = hotelIndex.get(review.getCity(), review.getHotelName());
+			if(hotel == null)
+			{
+				System.err.printf("[SERVER] Recensione di un hotel inesistente ignorata: %s a %s\n",
+					review.getHotelName(), review.getCity());
+				continue;
+			}
+			review.setHotelId(hotel.getId());
+			hotelReviews.add(review);
 		}
 		reader.endArray(); // ]
 	}
@@ -325,7 +581,7 @@ public class ServerMain
 	 * Legge gli utenti da un file json e li inserisce in usersMap con chiave 'username'. <p>
 	 * Utilizza il meccanismo Gson Streaming API.
 	 */
-	private static void loadUsersFromJson() throws Exception
+	static void loadUsersFromJson() throws Exception
 	{
 		Gson gson = new Gson();
 		JsonReader reader = new JsonReader(new FileReader(usersJsonPath));
@@ -362,12 +618,42 @@ public class ServerMain
 			RMIserviceNameRegUser = prop.getProperty("RMIserviceNameRegUser");
 			RMIserviceNameNotify = prop.getProperty("RMIserviceNameNotify");
 			TCPport = Integer.parseInt(prop.getProperty("TCPport"));
+			unixSocketPath = prop.getProperty("unixSocketPath", "");
 			maxDelay = Integer.parseInt(prop.getProperty("maxDelay"));
 			persistencePeriod = Integer.parseInt(prop.getProperty("persistencePeriod"));
 			rankingPeriod = Integer.parseInt(prop.getProperty("rankingPeriod"));
 			UDPport = Integer.parseInt(prop.getProperty("UDPport"));
 			multicastAddress = prop.getProperty("multicastAddress");
 			sameReviewerSameHotelPeriod = Integer.parseInt(prop.getProperty("sameReviewerSameHotelPeriod"));
+			serverMode = prop.getProperty("serverMode", "thread");
+			reactorThreads = Integer.parseInt(prop.getProperty("reactorThreads", "1"));
+			handlerThreads = Integer.parseInt(prop.getProperty("handlerThreads", "8"));
+			handlerQueueSize = Integer.parseInt(prop.getProperty("handlerQueueSize", "10000"));
+			statsPeriod = Integer.parseInt(prop.getProperty("statsPeriod", "0"));
+			maxSessions = Integer.parseInt(prop.getProperty("maxSessions", "0"));
+			acceptBacklog = Integer.parseInt(prop.getProperty("acceptBacklog", "50"));
+			acceptQueueSize = Integer.parseInt(prop.getProperty("acceptQueueSize", "100"));
+			acceptQueueTimeout = Integer.parseInt(prop.getProperty("acceptQueueTimeout", "5000"));
+			sessionIdleTimeout = Integer.parseInt(prop.getProperty("sessionIdleTimeout", "0"));
+			sessionReadTimeout = Integer.parseInt(prop.getProperty("sessionReadTimeout", "0"));
+			compressionThreshold = Integer.parseInt(prop.getProperty("compressionThreshold", "-1"));
+			sessionTokenSecret = prop.getProperty("sessionTokenSecret", "");
+			sessionTokenTtl = Integer.parseInt(prop.getProperty("sessionTokenTtl", "0"));
+			sessionTableSize = Integer.parseInt(prop.getProperty("sessionTableSize", "10000"));
+			muxMaxSessions = Integer.parseInt(prop.getProperty("muxMaxSessions", "10000"));
+			httpPort = Integer.parseInt(prop.getProperty("httpPort", "0"));
+			suggestLimit = Integer.parseInt(prop.getProperty("suggestLimit", "10"));
+			topHotelsLimit = Integer.parseInt(prop.getProperty("topHotelsLimit", "100"));
+			trendingLimit = Integer.parseInt(prop.getProperty("trendingLimit", "10"));
+			rateLimiter = new RateLimiter(
+				prop.getProperty("rateLimitUserExpensive", ""), prop.getProperty("rateLimitUserCheap", ""),
+				prop.getProperty("rateLimitAddressExpensive", ""), prop.getProperty("rateLimitAddressCheap", ""));
+			if(!rateLimiter.isEnabled())
+				rateLimiter = null;
+			if(Boolean.parseBoolean(prop.getProperty("commandLanes", "false")))
+				commandScheduler = new CommandScheduler(
+					prop.getProperty("laneRead", "8,1000"), prop.getProperty("laneWrite", "2,1000"),
+					prop.getProperty("laneAuth", "2,1000"));
 		}
 	}
 }
\ No newline at end of file
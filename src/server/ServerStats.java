@@ -0,0 +1,130 @@
+package server;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Contatori del server, aggiornati dai thread che gestiscono le connessioni e stampati periodicamente
+ * sullo standard output (vedi {@link #print(ResponseCache)}).
+ */
+public class ServerStats
+{
+	// risposte trovate / non trovate in ResponseCache
+	public static final LongAdder cacheHits = new LongAdder();
+	public static final LongAdder cacheMisses = new LongAdder();
+
+	// numero di ricostruzioni di ResponseCache e durata dell'ultima, in nanosecondi
+	public static final LongAdder cacheRebuilds = new LongAdder();
+	public static volatile long cacheLastRebuildNanos;
+
+	// connessioni ammesse, rifiutate, messe in coda e rifiutate dopo l'attesa in coda (totali)
+	public static final LongAdder sessionsAccepted = new LongAdder();
+	public static final LongAdder sessionsRejected = new LongAdder();
+	public static final LongAdder sessionsQueued = new LongAdder();
+	public static final LongAdder sessionsQueueTimeouts = new LongAdder();
+
+	// sessioni attive e connessioni in coda in questo momento
+	public static final AtomicInteger activeSessions = new AtomicInteger();
+	public static final AtomicInteger queuedSessions = new AtomicInteger();
+
+	// sessioni utente aperte sulle connessioni multiplexate
+	public static final AtomicInteger muxSessions = new AtomicInteger();
+
+	// comandi rifiutati perché oltre il budget dell'utente o dell'indirizzo del client (vedi RateLimiter)
+	public static final LongAdder throttledByUser = new LongAdder();
+	public static final LongAdder throttledByAddress = new LongAdder();
+
+	// richieste al gateway HTTP e risposte 304 (il client aveva già la versione corrente dei dati)
+	public static final LongAdder httpRequests = new LongAdder();
+	public static final LongAdder httpNotModified = new LongAdder();
+
+	// corsia di CommandScheduler -> {comandi eseguiti, rifiutati, attesa in coda e esecuzione totali in nanosecondi, attesa massima}
+	private static final ConcurrentHashMap<String, LongAdder[]> lanes = new ConcurrentHashMap<>();
+	private static final ConcurrentHashMap<String, AtomicLong> lanesMaxQueueNanos = new ConcurrentHashMap<>();
+
+	// comando -> {byte delle risposte prima della compressione, byte inviati}, sulle connessioni con deflate
+	private static final ConcurrentHashMap<String, LongAdder[]> compressionByCommand = new ConcurrentHashMap<>();
+
+	/**
+	 * Aggiorna i contatori di compressione del comando 'command'.
+	 * @param rawBytes byte del contenuto della risposta
+	 * @param sentBytes byte del contenuto effettivamente inviati (compressi o no)
+	 */
+	public static void recordCompression(String command, int rawBytes, int sentBytes)
+	{
+		LongAdder[] counters = compressionByCommand.computeIfAbsent(command,
+			k -> new LongAdder[] {new LongAdder(), new LongAdder()});
+		counters[0].add(rawBytes);
+		counters[1].add(sentBytes);
+	}
+
+	/**
+	 * Aggiorna i contatori della corsia 'lane' dopo l'esecuzione di un comando.
+	 * @param queueNanos tempo di attesa in coda del comando
+	 * @param serviceNanos tempo di esecuzione del comando
+	 */
+	public static void recordLane(String lane, long queueNanos, long serviceNanos)
+	{
+		LongAdder[] counters = laneCounters(lane);
+		counters[0].increment();
+		counters[2].add(queueNanos);
+		counters[3].add(serviceNanos);
+		lanesMaxQueueNanos.get(lane).accumulateAndGet(queueNanos, Math::max);
+	}
+
+	/**
+	 * Conta un comando rifiutato perché la coda della corsia 'lane' è piena.
+	 */
+	public static void recordLaneRejected(String lane)
+	{
+		laneCounters(lane)[1].increment();
+	}
+
+	private static LongAdder[] laneCounters(String lane)
+	{
+		return lanes.computeIfAbsent(lane, k -> {
+			lanesMaxQueueNanos.put(k, new AtomicLong());
+			return new LongAdder[] {new LongAdder(), new LongAdder(), new LongAdder(), new LongAdder()};
+		});
+	}
+
+	/**
+	 * Stampa i contatori sullo standard output.
+	 */
+	public static void print(ResponseCache responseCache)
+	{
+		long hits = cacheHits.sum();
+		long misses = cacheMisses.sum();
+		System.out.printf("[STATS] cache: versione=%d hit=%d miss=%d hit ratio=%.1f%% ricostruzioni=%d ultima=%.2f ms\n",
+			responseCache.getVersion(), hits, misses,
+			hits + misses == 0 ? 0.0 : 100.0 * hits / (hits + misses),
+			cacheRebuilds.sum(), cacheLastRebuildNanos / 1e6);
+		System.out.printf("[STATS] sessioni: attive=%d in coda=%d ammesse=%d rifiutate=%d messe in coda=%d scadute in coda=%d multiplexate=%d\n",
+			activeSessions.get(), queuedSessions.get(), sessionsAccepted.sum(), sessionsRejected.sum(),
+			sessionsQueued.sum(), sessionsQueueTimeouts.sum(), muxSessions.get());
+		System.out.printf("[STATS] comandi limitati: per utente=%d per indirizzo=%d\n",
+			throttledByUser.sum(), throttledByAddress.sum());
+		System.out.printf("[STATS] http: richieste=%d non modificate=%d\n",
+			httpRequests.sum(), httpNotModified.sum());
+		for(Map.Entry<String, LongAdder[]> e : new TreeMap<>(lanes).entrySet())
+		{
+			long executed = e.getValue()[0].sum();
+			System.out.printf("[STATS] corsia %s: eseguiti=%d rifiutati=%d attesa media=%.3f ms attesa massima=%.3f ms esecuzione media=%.3f ms\n",
+				e.getKey(), executed, e.getValue()[1].sum(),
+				executed == 0 ? 0.0 : e.getValue()[2].sum() / 1e6 / executed,
+				lanesMaxQueueNanos.get(e.getKey()).get() / 1e6,
+				executed == 0 ? 0.0 : e.getValue()[3].sum() / 1e6 / executed);
+		}
+		for(Map.Entry<String, LongAdder[]> e : new TreeMap<>(compressionByCommand).entrySet())
+		{
+			long raw = e.getValue()[0].sum();
+			long sent = e.getValue()[1].sum();
+			System.out.printf("[STATS] compressione %s: %d -> %d byte (rapporto %.2f)\n",
+				e.getKey(), raw, sent, sent == 0 ? 0.0 : (double) raw / sent);
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,89 @@
+package server;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+
+import entities.Hotel;
+import entities.ServiceDictionary;
+
+/**
+ * Classe che rappresenta l'indice dei servizi offerti dagli hotel, usato dal comando filterHotels. <p>
+ *
+ * Per ogni città c'è l'array dei suoi hotel in ordine di classifica e, per ogni servizio del
+ * {@link ServiceDictionary}, un BitSet con le posizioni in classifica degli hotel che lo offrono. Gli
+ * hotel che offrono tutti i servizi richiesti sono l'AND dei BitSet dei servizi, calcolato a parole di
+ * 64 bit, e scorrendo i bit a 1 si ottengono già in ordine di rate decrescente. <p>
+ *
+ * L'indice viene ricostruito da {@link #rebuild} dopo ogni ricalcolo della classifica e pubblicato con
+ * un riferimento volatile, quindi le ricerche non usano lock.
+ */
+public class ServiceIndex
+{
+	// id della città -> hotel e BitSet dei servizi della città, all'ultimo ricalcolo della classifica
+	private volatile CityServices[] cities = new CityServices[0];
+
+	private static class CityServices
+	{
+		final Hotel[] ranked;
+		final BitSet[] postings;
+
+		CityServices(Hotel[] ranked, int servicesCount)
+		{
+			this.ranked = ranked;
+			postings = new BitSet[servicesCount];
+			for(int id = 0; id < servicesCount; id++)
+				postings[id] = new BitSet(ranked.length);
+			for(int position = 0; position < ranked.length; position++)
+			{
+				short[] serviceIds = ranked[position].getServiceIds();
+				if(serviceIds != null)
+					for(short id : serviceIds)
+						postings[id].set(position);
+			}
+		}
+	}
+
+	/**
+	 * Ricostruisce l'indice dalle liste di hotel, già ordinate per rate decrescente.
+	 */
+	public void rebuild(HotelIndex hotelIndex, Map<String, ? extends List<Hotel>> hotelsByCityMap)
+	{
+		CityServices[] newCities = new CityServices[hotelIndex.cityCount()];
+		int servicesCount = ServiceDictionary.size();
+		for(int cityId = 0; cityId < newCities.length; cityId++)
+		{
+			List<Hotel> hotels = hotelsByCityMap.get(hotelIndex.cityName(cityId));
+			Hotel[] ranked = hotels == null ? new Hotel[0] : hotels.toArray(new Hotel[0]);
+			newCities[cityId] = new CityServices(ranked, servicesCount);
+		}
+		cities = newCities;
+	}
+
+	/**
+	 * @param serviceIds id dei servizi richiesti (vedi {@link ServiceDictionary#find})
+	 * @return gli hotel della città con id 'cityId' che offrono tutti i servizi richiesti, in ordine di
+	 * classifica
+	 */
+	public List<Hotel> filter(int cityId, int[] serviceIds)
+	{
+		List<Hotel> result = new ArrayList<>();
+		CityServices[] current = cities;
+		if(cityId < 0 || cityId >= current.length)
+			return result;
+		CityServices city = current[cityId];
+
+		BitSet matching = new BitSet(city.ranked.length);
+		matching.set(0, city.ranked.length);
+		for(int id : serviceIds)
+		{
+			if(id < 0 || id >= city.postings.length)
+				return result;
+			matching.and(city.postings[id]);
+		}
+		for(int position = matching.nextSetBit(0); position >= 0; position = matching.nextSetBit(position + 1))
+			result.add(city.ranked[position]);
+		return result;
+	}
+}
\ No newline at end of file
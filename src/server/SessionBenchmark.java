@@ -0,0 +1,187 @@
+package server;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Programma di misura che confronta le modalità 'thread' e 'virtual' del server. <p>
+ *
+ * Carica i dati dai file json, avvia in-process il ciclo di accept con un Worker per connessione e
+ * apre 'sessions' connessioni contemporanee. Con tutte le sessioni aperte misura la memoria (heap e
+ * RSS del processo) e il numero di thread della piattaforma, poi misura il throughput facendo inviare
+ * ad ogni sessione 'requests' comandi searchHotel. <p>
+ *
+ * Uso: {@code java server.SessionBenchmark <thread|virtual> [sessions] [requests]}
+ */
+public class SessionBenchmark
+{
+	private static final String REQUEST = "searchHotel Hotel Roma 1 Roma";
+	private static final int CLIENT_THREADS = 16;
+
+	public static void main(String[] args) throws Exception
+	{
+		String mode = args.length > 0 ? args[0] : "virtual";
+		int sessions = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+		int requests = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+		// carico le strutture dati come fa il server
+		ServerMain.usersMap = new ConcurrentHashMap<>();
+		ServerMain.loadCitiesFromJson();
+		ServerMain.loadHotelsFromJson();
+		ServerMain.loadReviewsFromJson();
+		ServerMain.loadUsersFromJson();
+		ServerMain.responseCache.rebuild(ServerMain.hotelsByCityMap);
+
+		ExecutorService pool = mode.equals("virtual") ? ServerMain.newVirtualThreadPool() : Executors.newCachedThreadPool();
+		if(pool == null)
+		{
+			System.err.println("Thread virtuali non disponibili (richiedono Java 21)");
+			return ;
+		}
+		ServerSocket serverSocket = new ServerSocket(0, 4096, InetAddress.getLoopbackAddress());
+		Thread acceptor = new Thread(() -> {
+			while(true)
+			{
+				try
+				{
+					Socket socket = serverSocket.accept();
+					pool.execute(new Worker(
+						socket, ServerMain.usersMap, ServerMain.hotelsByCityMap, ServerMain.hotelIndex, ServerMain.hotelReviews,
+						ServerMain.responseCache, 0));
+				}
+				catch(IOException e)
+				{
+					break;
+				}
+			}
+		});
+		acceptor.setDaemon(true);
+		acceptor.start();
+
+		long heapBefore = usedHeap();
+		long rssBefore = rss();
+		int threadsBefore = ManagementFactory.getThreadMXBean().getThreadCount();
+
+		// apro tutte le sessioni e faccio una prima richiesta, così ogni Worker è attivo
+		List<Session> all = new ArrayList<>(sessions);
+		for(int i = 0; i < sessions; i++)
+		{
+			Session s = new Session(serverSocket.getLocalPort());
+			s.request();
+			all.add(s);
+		}
+
+		long heapAfter = usedHeap();
+		long rssAfter = rss();
+		int threadsAfter = ManagementFactory.getThreadMXBean().getThreadCount();
+
+		// throughput: CLIENT_THREADS thread client si dividono le sessioni aperte
+		long start = System.nanoTime();
+		ExecutorService clients = Executors.newFixedThreadPool(CLIENT_THREADS);
+		for(int t = 0; t < CLIENT_THREADS; t++)
+		{
+			final int first = t;
+			clients.execute(() -> {
+				try
+				{
+					for(int r = 0; r < requests; r++)
+						for(int i = first; i < all.size(); i += CLIENT_THREADS)
+							all.get(i).request();
+				}
+				catch(IOException e)
+				{
+					e.printStackTrace();
+				}
+			});
+		}
+		clients.shutdown();
+		clients.awaitTermination(1, TimeUnit.HOURS);
+		double seconds = (System.nanoTime() - start) / 1e9;
+
+		double per10k = 10000.0 / sessions;
+		System.out.printf("mode=%s sessions=%d requests=%d%n", mode, sessions, (long) sessions * requests);
+		System.out.printf("  throughput      %.0f req/s%n", sessions * requests / seconds);
+		System.out.printf("  heap per 10k    %.1f MB%n", (heapAfter - heapBefore) * per10k / (1 << 20));
+		System.out.printf("  rss per 10k     %.1f MB%n", (rssAfter - rssBefore) * per10k / (1 << 20));
+		System.out.printf("  platform thread +%d%n", threadsAfter - threadsBefore);
+
+		for(Session s : all)
+			s.close();
+		serverSocket.close();
+		pool.shutdownNow();
+		System.exit(0);
+	}
+
+	/**
+	 * Sessione client: una connessione TCP e i relativi stream.
+	 */
+	private static class Session
+	{
+		final Socket socket;
+		final BufferedReader in;
+		final PrintWriter out;
+
+		Session(int port) throws IOException
+		{
+			socket = new Socket(InetAddress.getLoopbackAddress(), port);
+			in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+			out = new PrintWriter(socket.getOutputStream(), true);
+		}
+
+		void request() throws IOException
+		{
+			out.println(REQUEST);
+			if(in.readLine() == null)
+				throw new SocketException("connessione chiusa dal server");
+		}
+
+		void close() throws IOException
+		{
+			out.println("exit");
+			in.readLine();
+			socket.close();
+		}
+	}
+
+	private static long usedHeap() throws InterruptedException
+	{
+		for(int i = 0; i < 3; i++)
+		{
+			System.gc();
+			Thread.sleep(200);
+		}
+		Runtime rt = Runtime.getRuntime();
+		return rt.totalMemory() - rt.freeMemory();
+	}
+
+	/**
+	 * Resident set size del processo, letta da /proc (solo Linux, altrimenti 0).
+	 */
+	private static long rss()
+	{
+		try
+		{
+			for(String line : Files.readAllLines(Paths.get("/proc/self/status")))
+				if(line.startsWith("VmRSS:"))
+					return Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024;
+		}
+		catch(IOException e)
+		{ }
+		return 0;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,136 @@
+package server;
+
+/**
+ * Classe che rappresenta le scadenze di una sessione TCP, controllate con il {@link TimingWheel}
+ * condiviso dal server. <p>
+ *
+ * 1) Scadenza di inattività: la sessione scade se il client non invia un comando completo per
+ *    'idleTimeout' millisecondi. <p>
+ * 2) Scadenza di lettura: la sessione scade se il client ha iniziato ad inviare un comando e non lo
+ *    completa entro 'readTimeout' millisecondi. <p>
+ *
+ * Ogni sessione ha un solo timeout registrato sulla ruota: quando scatta, se nel frattempo c'è stata
+ * attività, viene registrato di nuovo per la scadenza più vicina, quindi ricevere un comando non
+ * richiede di cancellare e reinserire il timeout. Un valore 0 disattiva la scadenza corrispondente.
+ */
+public class SessionDeadlines
+{
+	private final TimingWheel wheel;
+	private final long idleTimeout;
+	private final long readTimeout;
+
+	private Runnable onExpire;
+
+	// istante dell'ultimo comando completo ricevuto
+	private volatile long lastRequestAt;
+
+	// istante in cui sono arrivati i primi byte del comando in corso di ricezione, 0 se non ce n'è uno
+	private volatile long requestStartAt = 0;
+
+	private volatile TimingWheel.Timeout timeout;
+	private volatile boolean stopped = false;
+
+	/**
+	 * @param wheel ruota su cui registrare i timeout, null se le scadenze sono disattivate
+	 * @param idleTimeout scadenza di inattività, in secondi
+	 * @param readTimeout scadenza di lettura, in secondi
+	 */
+	public SessionDeadlines(TimingWheel wheel, int idleTimeout, int readTimeout)
+	{
+		this.wheel = wheel;
+		this.idleTimeout = idleTimeout * 1000L;
+		this.readTimeout = readTimeout * 1000L;
+	}
+
+	/**
+	 * Avvia il controllo delle scadenze.
+	 * @param onExpire task eseguito (dal thread della ruota) quando la sessione scade
+	 */
+	public void start(Runnable onExpire)
+	{
+		if(wheel == null || (idleTimeout <= 0 && readTimeout <= 0))
+			return ;
+		this.onExpire = onExpire;
+		stopped = false;
+		lastRequestAt = System.currentTimeMillis();
+		schedule(lastRequestAt);
+	}
+
+	/**
+	 * Segnala che sono arrivati dei byte di un comando non ancora completo.
+	 */
+	public void bytesReceived()
+	{
+		if(requestStartAt == 0)
+			requestStartAt = System.currentTimeMillis();
+	}
+
+	/**
+	 * Segnala che è stato ricevuto un comando completo.
+	 */
+	public void requestCompleted()
+	{
+		lastRequestAt = System.currentTimeMillis();
+		requestStartAt = 0;
+	}
+
+	/**
+	 * Esegue 'task' sul thread della ruota dopo 'delayMillis' millisecondi, anche se il controllo delle
+	 * scadenze è terminato (usato dopo la scadenza della sessione).
+	 */
+	public void runLater(long delayMillis, Runnable task)
+	{
+		if(wheel != null)
+			wheel.schedule(delayMillis, task);
+	}
+
+	/**
+	 * Termina il controllo delle scadenze (sessione chiusa).
+	 */
+	public void stop()
+	{
+		stopped = true;
+		TimingWheel.Timeout t = timeout;
+		if(t != null)
+			t.cancel();
+	}
+
+	/**
+	 * Eseguito dal thread della ruota: se una scadenza è superata la sessione scade, altrimenti
+	 * registro il timeout per la scadenza più vicina.
+	 */
+	private void check()
+	{
+		if(stopped)
+			return ;
+		long now = System.currentTimeMillis();
+		if(now >= nextDeadline())
+		{
+			stopped = true;
+			onExpire.run();
+			return ;
+		}
+		schedule(now);
+	}
+
+	private void schedule(long now)
+	{
+		/* Un comando può iniziare ad arrivare in qualsiasi momento, quindi con la scadenza di lettura
+		 * attiva ricontrollo almeno ogni 'readTimeout' millisecondi. */
+		long delay = nextDeadline() - now;
+		if(readTimeout > 0)
+			delay = Math.min(delay, readTimeout);
+		timeout = wheel.schedule(delay, this::check);
+	}
+
+	private long nextDeadline()
+	{
+		long deadline = Long.MAX_VALUE;
+		if(idleTimeout > 0)
+			deadline = lastRequestAt + idleTimeout;
+		long start = requestStartAt;
+		if(readTimeout > 0 && start != 0)
+			deadline = Math.min(deadline, start + readTimeout);
+		return deadline;
+	}
+}
\ No newline at end of file
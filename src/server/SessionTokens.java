@@ -0,0 +1,213 @@
+package server;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Classe che rappresenta i token di sessione, che permettono ad un client che si riconnette di
+ * ripristinare il login e le città seguite con un solo comando ('resume <token>'), senza rifare il
+ * login con la password. <p>
+ *
+ * Un token è [dati].[firma], entrambi in Base64 URL: i dati sono 'username:scadenza:id' e la firma è
+ * l'HMAC-SHA256 dei dati con il segreto del server, quindi un token contraffatto o scaduto viene
+ * rifiutato senza accedere alla tabella. <p>
+ *
+ * Lo stato delle sessioni (username e città seguite) è in una tabella limitata a 'maxSessions'
+ * elementi: quando è piena viene eliminata la sessione usata meno di recente. La tabella è protetta da
+ * un ReentrantLock (un lock intrinseco bloccherebbe il carrier dei thread virtuali).
+ */
+public class SessionTokens
+{
+	private static final String HMAC_ALGORITHM = "HmacSHA256";
+
+	/**
+	 * Stato di una sessione ripristinabile.
+	 */
+	public static class Session
+	{
+		private final String username;
+		private volatile String followedCities = "";
+
+		private Session(String username)
+		{
+			this.username = username;
+		}
+
+		public String getUsername() {
+			return username;
+		}
+
+		public String getFollowedCities() {
+			return followedCities;
+		}
+	}
+
+	private final SecretKeySpec key;
+	private final long ttlMillis;
+	private final SecureRandom random = new SecureRandom();
+
+	// id del token -> stato della sessione, in ordine di accesso (LRU)
+	private final LinkedHashMap<String, Session> sessions;
+	private final ReentrantLock lock = new ReentrantLock();
+
+	/**
+	 * @param secret segreto con cui firmare i token; se è vuoto ne viene generato uno casuale e i token
+	 * non sono validi dopo un riavvio del server
+	 * @param ttl durata di un token, in secondi
+	 * @param maxSessions numero massimo di sessioni nella tabella
+	 */
+	public SessionTokens(String secret, int ttl, int maxSessions)
+	{
+		byte[] secretBytes;
+		if(secret == null || secret.isEmpty())
+		{
+			secretBytes = new byte[32];
+			random.nextBytes(secretBytes);
+		}
+		else
+			secretBytes = secret.getBytes(StandardCharsets.UTF_8);
+		this.key = new SecretKeySpec(secretBytes, HMAC_ALGORITHM);
+		this.ttlMillis = ttl * 1000L;
+		this.sessions = new LinkedHashMap<>(16, 0.75f, true) {
+			protected boolean removeEldestEntry(Map.Entry<String, Session> eldest)
+			{
+				return size() > maxSessions;
+			}
+		};
+	}
+
+	/**
+	 * Crea una nuova sessione per l'utente che ha appena effettuato il login.
+	 * @return il token della sessione
+	 */
+	public String issue(String username)
+	{
+		byte[] idBytes = new byte[16];
+		random.nextBytes(idBytes);
+		String id = encode(idBytes);
+		String data = username + ":" + (System.currentTimeMillis() + ttlMillis) + ":" + id;
+
+		lock.lock();
+		try
+		{
+			sessions.put(id, new Session(username));
+		}
+		finally
+		{
+			lock.unlock();
+		}
+		return encode(data.getBytes(StandardCharsets.UTF_8)) + "." + encode(sign(data));
+	}
+
+	/**
+	 * Verifica il token e restituisce lo stato della sessione.
+	 * @return la sessione, null se il token non è valido, è scaduto o la sessione è stata eliminata
+	 */
+	public Session resume(String token)
+	{
+		String id = verify(token);
+		if(id == null)
+			return null;
+		lock.lock();
+		try
+		{
+			return sessions.get(id);
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Salva le città seguite nella sessione del token.
+	 * @param followedCities città separate da uno spazio
+	 */
+	public void setFollowedCities(String token, String followedCities)
+	{
+		Session session = resume(token);
+		if(session != null)
+			session.followedCities = followedCities;
+	}
+
+	/**
+	 * Elimina la sessione del token (logout o exit).
+	 */
+	public void revoke(String token)
+	{
+		String id = verify(token);
+		if(id == null)
+			return ;
+		lock.lock();
+		try
+		{
+			sessions.remove(id);
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Verifica la firma e la scadenza del token.
+	 * @return l'id della sessione, null se il token non è valido o è scaduto
+	 */
+	private String verify(String token)
+	{
+		int dot = token.indexOf('.');
+		if(dot < 0)
+			return null;
+		String data;
+		byte[] signature;
+		try
+		{
+			data = new String(Base64.getUrlDecoder().decode(token.substring(0, dot)), StandardCharsets.UTF_8);
+			signature = Base64.getUrlDecoder().decode(token.substring(dot + 1));
+		}
+		catch(IllegalArgumentException e)
+		{
+			return null;
+		}
+		if(!MessageDigest.isEqual(signature, sign(data)))
+			return null;
+
+		// data = username:scadenza:id, l'username può contenere ':'
+		int idSeparator = data.lastIndexOf(':');
+		int expirySeparator = data.lastIndexOf(':', idSeparator - 1);
+		if(expirySeparator < 0)
+			return null;
+		long expiresAt = Long.parseLong(data.substring(expirySeparator + 1, idSeparator));
+		if(System.currentTimeMillis() > expiresAt)
+			return null;
+		return data.substring(idSeparator + 1);
+	}
+
+	private byte[] sign(String data)
+	{
+		try
+		{
+			Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+			mac.init(key);
+			return mac.doFinal(data.getBytes(StandardCharsets.UTF_8));
+		}
+		catch(GeneralSecurityException e)
+		{	// HmacSHA256 è sempre disponibile
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String encode(byte[] bytes)
+	{
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+	}
+}
\ No newline at end of file
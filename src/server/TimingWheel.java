@@ -0,0 +1,147 @@
+package server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Classe che rappresenta un timer a ruota (hashed timing wheel), condiviso da tutte le sessioni. <p>
+ *
+ * Il tempo è diviso in tick di 'tickMillis' millisecondi e la ruota ha 'wheelSize' bucket: un timeout
+ * che scade al tick t viene messo nel bucket (t mod wheelSize) con il numero di giri completi che
+ * mancano alla scadenza. Ad ogni tick il thread della ruota esamina un solo bucket, quindi inserire e
+ * cancellare un timeout costa O(1) e migliaia di sessioni non richiedono un timer ciascuna. <p>
+ *
+ * I task scaduti sono eseguiti dal thread della ruota e devono essere brevi (e.g. chiudere un socket).
+ */
+public class TimingWheel extends Thread
+{
+	/**
+	 * Timeout registrato sulla ruota.
+	 */
+	public static class Timeout
+	{
+		private final long deadlineTick;
+		private final Runnable task;
+		private long rounds; // giri completi della ruota che mancano alla scadenza
+		private volatile boolean cancelled = false;
+
+		private Timeout(long deadlineTick, Runnable task)
+		{
+			this.deadlineTick = deadlineTick;
+			this.task = task;
+		}
+
+		/**
+		 * Cancella il timeout, il task non verrà eseguito.
+		 */
+		public void cancel()
+		{
+			cancelled = true;
+		}
+	}
+
+	private final long tickMillis;
+	private final List<List<Timeout>> wheel;
+	private final long startTime;
+
+	// timeout registrati dagli altri thread, inseriti nei bucket dal thread della ruota ad ogni tick
+	private final ConcurrentLinkedQueue<Timeout> pendingTimeouts = new ConcurrentLinkedQueue<>();
+
+	// tick corrente, usato solo dal thread della ruota
+	private long tick = 0;
+
+	public TimingWheel(long tickMillis, int wheelSize)
+	{
+		super("timing-wheel");
+		setDaemon(true);
+		this.tickMillis = tickMillis;
+		this.wheel = new ArrayList<>(wheelSize);
+		for(int i = 0; i < wheelSize; i++)
+			wheel.add(new ArrayList<>());
+		this.startTime = System.nanoTime();
+	}
+
+	/**
+	 * Esegue 'task' tra 'delayMillis' millisecondi (arrotondati al tick successivo). Può essere
+	 * invocato da qualsiasi thread.
+	 */
+	public Timeout schedule(long delayMillis, Runnable task)
+	{
+		long elapsedMillis = (System.nanoTime() - startTime) / 1_000_000;
+		long deadlineTick = (elapsedMillis + Math.max(0, delayMillis) + tickMillis - 1) / tickMillis;
+		Timeout timeout = new Timeout(deadlineTick, task);
+		pendingTimeouts.add(timeout);
+		return timeout;
+	}
+
+	public void run()
+	{
+		while(true)
+		{
+			// attendo l'inizio del prossimo tick
+			long sleepMillis = (tick + 1) * tickMillis - (System.nanoTime() - startTime) / 1_000_000;
+			if(sleepMillis > 0)
+			{
+				try
+				{
+					Thread.sleep(sleepMillis);
+				}
+				catch(InterruptedException e)
+				{
+					return ;
+				}
+			}
+			tick++;
+
+			transferPendingTimeouts();
+			expireTimeouts(wheel.get((int) (tick % wheel.size())));
+		}
+	}
+
+	/**
+	 * Inserisce nei bucket i timeout registrati dall'ultimo tick.
+	 */
+	private void transferPendingTimeouts()
+	{
+		Timeout timeout;
+		while((timeout = pendingTimeouts.poll()) != null)
+		{
+			if(timeout.cancelled)
+				continue;
+			long deadlineTick = Math.max(timeout.deadlineTick, tick); // già scaduto: lo eseguo in questo tick
+			timeout.rounds = (deadlineTick - tick) / wheel.size();
+			wheel.get((int) (deadlineTick % wheel.size())).add(timeout);
+		}
+	}
+
+	/**
+	 * Esegue i task dei timeout scaduti nel bucket e rimuove quelli scaduti o cancellati.
+	 */
+	private void expireTimeouts(List<Timeout> bucket)
+	{
+		int kept = 0;
+		for(int i = 0; i < bucket.size(); i++)
+		{
+			Timeout timeout = bucket.get(i);
+			if(timeout.cancelled)
+				continue;
+			if(timeout.rounds > 0)
+			{
+				timeout.rounds--;
+				bucket.set(kept++, timeout);
+				continue;
+			}
+			try
+			{
+				timeout.task.run();
+			}
+			catch(Exception e)
+			{
+				System.err.printf("[TIMING-WHEEL] Errore: %s\n", e.getMessage());
+				e.printStackTrace();
+			}
+		}
+		bucket.subList(kept, bucket.size()).clear();
+	}
+}
\ No newline at end of file
@@ -0,0 +1,317 @@
+package server;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import entities.Hotel;
+
+/**
+ * Classe che rappresenta i contatori delle recensioni recenti di ogni hotel, usati dal comando
+ * trending. <p>
+ *
+ * Ogni hotel recensito ha due buffer circolari, allocati alla prima recensione: uno di 60 bucket di un
+ * minuto (per l'ultima ora) e uno di 168 bucket di un'ora (per le ultime 24 ore e gli ultimi 7 giorni).
+ * Ogni bucket contiene il numero di recensioni e la somma dei loro punteggi sintetici, con il minuto o
+ * l'ora a cui si riferisce: un bucket di un periodo precedente viene azzerato quando viene riusato,
+ * quindi registrare una recensione costa O(1) e non serve scorrere le recensioni per togliere quelle
+ * vecchie. <p>
+ *
+ * Ad ogni ricalcolo della classifica {@link #rebuildTop} calcola, dai soli contatori, i primi
+ * 'topLimit' hotel di ogni finestra ({@link Window}) per numero di recensioni e per aumento del
+ * punteggio medio (media della finestra meno media di tutte le recensioni dell'hotel), di tutte le
+ * città e di ogni città. Ogni classifica è un heap di al più 'topLimit' hotel riempito mentre scorre i
+ * contatori, quindi il ricalcolo non copia né ordina tutti gli hotel attivi. Il comando trending legge
+ * solo queste classifiche.
+ */
+public class TrendingCounters
+{
+	private static final long MINUTE = 60 * 1000L;
+	private static final long HOUR = 60 * MINUTE;
+	private static final int MINUTES = 60;
+	private static final int HOURS = 7 * 24;
+
+	// numero di lock per gli hotel (l'hotel con id 'id' usa locks[id % LOCKS])
+	private static final int LOCKS = 64;
+
+	// ordine delle classifiche per criterio, dal primo all'ultimo hotel (a parità, l'id più piccolo)
+	private static final Comparator<Entry> BY_REVIEWS =
+		Comparator.comparingInt((Entry e) -> e.reviews).reversed()
+		.thenComparing(Comparator.comparingDouble((Entry e) -> e.rateIncrease).reversed())
+		.thenComparingInt(e -> e.hotel.getId());
+	private static final Comparator<Entry> BY_RATE =
+		Comparator.comparingDouble((Entry e) -> e.rateIncrease).reversed()
+		.thenComparing(Comparator.comparingInt((Entry e) -> e.reviews).reversed())
+		.thenComparingInt(e -> e.hotel.getId());
+
+	/**
+	 * Finestre temporali del comando trending.
+	 */
+	public enum Window
+	{
+		HOUR("1h"), DAY("24h"), WEEK("7d");
+
+		public final String label;
+
+		Window(String label)
+		{
+			this.label = label;
+		}
+
+		/**
+		 * @return la finestra con etichetta 'label' (1h, 24h, 7d), null se non esiste
+		 */
+		public static Window parse(String label)
+		{
+			for(Window window : values())
+				if(window.label.equalsIgnoreCase(label))
+					return window;
+			return null;
+		}
+	}
+
+	/**
+	 * Criteri di ordinamento del comando trending.
+	 */
+	public enum Metric
+	{
+		REVIEWS, RATE
+	}
+
+	/**
+	 * Hotel di una classifica di tendenza, con i valori della finestra.
+	 */
+	public static class Entry
+	{
+		public final Hotel hotel;
+		public final int reviews; // recensioni nella finestra
+		public final double avgRate; // punteggio sintetico medio delle recensioni nella finestra
+		public final double rateIncrease; // avgRate meno il punteggio medio di tutte le recensioni
+
+		Entry(Hotel hotel, int reviews, double avgRate, double rateIncrease)
+		{
+			this.hotel = hotel;
+			this.reviews = reviews;
+			this.avgRate = avgRate;
+			this.rateIncrease = rateIncrease;
+		}
+	}
+
+	/**
+	 * Classifiche di tendenza calcolate da {@link #rebuildTop}, per finestra e criterio: [finestra]
+	 * [criterio] -> [id della città + 1, 0 per tutte le città] -> hotel.
+	 */
+	private static class Top
+	{
+		final List<Entry>[][][] entries;
+
+		@SuppressWarnings({"unchecked", "rawtypes"})
+		Top(int cities)
+		{
+			entries = new List[Window.values().length][Metric.values().length][cities + 1];
+			for(List<Entry>[][] byMetric : entries)
+				for(List<Entry>[] byCity : byMetric)
+					for(int c = 0; c < byCity.length; c++)
+						byCity[c] = new ArrayList<>();
+		}
+	}
+
+	/**
+	 * Contatori di un hotel. Gli accessi avvengono con il lock dell'hotel.
+	 */
+	private static class HotelCounters
+	{
+		// bucket di un minuto: minuto (dall'epoch) a cui si riferiscono, recensioni e somma dei punteggi
+		final int[] minuteOf = new int[MINUTES];
+		final int[] minuteReviews = new int[MINUTES];
+		final int[] minuteRateSum = new int[MINUTES];
+
+		// bucket di un'ora: ora (dall'epoch) a cui si riferiscono, recensioni e somma dei punteggi
+		final int[] hourOf = new int[HOURS];
+		final int[] hourReviews = new int[HOURS];
+		final int[] hourRateSum = new int[HOURS];
+
+		// totali di tutte le recensioni dell'hotel
+		int totalReviews;
+		long totalRateSum;
+	}
+
+	private final int topLimit;
+	private final Object[] locks = new Object[LOCKS];
+
+	// id dell'hotel -> contatori, null se l'hotel non è mai stato recensito
+	private final HotelCounters[] counters;
+
+	private volatile Top top = new Top(0);
+
+	/**
+	 * @param hotelIdLimit limite superiore agli id degli hotel
+	 * @param topLimit numero di hotel di ogni classifica di tendenza
+	 */
+	public TrendingCounters(int hotelIdLimit, int topLimit)
+	{
+		this.topLimit = topLimit;
+		for(int i = 0; i < LOCKS; i++)
+			locks[i] = new Object();
+		counters = new HotelCounters[hotelIdLimit];
+	}
+
+	/**
+	 * Registra una recensione dell'hotel con id 'hotelId', scritta all'istante 'millis' (vedi
+	 * {@link HotelReviews#epochMillis}), con punteggio sintetico 'rate'.
+	 */
+	public void record(int hotelId, long millis, int rate)
+	{
+		int minute = (int) (millis / MINUTE);
+		int hour = (int) (millis / HOUR);
+		int m = Math.floorMod(minute, MINUTES);
+		int h = Math.floorMod(hour, HOURS);
+		synchronized(locks[hotelId % LOCKS])
+		{
+			HotelCounters c = counters[hotelId];
+			if(c == null)
+				c = counters[hotelId] = new HotelCounters();
+
+			if(c.minuteReviews[m] == 0 || c.minuteOf[m] != minute)
+			{	// il bucket è vuoto o contiene un minuto diverso: lo riuso
+				c.minuteOf[m] = minute;
+				c.minuteReviews[m] = 0;
+				c.minuteRateSum[m] = 0;
+			}
+			c.minuteReviews[m]++;
+			c.minuteRateSum[m] += rate;
+
+			if(c.hourReviews[h] == 0 || c.hourOf[h] != hour)
+			{
+				c.hourOf[h] = hour;
+				c.hourReviews[h] = 0;
+				c.hourRateSum[h] = 0;
+			}
+			c.hourReviews[h]++;
+			c.hourRateSum[h] += rate;
+
+			c.totalReviews++;
+			c.totalRateSum += rate;
+		}
+	}
+
+	/**
+	 * Ricalcola le classifiche di tendenza all'istante 'nowMillis', scorrendo i contatori degli hotel.
+	 */
+	public void rebuildTop(HotelIndex hotelIndex, long nowMillis)
+	{
+		int nowMinute = (int) (nowMillis / MINUTE);
+		int nowHour = (int) (nowMillis / HOUR);
+		Window[] windows = Window.values();
+		Metric[] metrics = Metric.values();
+
+		// heap dei 'topLimit' hotel migliori di ogni finestra, criterio e città (0 per tutte le città,
+		// creato al primo hotel), con in cima il peggiore
+		@SuppressWarnings({"unchecked", "rawtypes"})
+		PriorityQueue<Entry>[][][] best =
+			new PriorityQueue[windows.length][metrics.length][hotelIndex.cityCount() + 1];
+
+		for(int id = 0; id < counters.length; id++)
+		{
+			Hotel hotel = hotelIndex.get(id);
+			if(hotel == null)
+				continue;
+			int[] reviews = new int[windows.length];
+			int[] rateSum = new int[windows.length];
+			int total;
+			long totalSum;
+			synchronized(locks[id % LOCKS])
+			{
+				HotelCounters c = counters[id];
+				if(c == null)
+					continue;
+				total = c.totalReviews;
+				totalSum = c.totalRateSum;
+				for(int m = 0; m < MINUTES; m++)
+				{
+					int age = nowMinute - c.minuteOf[m];
+					if(c.minuteReviews[m] > 0 && age >= 0 && age < MINUTES)
+					{
+						reviews[Window.HOUR.ordinal()] += c.minuteReviews[m];
+						rateSum[Window.HOUR.ordinal()] += c.minuteRateSum[m];
+					}
+				}
+				for(int h = 0; h < HOURS; h++)
+				{
+					int age = nowHour - c.hourOf[h];
+					if(c.hourReviews[h] == 0 || age < 0 || age >= HOURS)
+						continue;
+					if(age < 24)
+					{
+						reviews[Window.DAY.ordinal()] += c.hourReviews[h];
+						rateSum[Window.DAY.ordinal()] += c.hourRateSum[h];
+					}
+					reviews[Window.WEEK.ordinal()] += c.hourReviews[h];
+					rateSum[Window.WEEK.ordinal()] += c.hourRateSum[h];
+				}
+			}
+			double totalAvg = (double) totalSum / total;
+			int city = hotelIndex.cityId(hotel.getCity()) + 1;
+			for(int w = 0; w < windows.length; w++)
+				if(reviews[w] > 0)
+				{
+					double avg = (double) rateSum[w] / reviews[w];
+					Entry entry = new Entry(hotel, reviews[w], avg, avg - totalAvg);
+					for(Metric metric : metrics)
+					{
+						PriorityQueue<Entry>[] byCity = best[w][metric.ordinal()];
+						offer(byCity, 0, entry, order(metric));
+						if(city > 0)
+							offer(byCity, city, entry, order(metric));
+					}
+				}
+		}
+
+		// ordino ogni classifica, di al più 'topLimit' hotel
+		Top newTop = new Top(hotelIndex.cityCount());
+		for(int w = 0; w < windows.length; w++)
+			for(Metric metric : metrics)
+				for(int c = 0; c < best[w][metric.ordinal()].length; c++)
+				{
+					PriorityQueue<Entry> heap = best[w][metric.ordinal()][c];
+					if(heap == null)
+						continue;
+					List<Entry> entries = newTop.entries[w][metric.ordinal()][c];
+					entries.addAll(heap);
+					entries.sort(order(metric));
+				}
+		top = newTop;
+	}
+
+	/**
+	 * Aggiunge 'entry' all'heap della città 'city' se è tra i primi 'topLimit' hotel per 'order'.
+	 */
+	private void offer(PriorityQueue<Entry>[] byCity, int city, Entry entry, Comparator<Entry> order)
+	{
+		if(byCity[city] == null)
+			byCity[city] = new PriorityQueue<>(topLimit + 1, order.reversed());
+		PriorityQueue<Entry> heap = byCity[city];
+		heap.add(entry);
+		if(heap.size() > topLimit)
+			heap.poll();
+	}
+
+	/**
+	 * @return l'ordine delle classifiche per il criterio 'metric'
+	 */
+	private static Comparator<Entry> order(Metric metric)
+	{
+		return metric == Metric.REVIEWS ? BY_REVIEWS : BY_RATE;
+	}
+
+	/**
+	 * @param cityId id della città, -1 per tutte le città
+	 * @return i primi hotel della finestra 'window' per il criterio 'metric', all'ultimo ricalcolo
+	 */
+	public List<Entry> getTop(int cityId, Window window, Metric metric)
+	{
+		List<Entry>[] byCity = top.entries[window.ordinal()][metric.ordinal()];
+		return cityId + 1 < byCity.length ? byCity[cityId + 1] : List.of();
+	}
+}
\ No newline at end of file
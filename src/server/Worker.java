@@ -1,22 +1,35 @@
 package server;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
 import java.net.Socket;
 import java.security.NoSuchAlgorithmException;
-import java.time.Duration;
 import java.time.LocalDateTime;
-import java.util.Comparator;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.ListIterator;
 import java.util.Locale;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.zip.Deflater;
 
 import entities.Hotel;
 import entities.Ratings;
 import entities.Review;
+import entities.ServiceDictionary;
 import entities.StatusClient;
 import entities.User;
+import utils.BinaryProtocol;
 import utils.PasswordUtils;
 
 /**
@@ -33,14 +46,28 @@ import utils.PasswordUtils;
  *   exit
  *   login <username> <password>
  *   logout <username>
+ *   resume <token>   (token di sessione ricevuto nella risposta al login)
  *   searchHotel <nomeHotel> <città>
- *   searchAllHotels <città>
+ *   searchAllHotels <città> [limit [offset]]
+ *   suggest <prefisso> [città]
+ *   filterHotels <città> <servizio>; <servizio>; ...
+ *   topHotels <k>
+ *   searchByRatings <città> <categoria> <min> <max> [ordinamento [limit]]
+ *   trending [città] [1h|24h|7d] [reviews|rate]
  *   insertReview <nomeHotel> <città> <rate> <cleaning> <position> <services> <quality>
+ *   insertReviews <recensione>; <recensione>; ...   (ogni recensione nel formato di insertReview)
  *   showMyBadges
+ *   myReviews
  * 
  * Formato dei messaggi di risposta inviati al client: [stato],[contenuto]\n
  *   [stato] indica lo stato dell'utente sul client.
  *   [contenuto] indica il testo del messaggio di risposta.
+ *
+ * Se il client invia la riga 'protocol binary' la connessione passa al protocollo binario descritto
+ * in BinaryProtocol, con gli stessi comandi e lo stesso stato. Con la riga 'protocol binary deflate'
+ * le risposte più lunghe di 'compressionThreshold' byte vengono anche compresse. Con la riga
+ * 'protocol mux' la connessione trasporta più sessioni utente, ognuna con il proprio Worker (vedi
+ * {@link MuxSessions}).
  */
 
 public class Worker implements Runnable
@@ -51,10 +78,76 @@ public class Worker implements Runnable
 	// se l'utente è loggato contiene il suo username, altrimenti è vuoto
 	private StringBuilder usernameLogged = new StringBuilder();
 
+	// true se il login è appena stato effettuato e si attende la riga con le città da seguire
+	private boolean waitingFollowedCities = false;
+
+	// prefisso [stato], delle risposte del protocollo testuale, già codificato per ogni stato
+	private static final byte[][] STATUS_PREFIX = new byte[StatusClient.values().length][];
+	static
+	{
+		for(StatusClient s : StatusClient.values())
+			STATUS_PREFIX[s.ordinal()] = (s.name() + ",").getBytes();
+	}
+
+	// numero massimo di recensioni in un comando insertReviews
+	private static final int MAX_BATCH_REVIEWS = 1000;
+
+	// messaggio inviato al client quando la sessione scade
+	private static final String EXPIRED_MESSAGE = "Sessione scaduta per inattività";
+
+	// tempo concesso al worker per inviare la notifica di scadenza prima della chiusura del socket, in millisecondi
+	private static final long EXPIRED_NOTICE_GRACE = 5000;
+
+	// messaggio inviato al client quando un comando supera il budget (vedi RateLimiter)
+	private static final String THROTTLED_MESSAGE = "Errore: troppe richieste, riprova tra poco";
+
+	// messaggio inviato al client quando la corsia del comando è piena (vedi CommandScheduler)
+	private static final String BUSY_MESSAGE = "Errore: server occupato, riprova più tardi";
+
+	// new line codificato nel [contenuto] delle risposte del protocollo testuale
+	private static final byte[] NEW_LINE = "*\\n*".getBytes();
+
+	// messaggio di aiuto, costruito una sola volta (nel protocollo testuale è già codificato)
+	private static final String HELP_MESSAGE = (
+		"Comandi supportati:\n" +
+		"  help\n" +
+		"  exit\n" +
+		"  register <username> <password>\n" +
+		"  login <username> <password>\n" +
+		"  logout <username>\n" +
+		"  resume <token>\n" +
+		"  searchHotel <nomeHotel> <città>\n" +
+		"  searchAllHotels <città> [limit [offset]]\n" +
+		"  suggest <prefisso> [città]\n" +
+		"  filterHotels <città> <servizio>; <servizio>; ...\n" +
+		"  topHotels <k>\n" +
+		"  searchByRatings <città> <categoria> <min> <max> [ordinamento [limit]]\n" +
+		"  trending [città] [1h|24h|7d] [reviews|rate]\n" +
+		"  insertReview <nomeHotel> <città> <rate> <cleaning> <position> <services> <quality>\n" +
+		"  insertReviews <recensione>; <recensione>; ...\n" +
+		"  showMyBadges\n" +
+		"  myReviews\n" +
+		"  myRankings\n" +
+		"  pipeline <file>"
+	).replace("\n", "*\\n*");
+	private static final byte[] HELP_TEXT = HELP_MESSAGE.getBytes();
+
 	// socket e relativi stream di input/output
 	private Socket socket;
-	private BufferedReader in;
-	private PrintWriter out;
+	private CommandCodec codec; // legge e divide i comandi del protocollo testuale (modalità thread)
+	private OutputStream out;
+
+	// stream del protocollo binario, creati quando il client lo negozia
+	private boolean binary = false;
+	private DataInputStream binIn;
+	private DataOutputStream binOut;
+
+	// compressione delle risposte del protocollo binario, attiva se negoziata dal client
+	private int compressionThreshold = -1; // soglia in byte, negativa se il server non la consente
+	private Deflater deflater;
+
+	// nome del comando in esecuzione, per i contatori di compressione
+	private String currentCommand = "";
 
 	// riferimento alla hash map degli utenti registrati
 	private ConcurrentHashMap<String, User> usersMap;
@@ -62,136 +155,822 @@ public class Worker implements Runnable
 	// riferimento alla hash map che ha come chiave la città e valore la lista degli hotel presenti in quella città
 	private ConcurrentHashMap<String, CopyOnWriteArrayList<Hotel>> hotelsByCityMap;
 
-	// riferimento alla hash map che ha come chiave 'nomeHotel_città' e valore la lista di recensioni di quell'hotel
-	private ConcurrentHashMap<String, CopyOnWriteArrayList<Review>> reviewsMap;
+	// riferimento all'indice degli hotel per città e nome
+	private HotelIndex hotelIndex;
+
+	// riferimento alle recensioni di ogni hotel, indicizzate dall'id dell'hotel
+	private HotelReviews hotelReviews;
+
+	// riferimento alla cache delle risposte a searchHotel e searchAllHotels
+	private ResponseCache responseCache;
 
 	// periodo di tempo tra le recensioni dello stesso utente per lo stesso hotel, in secondi
 	private int sameReviewerSameHotelPeriod;
 
+	// scadenze di inattività e di lettura della sessione (disattivate se non impostate)
+	private SessionDeadlines deadlines = new SessionDeadlines(null, 0, 0);
+
+	// true se la sessione è scaduta: il TimingWheel ha chiuso l'input (o tutto il socket) della connessione
+	private volatile boolean expired = false;
+
+	// true mentre il thread della connessione attende il prossimo comando, dopo aver scritto le risposte
+	private volatile boolean waitingForRequest = false;
+
+	// token di sessione rilasciati dal server, null se disattivati
+	private SessionTokens sessionTokens;
+
+	// token della sessione dell'utente loggato, null se non c'è
+	private String sessionToken;
+
+	// sessioni utente della connessione, se il client ha negoziato il multiplexing
+	private MuxSessions mux;
+	private int muxMaxSessions = 0; // numero massimo di sessioni su una connessione multiplexata
+
+	// limitazione della frequenza dei comandi, null se disattivata, e indirizzo del client (null se locale)
+	private RateLimiter rateLimiter;
+	private InetAddress clientAddress;
+	private Object clientAddressKey; // chiave dell'indirizzo nel RateLimiter, calcolata una volta sola
+
+	// corsie su cui vengono eseguiti i comandi, null per eseguirli sul thread della connessione
+	private CommandScheduler scheduler;
+
 	public Worker(
 		Socket socket,
 		ConcurrentHashMap<String, User> usersMap,
 		ConcurrentHashMap<String, CopyOnWriteArrayList<Hotel>> hotelsByCityMap,
-		ConcurrentHashMap<String, CopyOnWriteArrayList<Review>> reviewsMap, 
+		HotelIndex hotelIndex,
+		HotelReviews hotelReviews, 
+		ResponseCache responseCache,
 		int sameReviewerSameHotelPeriod)
 	{
 		this.socket = socket;
 		this.usersMap = usersMap;
 		this.hotelsByCityMap = hotelsByCityMap;
-		this.reviewsMap = reviewsMap;
+		this.hotelIndex = hotelIndex;
+		this.hotelReviews = hotelReviews;
+		this.responseCache = responseCache;
 		this.sameReviewerSameHotelPeriod = sameReviewerSameHotelPeriod;
 	}
 
+	/**
+	 * Crea un worker senza socket, usato dalla modalità NIO ({@link Reactor}): le richieste vengono
+	 * passate a {@link #handleLine(String)} o {@link #handleFrame(byte[])} e le risposte vengono scritte
+	 * su 'out' alla chiamata di {@link #flush()}.
+	 */
+	public Worker(
+		OutputStream out,
+		ConcurrentHashMap<String, User> usersMap,
+		ConcurrentHashMap<String, CopyOnWriteArrayList<Hotel>> hotelsByCityMap,
+		HotelIndex hotelIndex,
+		HotelReviews hotelReviews,
+		ResponseCache responseCache,
+		int sameReviewerSameHotelPeriod)
+	{
+		this((Socket) null, usersMap, hotelsByCityMap, hotelIndex, hotelReviews, responseCache, sameReviewerSameHotelPeriod);
+		this.out = out;
+	}
+
+	/**
+	 * Consente al client di negoziare la compressione delle risposte del protocollo binario.
+	 * @param threshold lunghezza minima, in byte, del contenuto di una risposta da comprimere;
+	 * negativa per non consentire la compressione
+	 */
+	public void setCompressionThreshold(int threshold)
+	{
+		this.compressionThreshold = threshold;
+	}
+
+	/**
+	 * Consente al client di negoziare una connessione multiplexata (vedi {@link MuxSessions}).
+	 * @param maxSessions numero massimo di sessioni utente sulla connessione
+	 */
+	public void setMuxMaxSessions(int maxSessions)
+	{
+		this.muxMaxSessions = maxSessions;
+	}
+
+	/**
+	 * Consente al client di ripristinare una sessione con il comando 'resume <token>'.
+	 * @param sessionTokens token di sessione del server, null per non rilasciarne
+	 */
+	public void setSessionTokens(SessionTokens sessionTokens)
+	{
+		this.sessionTokens = sessionTokens;
+	}
+
+	/**
+	 * Limita la frequenza dei comandi dell'utente loggato e dell'indirizzo del client.
+	 * @param rateLimiter budget dei comandi, null per nessun limite
+	 * @param clientAddress indirizzo del client, null per le connessioni sul socket Unix domain
+	 */
+	public void setRateLimiter(RateLimiter rateLimiter, InetAddress clientAddress)
+	{
+		this.rateLimiter = rateLimiter;
+		this.clientAddress = clientAddress;
+		this.clientAddressKey = RateLimiter.addressKey(clientAddress);
+	}
+
+	/**
+	 * Esegue i comandi sulle corsie di 'scheduler', attendendone il completamento, invece che sul thread
+	 * della connessione (modalità 'thread' e 'virtual').
+	 * @param scheduler corsie dei comandi, null per eseguirli sul thread della connessione
+	 */
+	public void setScheduler(CommandScheduler scheduler)
+	{
+		this.scheduler = scheduler;
+	}
+
+	/**
+	 * Imposta le scadenze di inattività e di lettura della sessione, controllate da {@link #run()}.
+	 */
+	public void setDeadlines(SessionDeadlines deadlines)
+	{
+		this.deadlines = deadlines;
+	}
+
 	public void run()
 	{
 		try
 		{
-			in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-			out = new PrintWriter(socket.getOutputStream(), true);
+			InputStream socketIn = new ActivityInputStream(socket.getInputStream());
+			codec = new CommandCodec(socketIn);
+			out = new BufferedOutputStream(socket.getOutputStream());
+
+			// avvio il controllo delle scadenze della sessione
+			deadlines.start(this::expire);
 
 			/*
 			 * SCAMBIO DI MESSAGGI CON IL CLIENT SULLA CONNESSIONE TCP
+			 *
+			 * Il client può inviare più comandi di seguito senza attendere le risposte (pipelining):
+			 * i comandi sono eseguiti in ordine e le risposte vengono inviate con un solo flush quando
+			 * non ci sono altri comandi già ricevuti da eseguire.
 			 */
 			while(true)
 			{
-				String line = in.readLine(); // leggo l'input inviato dal client
-				String[] parts = line.split(" ");
-
-				// il client ha inviato il comando 'exit'
-				if(parts[0].equals("exit"))
+				boolean open;
+				if(!binary)
 				{
-					/* Se l'utente è loggato faccio in automatico il logout.
-					 * In ogni caso setto lo stato dell'utente sul client a StatusClient.EXIT e invio
-					 * la risposta. */
-
-					if(usernameLogged.length() > 0)
-					{
-						// c'è un utente loggato
-						String[] ul = {"logout", usernameLogged.toString()};
-						logout(ul, true);
-						status = StatusClient.EXIT;
-						out.printf("%s,Logout automatico*\\n*Esco dal client\n", status.name());
-						break; // esco dal ciclo
+					waitingForRequest = true;
+					String[] parts = codec.readCommand(); // leggo l'input inviato dal client
+					waitingForRequest = false;
+					if(parts == null || expired) // dopo la scadenza l'ultima riga può essere incompleta
+					{	// il client ha chiuso la connessione senza inviare 'exit' (o la sessione è scaduta)
+						endSessionWithoutExit();
+						break;
 					}
-					status = StatusClient.EXIT;
-					out.printf("%s,Esco dal client\n", status.name());
-					break; // esco dal ciclo
+					deadlines.requestCompleted();
+					open = handleText(parts, null);
 				}
-
-				// gestione degli altri comandi
-				switch(parts[0])
+				else
 				{
-					case "help":
-						// invio un messaggio di aiuto al client
-						String helpMsg =
-							"Comandi supportati:\n" +
-							"  help\n" +
-							"  exit\n" +
-							"  register <username> <password>\n" +
-							"  login <username> <password>\n" +
-							"  logout <username>\n" +
-							"  searchHotel <nomeHotel> <città>\n" +
-							"  searchAllHotels <città>\n" +
-							"  insertReview <nomeHotel> <città> <rate> <cleaning> <position> <services> <quality>\n" +
-							"  showMyBadges\n" +
-							"  myRankings";
-						helpMsg = helpMsg.replace("\n", "*\\n*");
-						out.printf("%s,%s\n", status.name(), helpMsg);
-						break;
-					case "login":
-						if(login(parts) != 0)
-							break; // login fallito, esco dallo switch
-
-						/* Se il login è stato effettuato con successo, il prossimo messaggio del client
-						 * conterrà le città che vuole seguire per riceverne gli aggiornamenti sulla
-						 * classifica.
-						 * Le città sono richieste tutte su una riga, con uno spazio tra una e l'altra. */
-
-						// leggo le città inviate dal client
-						String secondLine = in.readLine();
-						String[] secondParts = secondLine.split(" ");
-
-						// invio al client un messaggio che contiene le città seguite correttamente,
-						// ovvero quelle che, tra quelle che ha inserito, esistono in 'hotelsByCityMap'
-						StringBuilder followedCities = new StringBuilder();
-						for(int i = 0; i < secondParts.length; i++)
-							if(hotelsByCityMap.containsKey(secondParts[i]))
-								followedCities.append(secondParts[i] + " ");
-						if(followedCities.length() == 0)
-							out.printf("%s,Città seguite: nessuna\n", status.name());
-						else
-							out.printf("%s,Città seguite: %s\n", status.name(), followedCities);
-						break;
-					case "logout":
-						logout(parts, false);
-						break;
-					case "searchHotel":
-						searchHotel(parts);
-						break;
-					case "searchAllHotels":
-						searchAllHotels(parts);
-						break;
-					case "insertReview":
-						insertReview(parts);
-						break;
-					case "showMyBadges":
-						showMyBadges(parts);
-						break;
-					default:
-						out.printf("%s,Errore: comando non valido\n", status.name());
+					// i byte già ricevuti dopo la riga di negoziazione sono ancora nel buffer di 'codec'
+					if(binIn == null)
+						binIn = new DataInputStream(new BufferedInputStream(codec.remainingInput()));
+					waitingForRequest = true;
+					byte[] frame = BinaryProtocol.readFrame(binIn);
+					waitingForRequest = false;
+					if(frame == null || expired)
+					{	// il client ha chiuso la connessione senza inviare 'exit' (o la sessione è scaduta)
+						endSessionWithoutExit();
 						break;
+					}
+					deadlines.requestCompleted();
+					open = handleFrame(frame);
 				}
+				if(!open)
+				{	// il client ha inviato il comando 'exit', invio la risposta ed esco dal ciclo
+					flush();
+					break;
+				}
+				if(binary ? binIn == null || binIn.available() == 0 : !codec.ready())
+					flush();
+			}
+		}
+		catch(IOException | UncheckedIOException e)
+		{
+			if(expired)
+				endSessionWithoutExit();
+			else
+			{
+				System.err.printf("[WORKER] Errore: %s\n", e.getMessage());
+				endSession("errore sulla connessione");
 			}
-
-			in.close();
-			out.close();
-			socket.close();
 		}
 		catch(Exception e)
 		{
 			System.err.printf("[WORKER] Errore: %s\n", e.getMessage());
 			e.printStackTrace();
 		}
+		finally
+		{
+			deadlines.stop();
+			releaseCompression();
+			try
+			{
+				socket.close();
+			}
+			catch(IOException e)
+			{ }
+		}
+	}
+
+	/**
+	 * Eseguito dal {@link TimingWheel} quando la sessione scade. Non scrive sul socket, perché una
+	 * scrittura bloccante fermerebbe le scadenze di tutte le sessioni e potrebbe finire in mezzo ad una
+	 * risposta del worker: <p>
+	 * - se il worker attende un comando chiude solo l'input, così la lettura termina e il worker invia
+	 *   la notifica di scadenza ed effettua il logout automatico (vedi {@link #endSessionWithoutExit()});
+	 *   se il client non la riceve entro {@link #EXPIRED_NOTICE_GRACE} millisecondi il socket viene
+	 *   chiuso. <p>
+	 * - altrimenti (e.g. il worker è bloccato nella scrittura di una risposta ad un client che non legge)
+	 *   chiude il socket, senza notifica.
+	 */
+	private void expire()
+	{
+		expired = true;
+		if(waitingForRequest)
+		{
+			try
+			{
+				socket.shutdownInput();
+				deadlines.runLater(EXPIRED_NOTICE_GRACE, this::closeSocket);
+				return ;
+			}
+			catch(IOException e)
+			{ }
+		}
+		closeSocket();
+	}
+
+	private void closeSocket()
+	{
+		try
+		{
+			socket.close();
+		}
+		catch(IOException e)
+		{ }
+	}
+
+	/**
+	 * Termina la sessione del thread della connessione quando la lettura termina senza 'exit': se la
+	 * sessione è scaduta invia prima al client la notifica di scadenza, dallo stesso thread che scrive
+	 * le risposte.
+	 */
+	private void endSessionWithoutExit()
+	{
+		if(!expired)
+		{
+			endSession("connessione chiusa dal client");
+			return ;
+		}
+		try
+		{
+			out.write(expiredReply());
+			out.flush();
+		}
+		catch(IOException e)
+		{ }
+		endSession("sessione scaduta");
+	}
+
+	/**
+	 * @return la risposta, con stato {@link StatusClient#EXIT}, che comunica al client la scadenza della
+	 * sessione, codificata secondo il protocollo in uso
+	 */
+	public byte[] expiredReply()
+	{
+		return exitReply(EXPIRED_MESSAGE);
+	}
+
+	/**
+	 * @return la risposta, con stato {@link StatusClient#EXIT}, che comunica al client che il server è
+	 * occupato e chiude la connessione, codificata secondo il protocollo in uso
+	 */
+	public byte[] busyReply()
+	{
+		return exitReply(BUSY_MESSAGE);
+	}
+
+	/**
+	 * @return la risposta con stato {@link StatusClient#EXIT} e contenuto 'message', che riguarda tutta
+	 * la connessione, codificata secondo il protocollo in uso
+	 */
+	private byte[] exitReply(String message)
+	{
+		if(!binary)
+			return (StatusClient.EXIT.name() + "," + message + "\n").getBytes();
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		try
+		{
+			if(mux != null) // la risposta riguarda tutte le sessioni della connessione
+				MuxSessions.writeReply(new DataOutputStream(buffer), BinaryProtocol.MUX_CONNECTION, StatusClient.EXIT, message);
+			else
+				BinaryProtocol.writeMessage(new DataOutputStream(buffer), StatusClient.EXIT, message);
+		}
+		catch(IOException e)
+		{
+			throw new UncheckedIOException(e);
+		}
+		return buffer.toByteArray();
+	}
+
+	/**
+	 * Termina la sessione senza che il client abbia inviato 'exit': se c'è un utente loggato ne
+	 * effettua il logout automatico. Il token di sessione resta valido, quindi il client può
+	 * riconnettersi e ripristinare la sessione con 'resume'.
+	 * @param reason motivo della terminazione, stampato nel log
+	 */
+	public void endSession(String reason)
+	{
+		if(mux != null)
+			mux.endAll(reason);
+		if(usernameLogged.length() == 0)
+			return ;
+		System.out.printf("[WORKER] Logout automatico di %s: %s\n", usernameLogged, reason);
+		String[] ul = {"logout", usernameLogged.toString()};
+		logout(ul, true);
+	}
+
+	/**
+	 * @return true se il client ha negoziato il protocollo binario (anche multiplexato): le richieste
+	 * successive sono frame con prefisso di lunghezza
+	 */
+	public boolean isBinary()
+	{
+		return binary;
+	}
+
+	/**
+	 * @return true se il client ha negoziato il multiplexing: i frame iniziano con l'id della sessione
+	 */
+	public boolean isMux()
+	{
+		return mux != null;
+	}
+
+	/**
+	 * Libera le risorse native del compressore, se è stato creato.
+	 */
+	public void releaseCompression()
+	{
+		if(deflater != null)
+			deflater.end();
+		deflater = null;
+	}
+
+	/**
+	 * Stream di input del socket che segnala a 'deadlines' l'arrivo di nuovi byte.
+	 */
+	private class ActivityInputStream extends FilterInputStream
+	{
+		ActivityInputStream(InputStream in)
+		{
+			super(in);
+		}
+
+		public int read() throws IOException
+		{
+			int b = super.read();
+			if(b != -1)
+				deadlines.bytesReceived();
+			return b;
+		}
+
+		public int read(byte[] b, int off, int len) throws IOException
+		{
+			int n = super.read(b, off, len);
+			if(n > 0)
+				deadlines.bytesReceived();
+			return n;
+		}
+	}
+
+	/**
+	 * Gestisce una riga inviata dal client e scrive la risposta su 'out'.
+	 * @param line riga ricevuta dal client
+	 * @return false se il client ha inviato il comando 'exit' e la connessione deve essere chiusa,
+	 * true altrimenti
+	 */
+	public boolean handleLine(String line) throws NoSuchAlgorithmException
+	{
+		return handleText(line.split(" "), line);
+	}
+
+	/**
+	 * Gestisce un comando del protocollo testuale e scrive la risposta su 'out'.
+	 * @param parts parole della riga ricevuta dal client, come {@code line.split(" ")}
+	 * @param line riga ricevuta dal client, null se va chiesta a 'codec' (serve solo per la negoziazione)
+	 * @return false se il client ha inviato il comando 'exit' e la connessione deve essere chiusa,
+	 * true altrimenti
+	 */
+	private boolean handleText(String[] parts, String line) throws NoSuchAlgorithmException
+	{
+		/* Se il login è stato effettuato con successo, il messaggio successivo del client
+		 * contiene le città che vuole seguire per riceverne gli aggiornamenti sulla classifica. */
+		if(waitingFollowedCities)
+		{
+			waitingFollowedCities = false;
+			followCities(parts);
+			return true;
+		}
+
+		// il client chiede di passare al protocollo binario, eventualmente con le risposte compresse
+		if(parts.length > 0 && parts[0].equals("protocol"))
+		{
+			if(line == null)
+				line = codec.line();
+			if(BinaryProtocol.isNegotiation(line))
+			{
+				if(line.equals(BinaryProtocol.NEGOTIATION_MUX))
+				{
+					mux = new MuxSessions(muxMaxSessions, this::newMuxSession);
+					reply("Protocollo multiplexato attivo");
+				}
+				else if(line.equals(BinaryProtocol.NEGOTIATION_DEFLATE) && compressionThreshold >= 0)
+				{
+					deflater = new Deflater();
+					reply("Protocollo binario attivo (deflate)");
+				}
+				else
+					reply("Protocollo binario attivo");
+				binary = true;
+				binOut = new DataOutputStream(out);
+				return true;
+			}
+		}
+
+		return handleCommand(parts);
+	}
+
+	/**
+	 * Gestisce un frame di richiesta del protocollo binario e scrive la risposta su 'out'.
+	 * @param frame frame ricevuto dal client, senza il prefisso di lunghezza
+	 * @return false se il client ha inviato il comando 'exit' e la connessione deve essere chiusa,
+	 * true altrimenti
+	 */
+	public boolean handleFrame(byte[] frame) throws NoSuchAlgorithmException, IOException
+	{
+		if(mux != null)
+		{	// connessione multiplexata: il frame è di una delle sessioni, che termina con 'exit'
+			mux.handleFrame(frame, binOut);
+			return true;
+		}
+		String[] parts = BinaryProtocol.decodeRequest(frame);
+		if(waitingFollowedCities)
+		{
+			waitingFollowedCities = false;
+			followCities(String.join(" ", List.of(parts).subList(1, parts.length)).split(" "));
+			return true;
+		}
+		return handleCommand(parts);
+	}
+
+	/**
+	 * Esegue un comando e scrive la risposta su 'out'.
+	 * @param parts array di stringhe che contiene il nome del comando seguito dagli argomenti
+	 * @return false se il comando è 'exit' e la connessione deve essere chiusa, true altrimenti
+	 */
+	private boolean handleCommand(String[] parts) throws NoSuchAlgorithmException
+	{
+		currentCommand = parts[0];
+
+		// il client ha inviato il comando 'exit'
+		if(parts[0].equals("exit"))
+		{
+			/* Se l'utente è loggato faccio in automatico il logout.
+			 * In ogni caso setto lo stato dell'utente sul client a StatusClient.EXIT e invio
+			 * la risposta. */
+
+			if(usernameLogged.length() > 0)
+			{
+				// c'è un utente loggato
+				String[] ul = {"logout", usernameLogged.toString()};
+				logout(ul, true);
+				revokeSessionToken();
+				status = StatusClient.EXIT;
+				reply("Logout automatico*\\n*Esco dal client");
+				return false;
+			}
+			status = StatusClient.EXIT;
+			reply("Esco dal client");
+			return false;
+		}
+
+		// il comando oltre il budget dell'utente o dell'indirizzo viene rifiutato senza eseguirlo
+		if(rateLimiter != null && !rateLimiter.tryAcquire(parts[0], commandUser(), clientAddressKey, commandCost(parts)))
+		{
+			currentCommand = "limitato";
+			reply(THROTTLED_MESSAGE);
+			return true;
+		}
+
+		if(scheduler == null)
+		{
+			execute(parts);
+			return true;
+		}
+		try
+		{	// il thread della connessione attende che il comando sia eseguito sulla sua corsia
+			scheduler.call(CommandScheduler.laneOf(parts[0]), () -> {
+				execute(parts);
+				return null;
+			});
+		}
+		catch(RejectedExecutionException e)
+		{
+			currentCommand = "rifiutato";
+			reply(BUSY_MESSAGE);
+		}
+		catch(NoSuchAlgorithmException | RuntimeException e)
+		{
+			throw e;
+		}
+		catch(Exception e)
+		{	// il thread è stato interrotto durante la terminazione del server
+			throw new IllegalStateException(e);
+		}
+		return true;
+	}
+
+	/**
+	 * Esegue un comando diverso da 'exit' e scrive la risposta su 'out'.
+	 * @param parts array di stringhe che contiene il nome del comando seguito dagli argomenti
+	 */
+	private void execute(String[] parts) throws NoSuchAlgorithmException
+	{
+		switch(parts[0])
+		{
+			case "help":
+				// invio un messaggio di aiuto al client
+				if(binary)
+					reply(HELP_MESSAGE);
+				else
+					replyText(HELP_TEXT);
+				break;
+			case "login":
+				/* Se il login è stato effettuato con successo, il prossimo messaggio del client
+				 * conterrà le città che vuole seguire per riceverne gli aggiornamenti sulla
+				 * classifica.
+				 * Le città sono richieste tutte su una riga, con uno spazio tra una e l'altra. */
+				if(login(parts) == 0)
+					waitingFollowedCities = true;
+				break;
+			case "logout":
+				logout(parts, false);
+				break;
+			case "resume":
+				resume(parts);
+				break;
+			case "searchHotel":
+				searchHotel(parts);
+				break;
+			case "searchAllHotels":
+				searchAllHotels(parts);
+				break;
+			case "suggest":
+				suggest(parts);
+				break;
+			case "filterHotels":
+				filterHotels(parts);
+				break;
+			case "topHotels":
+				topHotels(parts);
+				break;
+			case "searchByRatings":
+				searchByRatings(parts);
+				break;
+			case "trending":
+				trending(parts);
+				break;
+			case "insertReview":
+				insertReview(parts);
+				break;
+			case "insertReviews":
+				// le recensioni sono separate da ';' (nel protocollo binario sono in un solo argomento)
+				insertReviews(List.of(String.join(" ", List.of(parts).subList(1, parts.length)).split(";")));
+				break;
+			case "showMyBadges":
+				showMyBadges(parts);
+				break;
+			case "myReviews":
+				myReviews(parts);
+				break;
+			default:
+				currentCommand = "non valido";
+				reply("Errore: comando non valido");
+				break;
+		}
+	}
+
+	/**
+	 * Scrive una risposta nel formato del protocollo in uso: [stato],[contenuto]\n nel protocollo
+	 * testuale, un frame di tipo messaggio (con '*\n*' sostituito dal new line) nel protocollo binario.
+	 */
+	private void reply(String content)
+	{
+		if(!binary)
+		{
+			replyText(content.getBytes());
+			return ;
+		}
+		replyFrame(BinaryProtocol.TYPE_MESSAGE, content.replace("*\\n*", "\n").getBytes());
+	}
+
+	/**
+	 * Scrive un frame di risposta del protocollo binario, compresso se il client lo ha negoziato e il
+	 * contenuto supera la soglia.
+	 */
+	private void replyFrame(byte type, byte[] content)
+	{
+		try
+		{
+			int sent = BinaryProtocol.writeReply(binOut, status, type, content, deflater, compressionThreshold);
+			if(deflater != null)
+				ServerStats.recordCompression(currentCommand, content.length, sent);
+		}
+		catch(IOException e)
+		{
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Scrive una risposta del protocollo testuale il cui [contenuto] è già codificato in byte
+	 * (e.g. preso da {@link ResponseCache}).
+	 */
+	private void replyText(byte[] content)
+	{
+		try
+		{
+			out.write(STATUS_PREFIX[status.ordinal()]);
+			out.write(content);
+			out.write('\n');
+		}
+		catch(IOException e)
+		{
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Scrive una risposta del protocollo testuale che contiene gli hotel nelle posizioni [from, to) di
+	 * 'rankedHotels', separati da '*\\n*', scrivendoli direttamente sullo stream di output.
+	 */
+	private void replyRankedHotels(byte[][] rankedHotels, int from, int to)
+	{
+		try
+		{
+			out.write(STATUS_PREFIX[status.ordinal()]);
+			out.write(NEW_LINE);
+			for(int i = from; i < to; i++)
+			{
+				if(i > from)
+					out.write(NEW_LINE);
+				out.write(rankedHotels[i]);
+			}
+			out.write('\n');
+		}
+		catch(IOException e)
+		{
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Scrive una risposta che contiene i dati di una lista di hotel come record binari
+	 * (solo nel protocollo binario).
+	 * @param firstPosition posizione in classifica del primo hotel, 0 per non numerare gli hotel
+	 */
+	private void replyHotels(List<Hotel> hotels, int firstPosition)
+	{
+		try
+		{
+			replyFrame(BinaryProtocol.TYPE_HOTELS, BinaryProtocol.encodeHotels(hotels, firstPosition));
+		}
+		catch(IOException e)
+		{
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Scrive una risposta che contiene i dati dei 'count' hotel che seguono la posizione di 'hotels' come
+	 * record binari, codificati e scritti uno alla volta (solo nel protocollo binario).
+	 * @param firstPosition posizione in classifica del primo hotel
+	 */
+	private void replyHotels(ListIterator<Hotel> hotels, int count, int firstPosition)
+	{
+		try
+		{
+			int[] lengths = BinaryProtocol.writeHotels(binOut, status, hotels, count, firstPosition, deflater, compressionThreshold);
+			if(deflater != null)
+				ServerStats.recordCompression(currentCommand, lengths[0], lengths[1]);
+		}
+		catch(IOException e)
+		{
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Invia al client le risposte scritte fino a questo momento.
+	 */
+	public void flush() throws IOException
+	{
+		out.flush();
+	}
+
+	/**
+	 * Crea il worker di una sessione della connessione multiplexata: usa il protocollo binario e scrive
+	 * le risposte su 'sessionOut'.
+	 */
+	private Worker newMuxSession(OutputStream sessionOut)
+	{
+		Worker session = new Worker(sessionOut, usersMap, hotelsByCityMap, hotelIndex, hotelReviews, responseCache, sameReviewerSameHotelPeriod);
+		session.setSessionTokens(sessionTokens);
+		session.setRateLimiter(rateLimiter, clientAddress);
+		session.setScheduler(scheduler);
+		session.binary = true;
+		session.binOut = new DataOutputStream(sessionOut);
+		return session;
+	}
+
+	/**
+	 * @return l'utente a cui attribuire il comando per la limitazione della frequenza, cioè quello
+	 * loggato; null se non c'è. I tentativi di login sono attribuiti solo all'indirizzo del client,
+	 * così nessuno può esaurire il budget di un altro utente tentando di accedere con il suo username
+	 */
+	private String commandUser()
+	{
+		return usernameLogged.length() > 0 ? usernameLogged.toString() : null;
+	}
+
+	/**
+	 * @return le unità di budget del comando per la limitazione della frequenza: il numero di recensioni
+	 * (non vuote, separate da ';') per insertReviews, 1 per gli altri comandi
+	 */
+	private static int commandCost(String[] parts)
+	{
+		if(!parts[0].equals("insertReviews"))
+			return 1;
+		int reviews = 0;
+		boolean empty = true; // true se la recensione corrente non contiene ancora caratteri
+		for(int i = 1; i < parts.length; i++)
+			for(int j = 0; j < parts[i].length(); j++)
+			{
+				char c = parts[i].charAt(j);
+				if(c == ';')
+				{
+					if(!empty)
+						reviews++;
+					empty = true;
+				}
+				else if(!Character.isWhitespace(c))
+					empty = false;
+			}
+		if(!empty)
+			reviews++;
+		return Math.min(Math.max(1, reviews), MAX_BATCH_REVIEWS);
+	}
+
+	/**
+	 * Unisce con uno spazio le parole parts[from], ..., parts[to - 1], come
+	 * {@code String.join(" ", ...)}, creando una sola stringa.
+	 */
+	private static String joinParts(String[] parts, int from, int to)
+	{
+		int length = Math.max(0, to - from - 1);
+		for(int i = from; i < to; i++)
+			length += parts[i].length();
+		StringBuilder sb = new StringBuilder(length);
+		for(int i = from; i < to; i++)
+		{
+			if(i > from)
+				sb.append(' ');
+			sb.append(parts[i]);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Invia al client un messaggio che contiene le città seguite correttamente, ovvero quelle che,
+	 * tra quelle che ha inserito dopo il login, esistono in 'hotelsByCityMap'.
+	 * @param secondParts parole della riga inviata dal client, le città sono separate da uno spazio
+	 */
+	private void followCities(String[] secondParts)
+	{
+		StringBuilder followedCities = new StringBuilder();
+		for(int i = 0; i < secondParts.length; i++)
+			if(hotelsByCityMap.containsKey(secondParts[i]))
+				followedCities.append(secondParts[i] + " ");
+		if(sessionToken != null)
+			sessionTokens.setFollowedCities(sessionToken, followedCities.toString().trim());
+		if(followedCities.length() == 0)
+			reply("Città seguite: nessuna");
+		else
+			reply("Città seguite: " + followedCities);
 	}
 
 	/**
@@ -204,12 +983,12 @@ public class Worker implements Runnable
 	{
 		if(parts.length != 3)
 		{
-			out.printf("%s,Errore, usare: login <username> <password>\n", status.name());
+			reply("Errore, usare: login <username> <password>");
 			return -1;
 		}
 		if(status == StatusClient.USER_LOGGED)
 		{
-			out.printf("%s,Errore: login già effettuato\n", status.name());
+			reply("Errore: login già effettuato");
 			return -1;
 		}
 
@@ -218,24 +997,75 @@ public class Worker implements Runnable
 		User user = usersMap.get(username);
 		if(user == null)
 		{
-			out.printf("%s,Errore: username non registrato\n", status.name());
+			reply("Errore: username non registrato");
 			return -1;
 		}
 		// verifico la correttezza della password
 		if(!PasswordUtils.verifyPassword(password, user.getHashedPassword(), user.getSalt()))
 		{
-			out.printf("%s,Errore: password sbagliata\n", status.name());
+			reply("Errore: password sbagliata");
 			return -1;
 		}
 
 		usernameLogged.append(username); // salvo l'username dell'utente che ha fatto il login
 		status = StatusClient.USER_LOGGED; // setto il nuovo stato da inviare al client
-		out.printf("%s,Login avvenuto con successo*\\n*"
+
+		// rilascio il token con cui il client potrà ripristinare la sessione dopo una disconnessione
+		String tokenLine = "";
+		if(sessionTokens != null)
+		{
+			sessionToken = sessionTokens.issue(username);
+			tokenLine = "*\\n*Token di sessione: " + sessionToken;
+		}
+		reply("Login avvenuto con successo*\\n*"
 			+ "Inserisci le città di cui vuoi seguire la classifica "
-			+ "(tutte nella prossima riga, ognuna seguita da uno spazio)\n", status.name());
+			+ "(tutte nella prossima riga, ognuna seguita da uno spazio)"
+			+ tokenLine);
 		return 0; // successo
 	}
 
+	/**
+	 * Ripristina la sessione associata ad un token rilasciato al login: l'utente torna loggato senza
+	 * inviare la password e la risposta contiene le città che seguiva, in un solo messaggio.
+	 * @param parts array di stringhe contenente il comando resume,
+	 * formato atteso: {"resume", "token"}
+	 */
+	private void resume(String[] parts)
+	{
+		if(parts.length != 2)
+		{
+			reply("Errore, usare: resume <token>");
+			return ;
+		}
+		if(status == StatusClient.USER_LOGGED)
+		{
+			reply("Errore: login già effettuato");
+			return ;
+		}
+		SessionTokens.Session session = sessionTokens == null ? null : sessionTokens.resume(parts[1]);
+		if(session == null || !usersMap.containsKey(session.getUsername()))
+		{
+			reply("Errore: token di sessione non valido o scaduto");
+			return ;
+		}
+
+		usernameLogged.append(session.getUsername());
+		status = StatusClient.USER_LOGGED;
+		sessionToken = parts[1];
+		String cities = session.getFollowedCities();
+		reply("Sessione ripristinata*\\n*Città seguite: " + (cities.isEmpty() ? "nessuna" : cities + " "));
+	}
+
+	/**
+	 * Invalida il token della sessione corrente, dopo un logout o un exit richiesti dal client.
+	 */
+	private void revokeSessionToken()
+	{
+		if(sessionToken != null)
+			sessionTokens.revoke(sessionToken);
+		sessionToken = null;
+	}
+
 	/**
 	 * Tenta di effettuare il logout dell'utente.
 	 * @param parts array di stringhe contenente il comando di logout,
@@ -247,18 +1077,18 @@ public class Worker implements Runnable
 	{
 		if(parts.length != 2)
 		{
-			out.printf("%s,Errore, usare: logout <username>\n", status.name());
+			reply("Errore, usare: logout <username>");
 			return ;
 		}
 		if(status != StatusClient.USER_LOGGED)
 		{
-			out.printf("%s,Errore: operazione non consentita prima del login\n", status.name());
+			reply("Errore: operazione non consentita prima del login");
 			return ;
 		}
 		String username = parts[1];
 		if(!username.equals(usernameLogged.toString()))
 		{
-			out.printf("%s,Errore: username sbagliato\n", status.name());
+			reply("Errore: username sbagliato");
 			return ;
 		}
 
@@ -267,7 +1097,10 @@ public class Worker implements Runnable
 
 		// invio il messaggio di risposta solo quando è stato l'utente a chiedere esplicitamente il logout
 		if(!automaticLogout)
-			out.printf("%s,Hai effettuato il logout\n", status.name());
+		{
+			revokeSessionToken();
+			reply("Hai effettuato il logout");
+		}
 	}
 
 	/**
@@ -284,101 +1117,428 @@ public class Worker implements Runnable
 		String city = parts[parts.length - 1];
 		if(city == null || city.isBlank())
 		{
-			out.printf("%s,Errore, usare: searchHotel <nomeHotel> <città>\n", status.name());
+			reply("Errore, usare: searchHotel <nomeHotel> <città>");
 			return ;
 		}
 
 		// ricostruisco il nome dell'hotel prendendo le stringhe dopo 'searchHotel' e prima di 'città'
-		StringBuilder hotelNameBuilder = new StringBuilder();
-		for(int i = 1; i < parts.length - 1; i++)
-		{
-			hotelNameBuilder.append(parts[i]);
-			if(i < parts.length - 2)
-				hotelNameBuilder.append(" ");
-		}
-		String hotelName = hotelNameBuilder.toString();
+		String hotelName = joinParts(parts, 1, parts.length - 1);
 		if(hotelName == null || hotelName.isBlank())
 		{
-			out.printf("%s,Errore, usare: searchHotel <nomeHotel> <città>\n", status.name());
+			reply("Errore, usare: searchHotel <nomeHotel> <città>");
 			return ;
 		}
 
 		// controllo se la città esiste in 'hotelsByCityMap'
 		if(!hotelsByCityMap.containsKey(city))
 		{
-			out.printf("%s,Errore: %s non è una città capoluogo italiana\n", status.name(), city);
+			reply("Errore: " + city + " non è una città capoluogo italiana");
+			return ;
+		}
+
+		// nel protocollo testuale la risposta è già pronta in cache
+		if(!binary)
+		{
+			byte[] cached = responseCache.getHotel(city, hotelName);
+			if(cached != null)
+			{
+				replyText(cached);
+				return ;
+			}
+		}
+
+		// cerco l'hotel richiesto dal client nell'indice
+		Hotel hotel = hotelIndex.get(city, hotelName);
+		if(hotel == null)
+		{
+			reply("Hotel " + hotelName + " non trovato a " + city);
+			return ;
+		}
+		// ho trovato l'hotel, invio i dati al client
+		if(binary)
+			replyHotels(List.of(hotel), 0);
+		else
+			reply("*\\n*" + ResponseCache.formatHotel(hotel));
+	}
+
+	/**
+	 * Cerca e invia al client i dati degli hotel presenti nella città richiesta, in ordine di
+	 * classifica: tutti oppure solo 'limit' hotel a partire dalla posizione 'offset' + 1 (con 'offset'
+	 * uguale a 0 sono i primi 'limit' in classifica). <p>
+	 * La risposta viene scritta sul socket un hotel alla volta, senza costruirla in memoria.
+	 * @param parts array di stringhe contenente il comando searchAllHotels,
+	 * formato atteso: {"searchAllHotels", "città"} oppure {"searchAllHotels", "città", "limit"} oppure
+	 * {"searchAllHotels", "città", "limit", "offset"}, "città" è sempre una singola stringa senza spazi
+	 */
+	private void searchAllHotels(String[] parts)
+	{
+		if(parts.length < 2 || parts.length > 4)
+		{
+			reply("Errore, usare: searchAllHotels <città> [limit [offset]]");
+			return ;
+		}
+
+		String city = parts[1];
+		if(city == null || city.isBlank())
+		{
+			reply("Errore, usare: searchAllHotels <città> [limit [offset]]");
+			return ;
+		}
+
+		// parsing di 'limit' e 'offset'
+		int limit = Integer.MAX_VALUE, offset = 0;
+		try
+		{
+			if(parts.length > 2)
+				limit = Integer.parseInt(parts[2]);
+			if(parts.length > 3)
+				offset = Integer.parseInt(parts[3]);
+		}
+		catch(NumberFormatException e)
+		{
+			limit = -1;
+		}
+		if(limit <= 0 || offset < 0)
+		{
+			reply("Errore, usare: searchAllHotels <città> [limit [offset]], con limit > 0 e offset >= 0");
 			return ;
 		}
 
-		// cerco il nome dell'hotel richiesto dal client nella lista di 'hotelsByCityMap' con chiave 'city'
 		CopyOnWriteArrayList<Hotel> hotelsInCity = hotelsByCityMap.get(city);
-		if(hotelsInCity != null)
-			for(Hotel hotel : hotelsInCity)
-				if(hotel.getName().equals(hotelName))
+		if(hotelsInCity == null)
+		{
+			reply("Errore: " + city + " non è una città capoluogo italiana");
+			return ;
+		}
+
+		/* La lista è già ordinata per rate decrescente (all'avvio del server e ad ogni ricalcolo della
+		 * classifica), quindi non la riordino ad ogni richiesta. Gli hotel della pagina vengono letti con
+		 * un iteratore della lista, che scorre l'array della classifica senza copiarlo: la memoria usata
+		 * non dipende dal numero di hotel della città. */
+		byte[][] rankedHotels = binary ? null : responseCache.getRankedHotels(city);
+		int size = rankedHotels != null ? rankedHotels.length : hotelsInCity.size();
+		if(size == 0)
+		{
+			reply("Nessun hotel a " + city);
+			return ;
+		}
+		if(offset >= size)
+		{
+			reply("Nessun hotel a " + city + " dalla posizione " + ((long) offset + 1));
+			return ;
+		}
+		int to = (int) Math.min(size, (long) offset + limit);
+		ListIterator<Hotel> ranking = rankedHotels == null ? hotelsInCity.listIterator(offset) : null;
+
+		if(binary)
+		{	// invio i record binari degli hotel della pagina richiesta, codificati uno alla volta
+			replyHotels(ranking, to - offset, offset + 1);
+			return ;
+		}
+
+		// scrivo uno dopo l'altro i dati, già pronti in cache, degli hotel della pagina richiesta
+		if(rankedHotels == null)
+		{	// città non ancora in cache (e.g. primo hotel aggiunto dopo l'ultimo ricalcolo): formatto solo
+			// gli hotel della pagina richiesta
+			byte[][] page = new byte[to - offset][];
+			for(int i = 0; i < page.length; i++)
+				page[i] = ("(" + (offset + i + 1) + ") " + ResponseCache.formatHotel(ranking.next())).getBytes();
+			replyRankedHotels(page, 0, page.length);
+			return ;
+		}
+		replyRankedHotels(rankedHotels, offset, to);
+	}
+
+	/**
+	 * Invia al client i dati dei primi 'k' hotel di tutte le città, in ordine di rate decrescente. <p>
+	 * La classifica globale viene calcolata dal LocalRankingUpdater ad ogni ricalcolo ed è già pronta in
+	 * cache, quindi la risposta non scorre le città; contiene al massimo 'topHotelsLimit' hotel.
+	 * @param parts array di stringhe contenente il comando topHotels, formato atteso: {"topHotels", "k"}
+	 */
+	private void topHotels(String[] parts)
+	{
+		int k = -1;
+		try
+		{
+			if(parts.length == 2)
+				k = Integer.parseInt(parts[1]);
+		}
+		catch(NumberFormatException e)
+		{ }
+		if(k <= 0)
+		{
+			reply("Errore, usare: topHotels <k>, con k > 0");
+			return ;
+		}
+
+		if(binary)
+		{
+			List<Hotel> topHotels = responseCache.getTopHotels();
+			if(topHotels.isEmpty())
+			{
+				reply("Nessun hotel in classifica");
+				return ;
+			}
+			replyHotels(topHotels.subList(0, Math.min(k, topHotels.size())), 1);
+			return ;
+		}
+		byte[][] rankedTopHotels = responseCache.getRankedTopHotels();
+		if(rankedTopHotels.length == 0)
+		{
+			reply("Nessun hotel in classifica");
+			return ;
+		}
+		replyRankedHotels(rankedTopHotels, 0, Math.min(k, rankedTopHotels.length));
+	}
+
+	/**
+	 * Cerca e invia al client i dati degli hotel della città richiesta con il punteggio di una categoria
+	 * (cleaning, position, services o quality) in un intervallo, in ordine decrescente del punteggio di
+	 * una categoria (la stessa dell'intervallo se non è indicata) e, a parità, in ordine di classifica.
+	 * I punteggi sono confrontati arrotondati a due decimali, come vengono mostrati.
+	 * Usa gli indici ordinati dei punteggi (vedi {@link RatingIndex}).
+	 * @param parts array di stringhe contenente il comando searchByRatings,
+	 * formato atteso: {"searchByRatings", "città", "categoria", "min", "max"} seguiti eventualmente dalla
+	 * categoria dell'ordinamento e dal numero massimo di hotel. <p>
+	 * e.g. {@code searchByRatings Roma cleaning 4 5 position 10}: i primi 10 hotel di Roma con cleaning
+	 * tra 4 e 5, in ordine di position
+	 */
+	private void searchByRatings(String[] parts)
+	{
+		String usage = "Errore, usare: searchByRatings <città> <categoria> <min> <max> [ordinamento [limit]], "
+			+ "con categoria e ordinamento tra cleaning, position, services, quality e limit > 0";
+		if(parts.length < 5 || parts.length > 7)
+		{
+			reply(usage);
+			return ;
+		}
+
+		String city = parts[1];
+		int cityId = hotelIndex.cityId(city);
+		if(cityId < 0)
+		{
+			reply("Errore: " + city + " non è una città capoluogo italiana");
+			return ;
+		}
+
+		RatingIndex.Category range = RatingIndex.Category.parse(parts[2]);
+		RatingIndex.Category sortBy = parts.length > 5 ? RatingIndex.Category.parse(parts[5]) : range;
+		double min, max;
+		int limit = Integer.MAX_VALUE;
+		try
+		{
+			min = Double.parseDouble(parts[3]);
+			max = Double.parseDouble(parts[4]);
+			if(parts.length > 6)
+				limit = Integer.parseInt(parts[6]);
+		}
+		catch(NumberFormatException e)
+		{
+			reply(usage);
+			return ;
+		}
+		if(range == null || sortBy == null || limit <= 0 || Double.isNaN(min) || Double.isNaN(max))
+		{
+			reply(usage);
+			return ;
+		}
+
+		List<Hotel> hotels = hotelIndex.searchByRatings(cityId, range, min, max, sortBy, limit);
+		if(hotels.isEmpty())
+		{
+			reply("Nessun hotel a " + city + " con " + parts[2] + " tra " + parts[3] + " e " + parts[4]);
+			return ;
+		}
+		if(binary)
+		{
+			replyHotels(hotels, 1);
+			return ;
+		}
+		StringBuilder msg = new StringBuilder();
+		for(int i = 0; i < hotels.size(); i++)
+			msg.append("*\\n*(" + (i + 1) + ") " + ResponseCache.formatHotel(hotels.get(i)));
+		reply(msg.toString());
+	}
+
+	/**
+	 * Invia al client gli hotel con più recensioni, o con il maggiore aumento del punteggio sintetico
+	 * medio, in una finestra recente (ultima ora, ultime 24 ore o ultimi 7 giorni), di una città o di
+	 * tutte. Le classifiche vengono calcolate dai contatori delle recensioni ad ogni ricalcolo della
+	 * classifica (vedi {@link TrendingCounters}), quindi la risposta non scorre le recensioni.
+	 * @param parts array di stringhe contenente il comando trending, formato atteso: {"trending"} seguito
+	 * eventualmente, in qualsiasi ordine, da città, finestra (1h, 24h, 7d, predefinita 24h) e criterio
+	 * (reviews o rate, predefinito reviews). <p>
+	 * e.g. {@code trending Roma 1h rate}: gli hotel di Roma con il maggiore aumento del punteggio medio
+	 * nell'ultima ora
+	 */
+	private void trending(String[] parts)
+	{
+		String usage = "Errore, usare: trending [città] [1h|24h|7d] [reviews|rate]";
+		if(parts.length > 4)
+		{
+			reply(usage);
+			return ;
+		}
+
+		String city = null;
+		int cityId = -1;
+		TrendingCounters.Window window = null;
+		TrendingCounters.Metric metric = null;
+		for(int i = 1; i < parts.length; i++)
+		{
+			TrendingCounters.Window w = TrendingCounters.Window.parse(parts[i]);
+			if(w != null && window == null)
+			{
+				window = w;
+				continue;
+			}
+			if(metric == null && (parts[i].equalsIgnoreCase("reviews") || parts[i].equalsIgnoreCase("rate")))
+			{
+				metric = TrendingCounters.Metric.valueOf(parts[i].toUpperCase());
+				continue;
+			}
+			if(city == null && w == null)
+			{
+				city = parts[i];
+				cityId = hotelIndex.cityId(city);
+				if(cityId < 0)
 				{
-					// ho trovato l'hotel, invio i dati al client
-					String msg = "*\\n*" + hotel.getName() + "*\\n*"
-						+ "  \"" + hotel.getDescription() + "\"*\\n*"
-						+ "  phone=" + hotel.getPhone() + "*\\n*"
-						+ "  services=" + hotel.getServices() + "*\\n*"
-						+ "  rate=" + String.format(Locale.US, "%.2f", hotel.getRate()) + "*\\n*"
-						+ "  ratings=" + hotel.getRatings().toStringWithApproximation() + "*\\n*";
-					out.printf("%s,%s\n", status.name(), msg);
+					reply("Errore: " + city + " non è una città capoluogo italiana");
 					return ;
 				}
-		// se arrivo qui vuol dire che l'hotel non è stato trovato
-		out.printf("%s,Hotel %s non trovato a %s\n", status.name(), hotelName, city);
+				continue;
+			}
+			reply(usage);
+			return ;
+		}
+		if(window == null)
+			window = TrendingCounters.Window.DAY;
+		if(metric == null)
+			metric = TrendingCounters.Metric.REVIEWS;
+
+		List<TrendingCounters.Entry> entries = hotelReviews.trending().getTop(cityId, window, metric);
+		if(entries.isEmpty())
+		{
+			reply("Nessuna recensione " + (city != null ? "a " + city + " " : "") + "nella finestra " + window.label);
+			return ;
+		}
+		// anche nel protocollo binario la risposta è un messaggio di testo, perché i record degli hotel non
+		// hanno campi per il numero di recensioni, il voto medio e la sua variazione
+		StringBuilder msg = new StringBuilder();
+		for(int i = 0; i < entries.size(); i++)
+		{
+			TrendingCounters.Entry entry = entries.get(i);
+			msg.append("*\\n*(" + (i + 1) + ") " + entry.hotel.getName() + " (" + entry.hotel.getCity() + "): "
+				+ entry.reviews + (entry.reviews == 1 ? " recensione" : " recensioni")
+				+ String.format(Locale.ROOT, ", voto medio %.2f (%+.2f)", entry.avgRate, entry.rateIncrease));
+		}
+		reply(msg.toString());
 	}
 
 	/**
-	 * Cerca e invia al client i dati di tutti gli hotel presenti nella città richiesta.
-	 * @param parts array di stringhe contenente il comando searchAllHotels,
-	 * formato atteso: {"searchAllHotels", "città"}, "città" è sempre una singola stringa senza spazi
+	 * Cerca e invia al client i dati degli hotel della città richiesta che offrono tutti i servizi
+	 * richiesti, in ordine di classifica (vedi {@link ServiceIndex}). I nomi dei servizi non distinguono
+	 * tra maiuscole e minuscole.
+	 * @param parts array di stringhe contenente il comando filterHotels,
+	 * formato atteso: {"filterHotels", "città", ...} dove le stringhe dopo la città sono i servizi,
+	 * separati da ';' (un servizio può contenere spazi). <p>
+	 * e.g. Se il comando inserito è {@code filterHotels Milano Piscina; Wi-Fi}, parts conterrà
+	 * {"filterHotels", "Milano", "Piscina;", "Wi-Fi"}
 	 */
-	private void searchAllHotels(String[] parts)
+	private void filterHotels(String[] parts)
 	{
-		if(parts.length != 2)
+		if(parts.length < 3)
 		{
-			out.printf("%s,Errore, usare: searchAllHotels <città>\n", status.name());
+			reply("Errore, usare: filterHotels <città> <servizio>; <servizio>; ...");
 			return ;
 		}
 
 		String city = parts[1];
-		if(city == null || city.isBlank())
+		int cityId = hotelIndex.cityId(city);
+		if(cityId < 0)
 		{
-			out.printf("%s,Errore, usare: searchAllHotels <città>\n", status.name());
+			reply("Errore: " + city + " non è una città capoluogo italiana");
 			return ;
 		}
-		if(!hotelsByCityMap.containsKey(city))
+
+		// converto i nomi dei servizi nei loro id
+		List<Integer> serviceIds = new ArrayList<>();
+		for(String service : joinParts(parts, 2, parts.length).split(";"))
 		{
-			out.printf("%s,Errore: %s non è una città capoluogo italiana\n", status.name(), city);
+			if(service.isBlank())
+				continue;
+			int id = ServiceDictionary.find(service.trim());
+			if(id < 0)
+			{
+				reply("Errore: il servizio " + service.trim() + " non esiste, servizi disponibili: "
+					+ ServiceDictionary.names());
+				return ;
+			}
+			serviceIds.add(id);
+		}
+		if(serviceIds.isEmpty())
+		{
+			reply("Errore, usare: filterHotels <città> <servizio>; <servizio>; ...");
+			return ;
+		}
+
+		List<Hotel> hotels = hotelIndex.filterByServices(cityId, serviceIds.stream().mapToInt(Integer::intValue).toArray());
+		if(hotels.isEmpty())
+		{
+			reply("Nessun hotel a " + city + " con i servizi richiesti");
 			return ;
 		}
-		if(hotelsByCityMap.get(city).isEmpty())
+		if(binary)
 		{
-			out.printf("%s,Nessun hotel a %s\n", status.name(), city);
+			replyHotels(hotels, 1);
 			return ;
 		}
+		StringBuilder msg = new StringBuilder();
+		for(int i = 0; i < hotels.size(); i++)
+			msg.append("*\\n*(" + (i + 1) + ") " + ResponseCache.formatHotel(hotels.get(i)));
+		reply(msg.toString());
+	}
 
-		// costruisco una stringa che contiene i dati di tutti gli hotel presenti nella città 'city'
-		StringBuilder msgBuilder = new StringBuilder("*\\n*");
-		CopyOnWriteArrayList<Hotel> hotelsInCity = hotelsByCityMap.get(city);
-		hotelsInCity.sort(Comparator.comparingDouble(Hotel::getRate).reversed());
-		int i = 0;
-		for(Hotel hotel : hotelsInCity)
-		{
-			msgBuilder.append("(" + (i + 1) + ") " + hotel.getName() + "*\\n*")
-				.append("  \"" + hotel.getDescription() + "\"*\\n*")
-				.append("  phone=" + hotel.getPhone() + "*\\n*")
-				.append("  services=" + hotel.getServices() + "*\\n*")
-				.append("  rate=" + String.format(Locale.US, "%.2f", hotel.getRate()) + "*\\n*")
-				.append("  ratings=" + hotel.getRatings().toStringWithApproximation() + "*\\n*");
-			if(i < hotelsInCity.size() - 1)
-				msgBuilder.append("*\\n*");
-			i++;
+	/**
+	 * Suggerisce le città e gli hotel il cui nome inizia con un prefisso, senza distinzione tra maiuscole
+	 * e minuscole: le città in ordine alfabetico e gli hotel in ordine di rate decrescente, al massimo
+	 * 'suggestLimit' per tipo (vedi {@link HotelIndex#suggestHotels}). <p>
+	 * Se l'ultima stringa è il nome di una città (e non è l'unica), vengono suggeriti solo gli hotel di
+	 * quella città.
+	 * @param parts array di stringhe contenente il comando suggest,
+	 * formato atteso: {"suggest", "prefisso"} oppure {"suggest", "prefisso", "città"}, il prefisso può
+	 * contenere spazi. <p>
+	 * e.g. Se il comando inserito è {@code suggest hotel mi Milano}, parts conterrà
+	 * {"suggest", "hotel", "mi", "Milano"}
+	 */
+	private void suggest(String[] parts)
+	{
+		if(parts.length < 2)
+		{
+			reply("Errore, usare: suggest <prefisso> [città]");
+			return ;
 		}
-		// invio la risposta al client
-		out.printf("%s,%s\n", status.name(), msgBuilder.toString());
+
+		// se l'ultima stringa è una città cerco solo tra i suoi hotel
+		int cityId = parts.length > 2 ? hotelIndex.cityId(parts[parts.length - 1]) : -1;
+		String prefix = joinParts(parts, 1, cityId < 0 ? parts.length : parts.length - 1);
+		if(prefix == null || prefix.isBlank())
+		{
+			reply("Errore, usare: suggest <prefisso> [città]");
+			return ;
+		}
+
+		StringBuilder msg = new StringBuilder();
+		if(cityId < 0)
+			for(String city : hotelIndex.suggestCities(prefix))
+				msg.append("*\\n*Città: " + city);
+		for(Hotel hotel : hotelIndex.suggestHotels(prefix, cityId))
+			msg.append("*\\n*" + hotel.getName() + " (" + hotel.getCity() + "), rate "
+				+ String.format(Locale.US, "%.2f", hotel.getRate()));
+		if(msg.length() == 0)
+			reply("Nessun suggerimento per " + prefix);
+		else
+			reply("Suggerimenti:" + msg);
 	}
 
 	/**
@@ -396,16 +1556,124 @@ public class Worker implements Runnable
 	{
 		if(status != StatusClient.USER_LOGGED)
 		{
-			out.printf("%s,Errore: operazione non consentita prima del login\n", status.name());
+			reply("Errore: operazione non consentita prima del login");
 			return ;
 		}
-		if(parts.length < 8) // almeno 8 stringhe per come è fatto il comando
+
+		LocalDateTime currentDateTime = LocalDateTime.now();
+		Review newReview;
+		try
+		{
+			newReview = parseReview(parts, currentDateTime);
+		}
+		catch(IllegalArgumentException e)
+		{
+			reply(e.getMessage());
+			return ;
+		}
+		/* L'utente può recensire più volte lo stesso hotel a patto che siano passati
+		 * 'sameReviewerSameHotelPeriod' secondi: il controllo e l'inserimento sono atomici. */
+		if(!hotelReviews.tryAddAll(usernameLogged.toString(), List.of(newReview), currentDateTime, sameReviewerSameHotelPeriod)[0])
+		{
+			reply("Errore: puoi recensire più volte lo stesso hotel dopo almeno "
+				+ sameReviewerSameHotelPeriod + " secondi");
+			return ;
+		}
+
+		// incremento di uno il numero di recensioni inserite dall'utente
+		usersMap.get(usernameLogged.toString()).incrNumReviews();
+
+		// invio la risposta di avvenuto inserimento al client
+		reply("Recensione inserita correttamente");
+	}
+
+	/**
+	 * Tenta di inserire più recensioni dell'utente loggato con un solo comando e gli comunica l'esito
+	 * di ognuna. <p>
+	 * Ogni recensione è validata come in insertReview; quelle valide sono raggruppate per hotel (vedi
+	 * {@link HotelReviews#tryAddAll}), così la lista di recensioni di ogni hotel viene copiata (CopyOnWriteArrayList) una sola
+	 * volta per comando invece che una volta per recensione.
+	 * @param records recensioni nel formato "nomeHotel città rate cleaning position services quality"
+	 */
+	private void insertReviews(List<String> records)
+	{
+		if(status != StatusClient.USER_LOGGED)
+		{
+			reply("Errore: operazione non consentita prima del login");
+			return ;
+		}
+
+		// tolgo le recensioni vuote (e.g. dopo un ';' finale)
+		List<String> nonEmptyRecords = new ArrayList<>();
+		for(String record : records)
+			if(!record.isBlank())
+				nonEmptyRecords.add(record.trim());
+		if(nonEmptyRecords.isEmpty() || nonEmptyRecords.size() > MAX_BATCH_REVIEWS)
 		{
-			out.printf("%s,Errore, usare: insertReview " +
-				"<nomeHotel> <città> <rate> <cleaning> <position> <services> <quality>\n", status.name());
+			reply("Errore, usare: insertReviews <recensione>; <recensione>; ... "
+				+ "(al massimo " + MAX_BATCH_REVIEWS + " recensioni, ognuna nel formato "
+				+ "<nomeHotel> <città> <rate> <cleaning> <position> <services> <quality>)");
 			return ;
 		}
 
+		LocalDateTime currentDateTime = LocalDateTime.now();
+
+		// recensioni valide e loro posizione nel comando
+		List<Review> valid = new ArrayList<>();
+		List<Integer> validPositions = new ArrayList<>();
+
+		String[] results = new String[nonEmptyRecords.size()];
+		for(int i = 0; i < results.length; i++)
+		{
+			try
+			{
+				valid.add(parseReview(("insertReview " + nonEmptyRecords.get(i)).split(" "), currentDateTime));
+				validPositions.add(i);
+			}
+			catch(IllegalArgumentException e)
+			{
+				results[i] = e.getMessage();
+			}
+		}
+
+		/* Inserisco le recensioni valide, con una sola copia della lista per hotel. Due recensioni dello
+		 * stesso hotel nello stesso comando hanno la stessa data, quindi la seconda è accettata solo se
+		 * 'sameReviewerSameHotelPeriod' è 0. */
+		boolean[] added = hotelReviews.tryAddAll(usernameLogged.toString(), valid, currentDateTime, sameReviewerSameHotelPeriod);
+		int inserted = 0;
+		for(int j = 0; j < added.length; j++)
+		{
+			if(added[j])
+				inserted++;
+			results[validPositions.get(j)] = added[j] ? "OK"
+				: "Errore: puoi recensire più volte lo stesso hotel dopo almeno " + sameReviewerSameHotelPeriod + " secondi";
+		}
+
+		// incremento il numero di recensioni inserite dall'utente
+		if(inserted > 0)
+			usersMap.get(usernameLogged.toString()).incrNumReviews(inserted);
+
+		// invio al client l'esito di ogni recensione, nell'ordine in cui le ha inviate
+		StringBuilder msg = new StringBuilder("Recensioni inserite: " + inserted + "/" + results.length);
+		for(int i = 0; i < results.length; i++)
+			msg.append("*\\n*(" + (i + 1) + ") " + results[i]);
+		reply(msg.toString());
+	}
+
+	/**
+	 * Analizza e valida una recensione nel formato del comando insertReview.
+	 * @param parts array di stringhe contenente il comando insertReview (vedi {@link #insertReview(String[])})
+	 * @param dateTime data e ora della recensione
+	 * @return la recensione dell'utente loggato
+	 * @throws IllegalArgumentException se la recensione non è valida, con il messaggio di errore da
+	 * inviare al client
+	 */
+	private Review parseReview(String[] parts, LocalDateTime dateTime)
+	{
+		if(parts.length < 8) // almeno 8 stringhe per come è fatto il comando
+			throw new IllegalArgumentException("Errore, usare: insertReview " +
+				"<nomeHotel> <città> <rate> <cleaning> <position> <services> <quality>");
+
 		// parsing dei punteggi
 		int rate, cleaning, position, services, quality;
 		try
@@ -418,104 +1686,82 @@ public class Worker implements Runnable
 		}
 		catch(NumberFormatException e)
 		{
-			out.printf("%s,Errore, usare: insertReview " +
-				"<nomeHotel> <città> <rate> <cleaning> <position> <services> <quality>\n", status.name());
-			return ;
+			throw new IllegalArgumentException("Errore, usare: insertReview " +
+				"<nomeHotel> <città> <rate> <cleaning> <position> <services> <quality>");
 		}
 
 		// controllo se ogni punteggio è compreso tra 0 e 5
 		int[] check05 = {rate, cleaning, position, services, quality};
 		for(int n : check05)
 			if(n < 0 || n > 5)
-			{
-				out.printf("%s,Errore: ogni punteggio deve essere compreso tra 0 e 5\n", status.name());
-				return ;
-			}
+				throw new IllegalArgumentException("Errore: ogni punteggio deve essere compreso tra 0 e 5");
 
 		// il nome della città è in posizione [parts.length - 6]
 		String city = parts[parts.length - 6];
 		if(city == null || city.isBlank())
-		{
-			out.printf("%s,Errore, usare: insertReview " +
-				"<nomeHotel> <città> <rate> <cleaning> <position> <services> <quality>\n", status.name());
-			return ;
-		}
+			throw new IllegalArgumentException("Errore, usare: insertReview " +
+				"<nomeHotel> <città> <rate> <cleaning> <position> <services> <quality>");
 
 		// ricostruisco il nome dell'hotel prendendo le stringhe dopo 'insertReview' e prima di 'città'
-		StringBuilder hotelNameBuilder = new StringBuilder();
-		for(int i = 1; i < parts.length - 6; i++)
-		{
-			hotelNameBuilder.append(parts[i]);
-			if(i < parts.length - 7)
-				hotelNameBuilder.append(" ");
-		}
-		String hotelName = hotelNameBuilder.toString();
+		String hotelName = joinParts(parts, 1, parts.length - 6);
 		if(hotelName == null || hotelName.isBlank())
-		{
-			out.printf("%s,Errore, usare: insertReview " +
-				"<nomeHotel> <città> <rate> <cleaning> <position> <services> <quality>\n", status.name());
-			return ;
-		}
+			throw new IllegalArgumentException("Errore, usare: insertReview " +
+				"<nomeHotel> <città> <rate> <cleaning> <position> <services> <quality>");
 
 		// controllo se la città esiste in 'hotelsByCityMap'
 		if(!hotelsByCityMap.containsKey(city))
-		{
-			out.printf("%s,Errore: %s non è una città capoluogo italiana\n", status.name(), city);
-			return ;
-		}
+			throw new IllegalArgumentException("Errore: " + city + " non è una città capoluogo italiana");
 
 		// controllo se l'hotel 'hotelName' esiste nella città 'city'
 		CopyOnWriteArrayList<Hotel> hotelsInCity = hotelsByCityMap.get(city);
 		if(hotelsInCity.isEmpty() || hotelsInCity == null)
+			throw new IllegalArgumentException("Errore: nessun hotel a " + city);
+		Hotel hotel = hotelIndex.get(city, hotelName);
+		if(hotel == null)
+			throw new IllegalArgumentException("Errore: non esiste l'hotel " + hotelName + " a " + city);
+
+		Review review = new Review(
+			usernameLogged.toString(), hotelName, city, rate,
+			new Ratings(cleaning, position, services, quality),
+			dateTime.toString());
+		review.setHotelId(hotel.getId());
+		return review;
+	}
+
+	/**
+	 * Mostra all'utente loggato le recensioni che ha inserito, dalla più recente. Le recensioni sono
+	 * indicizzate per autore (vedi {@link HotelReviews#getByReviewer}), quindi non vengono scorse quelle
+	 * degli altri utenti.
+	 * @param parts array di stringhe contenente il comando myReviews, formato atteso: {"myReviews"}
+	 */
+	private void myReviews(String[] parts)
+	{
+		if(parts.length != 1)
 		{
-			out.printf("%s,Errore: nessun hotel a %s\n", status.name(), city);
+			reply("Errore, usare: myReviews");
 			return ;
 		}
-		boolean found = false;
-		for(Hotel hotel : hotelsInCity)
-			if(hotel.getName().equals(hotelName))
-			{
-				found = true;
-				break;
-			}
-		if(!found)
+		if(status != StatusClient.USER_LOGGED)
 		{
-			out.printf("%s,Errore: non esiste l'hotel %s a %s\n", status.name(), hotelName, city);
+			reply("Errore: operazione non consentita prima del login");
 			return ;
 		}
 
-		LocalDateTime currentDateTime = LocalDateTime.now();
-		String key = hotelName + "_" + city;
-
-		// l'utente può recensire più volte lo stesso hotel a patto che siano passati 'sameReviewerSameHotelPeriod' secondi
-		if(reviewsMap.get(key) != null)
-			for(Review review : reviewsMap.get(key))
-			{
-				if(review.getReviewer().equals(usernameLogged.toString()))
-					if(Duration.between(LocalDateTime.parse(review.getDateTime()), currentDateTime).getSeconds() < sameReviewerSameHotelPeriod)
-					{
-						out.printf("%s,Errore: puoi recensire più volte lo stesso hotel dopo almeno %d secondi\n",
-							status.name(), sameReviewerSameHotelPeriod);
-						return ;
-					}
-			}
-
-		// inserisco la recensione in 'reviewsMap'
-		reviewsMap.compute(key, (k, list) -> {
-			if(list == null)
-				list = new CopyOnWriteArrayList<>();
-			list.add(new Review(
-				usernameLogged.toString(), hotelName, city, rate,
-				new Ratings(cleaning, position, services, quality),
-				currentDateTime.toString()));
-			return list;
-		});
-
-		// incremento di uno il numero di recensioni inserite dall'utente
-		usersMap.get(usernameLogged.toString()).incrNumReviews();
-
-		// invio la risposta di avvenuto inserimento al client
-		out.printf("%s,Recensione inserita correttamente\n", status.name());
+		List<Review> reviews = hotelReviews.getByReviewer(usernameLogged.toString());
+		if(reviews.isEmpty())
+		{
+			reply("Nessuna recensione inserita");
+			return ;
+		}
+		StringBuilder msg = new StringBuilder("Recensioni inserite: " + reviews.size());
+		for(int i = reviews.size() - 1; i >= 0; i--)
+		{
+			Review review = reviews.get(i);
+			msg.append("*\\n*" + review.getHotelName() + " (" + review.getCity() + "), " + review.getDateTime()
+				+ "*\\n*  rate=" + review.getRate()
+				+ "  ratings=" + review.getRatings().toStringWithApproximation());
+		}
+		reply(msg.toString());
 	}
 
 	/**
@@ -528,12 +1774,12 @@ public class Worker implements Runnable
 	{
 		if(parts.length != 1)
 		{
-			out.printf("%s,Errore, usare: showMyBadges\n", status.name());
+			reply("Errore, usare: showMyBadges");
 			return ;
 		}
 		if(status != StatusClient.USER_LOGGED)
 		{
-			out.printf("%s,Errore: operazione non consentita prima del login\n", status.name());
+			reply("Errore: operazione non consentita prima del login");
 			return ;
 		}
 
@@ -554,6 +1800,6 @@ public class Worker implements Runnable
 			msg = "--- Contributore Super ---";
 
 		// invio la risposta al client
-		out.printf("%s,%s\n", status.name(), msg);
+		reply(msg);
 	}
 }
\ No newline at end of file
@@ -0,0 +1,512 @@
+package utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Locale;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+
+import entities.Hotel;
+import entities.Ratings;
+import entities.StatusClient;
+
+/**
+ * Protocollo binario alternativo al protocollo testuale, negoziato dal client all'apertura della
+ * connessione inviando la riga {@link #NEGOTIATION}. Il server risponde con una riga di testo e da quel
+ * momento entrambi usano frame con prefisso di lunghezza. <p>
+ *
+ * Frame di richiesta: [int lunghezza][byte opcode][byte numero argomenti][argomenti in UTF] <p>
+ * Frame di risposta: [int lunghezza][byte stato][byte tipo][contenuto] <p>
+ *
+ * Il contenuto di una risposta di tipo {@link #TYPE_MESSAGE} è il testo del messaggio in UTF-8 (con i
+ * new line veri, senza '*\n*'); quello di una risposta di tipo {@link #TYPE_HOTELS} è il numero di
+ * hotel seguito dai record binari degli hotel. <p>
+ *
+ * Se il client negozia la compressione ({@link #NEGOTIATION_DEFLATE}) il server comprime con deflate il
+ * contenuto delle risposte più lunghe di una soglia: il byte tipo ha il bit {@link #FLAG_DEFLATE} e il
+ * contenuto è [int lunghezza non compressa][contenuto compresso]. <p>
+ *
+ * Con la riga {@link #NEGOTIATION_MUX} la connessione trasporta più sessioni utente indipendenti
+ * (e.g. quelle di un gateway): ogni frame, di richiesta o di risposta, ha subito dopo la lunghezza un
+ * [int id sessione] e la risposta ha l'id della sessione che ha inviato la richiesta. Una sessione
+ * nasce con il primo frame che ne usa l'id e termina con 'exit'. L'id {@link #MUX_CONNECTION} indica
+ * un messaggio che riguarda l'intera connessione (e.g. la sua scadenza) e non può essere usato da una
+ * sessione: le richieste con questo id ricevono una risposta di errore.
+ */
+public class BinaryProtocol
+{
+	// riga inviata dal client per passare al protocollo binario
+	public static final String NEGOTIATION = "protocol binary";
+
+	// riga inviata dal client per passare al protocollo binario con le risposte compresse
+	public static final String NEGOTIATION_DEFLATE = NEGOTIATION + " deflate";
+
+	// riga inviata dal client per passare al protocollo binario con più sessioni sulla connessione
+	public static final String NEGOTIATION_MUX = "protocol mux";
+
+	// id di sessione dei frame che riguardano l'intera connessione multiplexata
+	public static final int MUX_CONNECTION = -1;
+
+	// lunghezza massima di un frame
+	public static final int MAX_FRAME_LENGTH = 1 << 24;
+
+	// opcode dei comandi
+	public static final byte OP_UNKNOWN = 0;
+	public static final byte OP_HELP = 1;
+	public static final byte OP_EXIT = 2;
+	public static final byte OP_LOGIN = 3;
+	public static final byte OP_LOGOUT = 4;
+	public static final byte OP_SEARCH_HOTEL = 5;
+	public static final byte OP_SEARCH_ALL_HOTELS = 6;
+	public static final byte OP_INSERT_REVIEW = 7;
+	public static final byte OP_SHOW_MY_BADGES = 8;
+	public static final byte OP_FOLLOW_CITIES = 9; // città da seguire, inviate subito dopo il login
+	public static final byte OP_INSERT_REVIEWS = 10; // le recensioni, separate da ';', sono in un solo argomento
+	public static final byte OP_RESUME = 11;
+	public static final byte OP_SUGGEST = 12;
+	public static final byte OP_FILTER_HOTELS = 13;
+	public static final byte OP_TOP_HOTELS = 14;
+	public static final byte OP_MY_REVIEWS = 15;
+	public static final byte OP_SEARCH_BY_RATINGS = 16;
+	public static final byte OP_TRENDING = 17;
+
+	// nome del comando testuale corrispondente ad ogni opcode
+	private static final String[] COMMANDS = {
+		"", "help", "exit", "login", "logout", "searchHotel", "searchAllHotels", "insertReview",
+		"showMyBadges", "", "insertReviews", "resume", "suggest", "filterHotels", "topHotels", "myReviews", "searchByRatings", "trending"
+	};
+
+	// tipi dei frame di risposta
+	public static final byte TYPE_MESSAGE = 0;
+	public static final byte TYPE_HOTELS = 1;
+
+	// bit del byte tipo che indica un contenuto compresso con deflate
+	public static final byte FLAG_DEFLATE = (byte) 0x80;
+
+	/**
+	 * @return true se 'line' è una delle righe di negoziazione del protocollo binario
+	 */
+	public static boolean isNegotiation(String line)
+	{
+		return line.equals(NEGOTIATION) || line.equals(NEGOTIATION_DEFLATE) || line.equals(NEGOTIATION_MUX);
+	}
+
+	/**
+	 * @return l'opcode del comando testuale 'command', {@code OP_UNKNOWN} se il comando non esiste
+	 */
+	public static byte opcodeOf(String command)
+	{
+		for(byte op = 1; op < COMMANDS.length; op++)
+			if(COMMANDS[op].equals(command))
+				return op;
+		return OP_UNKNOWN;
+	}
+
+	/**
+	 * @return il nome del comando testuale con opcode 'opcode', stringa vuota se l'opcode non è valido
+	 */
+	public static String commandOf(int opcode)
+	{
+		return opcode >= 0 && opcode < COMMANDS.length ? COMMANDS[opcode] : "";
+	}
+
+	/**
+	 * Legge un frame (senza il prefisso di lunghezza).
+	 * @return il contenuto del frame, null se la connessione è stata chiusa
+	 */
+	public static byte[] readFrame(DataInputStream in) throws IOException
+	{
+		int length;
+		try
+		{
+			length = in.readInt();
+		}
+		catch(EOFException e)
+		{
+			return null;
+		}
+		if(length < 0 || length > MAX_FRAME_LENGTH)
+			throw new IOException("lunghezza del frame non valida: " + length);
+		byte[] frame = new byte[length];
+		in.readFully(frame);
+		return frame;
+	}
+
+	/**
+	 * Legge una riga di testo terminata da '\n' direttamente dallo stream di byte (usato per la
+	 * negoziazione, prima di passare ai frame).
+	 * @return la riga senza '\n', null se la connessione è stata chiusa
+	 */
+	public static String readTextLine(InputStream in) throws IOException
+	{
+		ByteArrayOutputStream line = new ByteArrayOutputStream();
+		int b;
+		while((b = in.read()) != '\n')
+		{
+			if(b == -1)
+				return null;
+			line.write(b);
+		}
+		return line.toString();
+	}
+
+	/**
+	 * Scrive un frame di richiesta.
+	 */
+	public static void writeRequest(DataOutputStream out, byte opcode, List<String> args) throws IOException
+	{
+		byte[] request = encodeRequest(opcode, args);
+		out.writeInt(request.length);
+		out.write(request);
+	}
+
+	/**
+	 * Scrive un frame di richiesta della sessione 'session' di una connessione multiplexata.
+	 */
+	public static void writeMuxRequest(DataOutputStream out, int session, byte opcode, List<String> args) throws IOException
+	{
+		byte[] request = encodeRequest(opcode, args);
+		out.writeInt(request.length + 4);
+		out.writeInt(session);
+		out.write(request);
+	}
+
+	private static byte[] encodeRequest(byte opcode, List<String> args) throws IOException
+	{
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		DataOutputStream frame = new DataOutputStream(buffer);
+		frame.writeByte(opcode);
+		frame.writeByte(args.size());
+		for(String arg : args)
+			frame.writeUTF(arg);
+		return buffer.toByteArray();
+	}
+
+	/**
+	 * Decodifica un frame di richiesta nell'array di stringhe equivalente al comando testuale, e.g.
+	 * {"searchHotel", "Hotel Milano 7", "Milano"}. Se l'opcode non è valido il primo elemento è vuoto.
+	 */
+	public static String[] decodeRequest(byte[] frame) throws IOException
+	{
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(frame));
+		int opcode = in.readUnsignedByte();
+		int argc = in.readUnsignedByte();
+		String[] parts = new String[argc + 1];
+		parts[0] = commandOf(opcode);
+		for(int i = 1; i <= argc; i++)
+			parts[i] = in.readUTF();
+		return parts;
+	}
+
+	/**
+	 * Scrive un frame di risposta che contiene un messaggio di testo.
+	 */
+	public static void writeMessage(DataOutputStream out, StatusClient status, String message) throws IOException
+	{
+		writeReply(out, status, TYPE_MESSAGE, message.getBytes(), null, 0);
+	}
+
+	/**
+	 * Scrive un frame di risposta che contiene i record binari di una lista di hotel.
+	 * @param firstPosition posizione in classifica del primo hotel della lista, 0 se gli hotel non devono
+	 * essere preceduti dalla loro posizione
+	 */
+	public static void writeHotels(DataOutputStream out, StatusClient status, List<Hotel> hotels, int firstPosition)
+		throws IOException
+	{
+		writeReply(out, status, TYPE_HOTELS, encodeHotels(hotels, firstPosition), null, 0);
+	}
+
+	/**
+	 * @return il contenuto di una risposta di tipo {@link #TYPE_HOTELS}
+	 * @param firstPosition posizione in classifica del primo hotel della lista, 0 se gli hotel non devono
+	 * essere preceduti dalla loro posizione
+	 */
+	public static byte[] encodeHotels(List<Hotel> hotels, int firstPosition) throws IOException
+	{
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		DataOutputStream frame = new DataOutputStream(buffer);
+		frame.writeInt(hotels.size());
+		int position = firstPosition;
+		for(Hotel hotel : hotels)
+			writeHotel(frame, hotel, firstPosition > 0 ? position++ : 0);
+		return buffer.toByteArray();
+	}
+
+	/**
+	 * Scrive un frame di risposta di tipo {@link #TYPE_HOTELS} con i 'count' hotel che seguono la
+	 * posizione di 'hotels', codificando e scrivendo un record alla volta: a differenza di
+	 * {@link #encodeHotels} non costruisce il contenuto in memoria. La lunghezza del contenuto viene
+	 * calcolata con una prima passata sugli hotel, poi l'iteratore torna indietro per scriverli; se il
+	 * contenuto va compresso in memoria c'è solo quello compresso. <p>
+	 * L'iteratore deve scorrere una lista che non cambia durante la scrittura (e.g. l'iteratore di una
+	 * CopyOnWriteArrayList, che scorre l'array letto alla sua creazione).
+	 * @param firstPosition posizione in classifica del primo hotel, 0 se gli hotel non devono essere
+	 * preceduti dalla loro posizione
+	 * @return {lunghezza del contenuto, numero di byte del contenuto effettivamente scritti}
+	 */
+	public static int[] writeHotels(
+		DataOutputStream out, StatusClient status, ListIterator<Hotel> hotels, int count, int firstPosition,
+		Deflater deflater, int threshold) throws IOException
+	{
+		int length = 4;
+		for(int i = 0; i < count; i++)
+			length += hotelLength(hotels.next());
+		rewind(hotels, count);
+
+		if(deflater != null && length >= threshold)
+		{
+			deflater.reset();
+			ByteArrayOutputStream compressed = new ByteArrayOutputStream(length / 2 + 16);
+			DeflaterOutputStream deflating = new DeflaterOutputStream(compressed, deflater, 4096);
+			writeHotelRecords(new DataOutputStream(deflating), hotels, count, firstPosition);
+			deflating.finish();
+			if(compressed.size() + 4 < length)
+			{
+				out.writeInt(compressed.size() + 6);
+				out.writeByte(status.ordinal());
+				out.writeByte(TYPE_HOTELS | FLAG_DEFLATE);
+				out.writeInt(length);
+				compressed.writeTo(out);
+				return new int[] {length, compressed.size() + 4};
+			}
+			rewind(hotels, count);
+		}
+		out.writeInt(length + 2);
+		out.writeByte(status.ordinal());
+		out.writeByte(TYPE_HOTELS);
+		writeHotelRecords(out, hotels, count, firstPosition);
+		return new int[] {length, length};
+	}
+
+	/**
+	 * Scrive il contenuto di una risposta di tipo {@link #TYPE_HOTELS} con i 'count' hotel che seguono
+	 * la posizione di 'hotels'.
+	 */
+	private static void writeHotelRecords(DataOutputStream out, ListIterator<Hotel> hotels, int count, int firstPosition)
+		throws IOException
+	{
+		out.writeInt(count);
+		for(int i = 0; i < count; i++)
+			writeHotel(out, hotels.next(), firstPosition > 0 ? firstPosition + i : 0);
+	}
+
+	/**
+	 * Riporta l'iteratore indietro di 'count' posizioni.
+	 */
+	private static void rewind(ListIterator<Hotel> hotels, int count)
+	{
+		for(int i = 0; i < count; i++)
+			hotels.previous();
+	}
+
+	/**
+	 * Scrive il record binario di un hotel, preceduto dalla sua posizione in classifica (0 se non va
+	 * mostrata).
+	 */
+	private static void writeHotel(DataOutputStream out, Hotel hotel, int position) throws IOException
+	{
+		out.writeInt(position);
+		out.writeUTF(hotel.getName());
+		out.writeUTF(hotel.getDescription());
+		out.writeUTF(hotel.getPhone());
+		out.writeShort(hotel.getServices().size());
+		for(String service : hotel.getServices())
+			out.writeUTF(service);
+		out.writeDouble(hotel.getRate());
+		Ratings ratings = hotel.getRatings();
+		out.writeDouble(ratings.getCleaning());
+		out.writeDouble(ratings.getPosition());
+		out.writeDouble(ratings.getServices());
+		out.writeDouble(ratings.getQuality());
+	}
+
+	/**
+	 * @return la lunghezza in byte del record binario di un hotel scritto da {@link #writeHotel}
+	 */
+	private static int hotelLength(Hotel hotel)
+	{
+		int length = 4 + utfLength(hotel.getName()) + utfLength(hotel.getDescription()) + utfLength(hotel.getPhone()) + 2;
+		for(String service : hotel.getServices())
+			length += utfLength(service);
+		return length + 5 * 8;
+	}
+
+	/**
+	 * @return la lunghezza in byte di 's' scritta con {@link DataOutputStream#writeUTF}
+	 */
+	private static int utfLength(String s)
+	{
+		int length = 2;
+		for(int i = 0; i < s.length(); i++)
+		{
+			char c = s.charAt(i);
+			if(c >= 0x0001 && c <= 0x007f)
+				length++;
+			else if(c > 0x07ff)
+				length += 3;
+			else
+				length += 2;
+		}
+		return length;
+	}
+
+	/**
+	 * Scrive un frame di risposta. Se 'deflater' non è null e il contenuto è lungo almeno 'threshold'
+	 * byte, il contenuto viene compresso (solo se la compressione lo accorcia).
+	 * @return il numero di byte del contenuto effettivamente scritti
+	 */
+	public static int writeReply(
+		DataOutputStream out, StatusClient status, byte type, byte[] content, Deflater deflater, int threshold)
+		throws IOException
+	{
+		if(deflater != null && content.length >= threshold)
+		{
+			deflater.reset();
+			deflater.setInput(content);
+			deflater.finish();
+			ByteArrayOutputStream compressed = new ByteArrayOutputStream(content.length / 2 + 16);
+			byte[] chunk = new byte[4096];
+			while(!deflater.finished())
+				compressed.write(chunk, 0, deflater.deflate(chunk));
+			if(compressed.size() + 4 < content.length)
+			{
+				out.writeInt(compressed.size() + 6);
+				out.writeByte(status.ordinal());
+				out.writeByte(type | FLAG_DEFLATE);
+				out.writeInt(content.length);
+				compressed.writeTo(out);
+				return compressed.size() + 4;
+			}
+		}
+		out.writeInt(content.length + 2);
+		out.writeByte(status.ordinal());
+		out.writeByte(type);
+		out.write(content);
+		return content.length;
+	}
+
+	/**
+	 * Legge un frame di risposta.
+	 * @param inflater usato per decomprimere le risposte compresse
+	 * @return un array {stato, contenuto}, dove il contenuto è il testo da mostrare all'utente (le
+	 * risposte di tipo {@link #TYPE_HOTELS} sono convertite nello stesso testo del protocollo testuale);
+	 * null se la connessione è stata chiusa
+	 */
+	public static String[] readReply(DataInputStream in, Inflater inflater) throws IOException
+	{
+		byte[] frame = readFrame(in);
+		if(frame == null)
+			return null;
+		return decodeReply(frame, inflater);
+	}
+
+	/**
+	 * Legge un frame di risposta di una connessione multiplexata.
+	 * @return un array {id sessione, stato, contenuto}, come {@link #readReply(DataInputStream, Inflater)};
+	 * null se la connessione è stata chiusa
+	 */
+	public static String[] readMuxReply(DataInputStream in) throws IOException
+	{
+		byte[] frame = readFrame(in);
+		if(frame == null)
+			return null;
+		if(frame.length < 4)
+			throw new IOException("frame multiplexato troppo corto");
+		int session = new DataInputStream(new ByteArrayInputStream(frame, 0, 4)).readInt();
+		String[] reply = decodeReply(Arrays.copyOfRange(frame, 4, frame.length), null);
+		return new String[] {Integer.toString(session), reply[0], reply[1]};
+	}
+
+	/**
+	 * Decodifica un frame di risposta (senza il prefisso di lunghezza) nell'array {stato, contenuto}.
+	 */
+	private static String[] decodeReply(byte[] frame, Inflater inflater) throws IOException
+	{
+		String status = StatusClient.values()[frame[0]].name();
+		byte type = (byte) (frame[1] & ~FLAG_DEFLATE);
+		byte[] data = frame;
+		int offset = 2;
+		if((frame[1] & FLAG_DEFLATE) != 0)
+		{	// contenuto compresso: [int lunghezza non compressa][contenuto compresso]
+			if(inflater == null)
+				throw new IOException("risposta compressa senza aver negoziato la compressione");
+			data = inflate(frame, inflater);
+			offset = 0;
+		}
+
+		if(type == TYPE_MESSAGE)
+			return new String[] {status, new String(data, offset, data.length - offset)};
+
+		DataInputStream content = new DataInputStream(new ByteArrayInputStream(data, offset, data.length - offset));
+		int count = content.readInt();
+		StringBuilder text = new StringBuilder("\n");
+		for(int i = 0; i < count; i++)
+		{
+			int position = content.readInt();
+			String name = content.readUTF();
+			String description = content.readUTF();
+			String phone = content.readUTF();
+			List<String> services = new ArrayList<>();
+			for(int s = content.readShort(); s > 0; s--)
+				services.add(content.readUTF());
+			double rate = content.readDouble();
+			Ratings ratings = new Ratings(
+				content.readDouble(), content.readDouble(), content.readDouble(), content.readDouble());
+
+			if(position > 0)
+				text.append("(" + position + ") ");
+			text.append(name + "\n")
+				.append("  \"" + description + "\"\n")
+				.append("  phone=" + phone + "\n")
+				.append("  services=" + services + "\n")
+				.append("  rate=" + String.format(Locale.US, "%.2f", rate) + "\n")
+				.append("  ratings=" + ratings.toStringWithApproximation() + "\n");
+			if(i < count - 1)
+				text.append("\n");
+		}
+		return new String[] {status, text.toString()};
+	}
+
+	/**
+	 * Decomprime il contenuto di un frame di risposta compresso.
+	 */
+	private static byte[] inflate(byte[] frame, Inflater inflater) throws IOException
+	{
+		int length = new DataInputStream(new ByteArrayInputStream(frame, 2, 4)).readInt();
+		if(length < 0 || length > MAX_FRAME_LENGTH)
+			throw new IOException("lunghezza del contenuto non valida: " + length);
+		byte[] content = new byte[length];
+		inflater.reset();
+		inflater.setInput(frame, 6, frame.length - 6);
+		try
+		{
+			int n = 0;
+			while(n < length && !inflater.finished())
+			{
+				int read = inflater.inflate(content, n, length - n);
+				if(read == 0 && inflater.needsInput())
+					break;
+				n += read;
+			}
+			if(n != length)
+				throw new IOException("contenuto compresso troncato");
+		}
+		catch(DataFormatException e)
+		{
+			throw new IOException("contenuto compresso non valido", e);
+		}
+		return content;
+	}
+}
\ No newline at end of file